@@ -0,0 +1,124 @@
+package com.legacy.demo.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.legacy.demo.catalog.CatalogIndexer;
+import com.legacy.demo.catalog.CatalogSnapshot;
+import com.legacy.demo.catalog.CatalogVersion;
+import com.legacy.demo.catalog.CategoryDictionary;
+import com.legacy.demo.catalog.ItemCache;
+import com.legacy.demo.catalog.SuggestIndex;
+import com.legacy.demo.catalog.TagIndex;
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.entities.Item;
+import com.legacy.demo.repos.ItemRepo;
+import com.legacy.demo.services.ItemService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The shop browse path against synthetic catalogs, next to the original stream filter and
+ * comparator chain it replaced. Each call takes the next filter of the front end's mix.
+ *
+ * Run with -prof gc for allocation rates, see the jmh profile in the pom.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CatalogBrowseBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    private int catalogSize;
+
+    private List<Item> catalog;
+    private ItemService service;
+    private ItemFilterDto[] mix;
+    private Comparator<Item> sortChain;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        catalog = SyntheticCatalog.items(catalogSize, 42);
+        mix = SyntheticCatalog.filterMix();
+        sortChain = LegacyFilter.comparator(Arrays.asList("price,asc", "name,desc"));
+
+        ItemRepo repo = catalogRepo(catalog);
+        TagIndex tagIndex = new TagIndex();
+        CatalogSnapshot snapshot = new CatalogSnapshot(true, 50000);
+        CategoryDictionary categories = new CategoryDictionary();
+        CatalogIndexer indexer = new CatalogIndexer(repo, Arrays.asList(tagIndex, snapshot, categories));
+        service = new ItemService(repo, tagIndex, snapshot, categories, new SuggestIndex(), indexer,
+                new CatalogVersion(), new ItemCache(10000, Duration.ofMinutes(10)), null, null, new SimpleMeterRegistry());
+        indexer.load();
+    }
+
+    @Benchmark
+    public List<ItemDto> browseMix() {
+        return service.browse(nextFilter());
+    }
+
+    // What /items/filter used to do: filter with streams, sort, then map every match
+    @Benchmark
+    public List<ItemDto> legacyFilterMix() {
+        return toDtos(LegacyFilter.filter(catalog, nextFilter()));
+    }
+
+    @Benchmark
+    public List<Item> legacySortChain() {
+        List<Item> items = new ArrayList<>(catalog);
+        items.sort(sortChain);
+        return items;
+    }
+
+    @Benchmark
+    public List<ItemDto> dtoMapping() {
+        return toDtos(catalog);
+    }
+
+    private ItemFilterDto nextFilter() {
+        ItemFilterDto filter = mix[next];
+        next = (next + 1) % mix.length;
+        return filter;
+    }
+
+    private static List<ItemDto> toDtos(List<Item> items) {
+        List<ItemDto> dtos = new ArrayList<>(items.size());
+        for (Item item : items) {
+            dtos.add(new ItemDto(item));
+        }
+        return dtos;
+    }
+
+    // Only findAll() is needed, to load the catalog indexes
+    private static ItemRepo catalogRepo(List<Item> catalog) {
+        return (ItemRepo) Proxy.newProxyInstance(ItemRepo.class.getClassLoader(), new Class<?>[] { ItemRepo.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findAll") && (args == null || args.length == 0)) {
+                        return catalog;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,87 @@
+package com.legacy.demo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.entities.Item;
+
+// The original findAll() + stream filter and getFieldComparator sort chain, kept as the
+// baseline the in-memory catalog is measured against
+final class LegacyFilter {
+
+    private LegacyFilter() {
+    }
+
+    static List<Item> filter(List<Item> all, ItemFilterDto filter) {
+        List<Item> items = new ArrayList<>(all);
+        Double minPrice = filter.getMinPrice();
+        Double maxPrice = filter.getMaxPrice();
+        String category = filter.getCategory();
+        String searchTerm = filter.getSearchTerm();
+
+        if (minPrice != null) {
+            items = items.stream().filter(item -> item.getPrice() >= minPrice).collect(Collectors.toList());
+        }
+        if (maxPrice != null) {
+            items = items.stream().filter(item -> item.getPrice() <= maxPrice).collect(Collectors.toList());
+        }
+        if (category != null && !category.isEmpty()) {
+            items = items.stream().filter(item -> item.getCategory().equalsIgnoreCase(category)).collect(Collectors.toList());
+        }
+        if (filter.getInStock() != null && filter.getInStock()) {
+            items = items.stream().filter(item -> item.getQuantity() > 0).collect(Collectors.toList());
+        }
+        if (searchTerm != null && !searchTerm.isEmpty()) {
+            items = items.stream()
+                    .filter(item -> item.getTags() != null && item.getTags().stream()
+                            .anyMatch(tag -> tag.equalsIgnoreCase(searchTerm)))
+                    .collect(Collectors.toList());
+        }
+
+        Comparator<Item> comparator = comparator(filter.getSort());
+        if (comparator != null) {
+            items.sort(comparator);
+        }
+        return items;
+    }
+
+    static Comparator<Item> comparator(List<String> sort) {
+        Comparator<Item> comparator = null;
+        if (sort == null) {
+            return null;
+        }
+        for (String param : sort) {
+            String[] sortCriteria = param.split(",");
+            if ("none".equalsIgnoreCase(sortCriteria[1])) {
+                continue;
+            }
+            Comparator<Item> fieldComparator = getFieldComparator(sortCriteria[0], sortCriteria[1]);
+            comparator = comparator == null ? fieldComparator : comparator.thenComparing(fieldComparator);
+        }
+        return comparator;
+    }
+
+    private static Comparator<Item> getFieldComparator(String field, String direction) {
+        Comparator<Item> comparator;
+        switch (field.toLowerCase()) {
+            case "name":
+                comparator = Comparator.comparing(Item::getName);
+                break;
+            case "price":
+                comparator = Comparator.comparing(Item::getPrice);
+                break;
+            case "quantity":
+                comparator = Comparator.comparing(Item::getQuantity);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid sort field: " + field);
+        }
+        if ("desc".equalsIgnoreCase(direction)) {
+            comparator = comparator.reversed();
+        }
+        return comparator;
+    }
+}
@@ -0,0 +1,88 @@
+package com.legacy.demo.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.legacy.demo.controllers.ResponseFormats;
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.entities.Item;
+
+/**
+ * Cost of writing one /items/filter response in each format: a page of items as JSON or
+ * CBOR, whole or with only the fields the shop grid shows, gzipped or not. The score is
+ * CPU time per response and -prof gc gives the allocation; the bytes per response are
+ * printed when each trial starts.
+ *
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="ResponseFormatBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseFormatBenchmark {
+
+    private static final String GRID_FIELDS = "id,name,price,imageUrl";
+
+    @Param({ "json", "cbor" })
+    private String format;
+
+    @Param({ "all", "grid" })
+    private String fields;
+
+    @Param({ "false", "true" })
+    private boolean gzip;
+
+    @Param({ "48" })
+    private int pageSize;
+
+    private List<ItemDto> page;
+    private ObjectWriter writer;
+    private ByteArrayOutputStream buffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        page = new ArrayList<>(pageSize);
+        for (Item item : SyntheticCatalog.items(pageSize, 42)) {
+            page.add(new ItemDto(item));
+        }
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json().filters(ResponseFormats.allFields());
+        if ("cbor".equals(format)) {
+            builder.factory(new CBORFactory());
+        }
+        writer = builder.build().writer(ResponseFormats.fields("grid".equals(fields) ? GRID_FIELDS : null));
+        buffer = new ByteArrayOutputStream(64 * 1024);
+        System.out.printf("%n%s, %s fields%s: %d bytes per response%n", format, fields, gzip ? ", gzip" : "",
+                writeResponse());
+    }
+
+    @Benchmark
+    public int writeResponse() throws IOException {
+        buffer.reset();
+        OutputStream out = gzip ? new GZIPOutputStream(buffer, 8192) : buffer;
+        writer.writeValue(out, page);
+        out.close();
+        return buffer.size();
+    }
+}
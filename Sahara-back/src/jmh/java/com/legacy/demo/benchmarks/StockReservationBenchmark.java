@@ -0,0 +1,85 @@
+package com.legacy.demo.benchmarks;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import com.legacy.demo.dtos.StockLineDto;
+import com.legacy.demo.dtos.StockReservationDto;
+import com.legacy.demo.services.HotStockEngine;
+import com.legacy.demo.services.StockReservationService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Reservations per second of one unit of a single SKU, from many threads at once, against
+ * an in-memory H2 database. rowLock is every checkout decrementing the item's row under
+ * its lock; striped is the same SKU listed in catalog.stock.hot-items, taken from
+ * HotStockEngine's counters and written back in groups. H2 commits far faster than a
+ * networked MySQL, so the gap here is the least it will be.
+ *
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="StockReservationBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class StockReservationBenchmark {
+
+    private static final int SKU = 1;
+    private static final List<StockLineDto> ONE_UNIT = List.of(new StockLineDto(SKU, 1));
+
+    @Param({ "rowLock", "striped" })
+    private String path;
+
+    private JdbcConnectionPool dataSource;
+    private HotStockEngine hotStock;
+    private StockReservationService reservations;
+
+    @Setup
+    public void setUp() {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:stock-" + path + ";LOCK_TIMEOUT=60000;DB_CLOSE_DELAY=-1",
+                "sa", "");
+        dataSource.setMaxConnections(64);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE item (id INT PRIMARY KEY, quantity INT NOT NULL)");
+        // Enough that no iteration sells out
+        jdbc.update("INSERT INTO item (id, quantity) VALUES (?, ?)", SKU, Integer.MAX_VALUE / 2);
+
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        hotStock = new HotStockEngine(jdbc, transactionManager, new SimpleMeterRegistry(),
+                "striped".equals(path) ? Set.of(SKU) : Set.of(), 16);
+        reservations = new StockReservationService(jdbc, transactionManager, hotStock);
+    }
+
+    @TearDown
+    public void tearDown() {
+        hotStock.close();
+        dataSource.dispose();
+    }
+
+    @Benchmark
+    public StockReservationDto reserveOne() {
+        return reservations.reserve(ONE_UNIT);
+    }
+}
@@ -0,0 +1,93 @@
+package com.legacy.demo.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.legacy.demo.catalog.SuggestIndex;
+import com.legacy.demo.dtos.SuggestionDto;
+import com.legacy.demo.entities.Item;
+
+/**
+ * Typeahead lookups against synthetic catalogs, sampled so the report has percentiles -
+ * the target is a p99 under a millisecond at 1M items. Each call takes the next prefix of
+ * what shoppers type. The readWrite group runs the same lookups while another thread
+ * keeps renaming and retagging items, which drops cached answers all the time.
+ *
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="SuggestBenchmark -p catalogSize=1000000"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SuggestBenchmark {
+
+    @Param({ "100000", "1000000" })
+    private int catalogSize;
+
+    private SuggestIndex index;
+    private List<Item> catalog;
+    private String[] prefixes;
+
+    @Setup
+    public void setUp() {
+        catalog = SyntheticCatalog.items(catalogSize, 42);
+        prefixes = SyntheticCatalog.typedPrefixes();
+        index = new SuggestIndex();
+        index.rebuild(catalog);
+    }
+
+    // Each thread walks the prefixes from its own starting point
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final Random random = new Random();
+        private int next = -1;
+
+        String next(String[] prefixes) {
+            if (next < 0) {
+                next = random.nextInt(prefixes.length);
+            }
+            next = (next + 1) % prefixes.length;
+            return prefixes[next];
+        }
+    }
+
+    @Benchmark
+    public List<SuggestionDto> suggest(Cursor cursor) {
+        return index.suggest(cursor.next(prefixes), 8);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public List<SuggestionDto> suggestWhileWriting(Cursor cursor) {
+        return index.suggest(cursor.next(prefixes), 8);
+    }
+
+    // Moves a random item to a new name and tags, as an admin edit would
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void write(Cursor cursor) {
+        Item item = catalog.get(cursor.random.nextInt(catalog.size()));
+        Item edited = SyntheticCatalog.items(1, cursor.random.nextLong()).get(0);
+        edited.setId(item.getId());
+        index.put(edited);
+    }
+}
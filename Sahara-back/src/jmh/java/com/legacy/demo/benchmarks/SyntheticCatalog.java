@@ -0,0 +1,93 @@
+package com.legacy.demo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.entities.Item;
+
+// Seeded random catalogs and the mix of filters the shop front end sends
+final class SyntheticCatalog {
+
+    static final String[] CATEGORIES = { "Shoes", "Hats", "Bags", "Coats", "Shirts", "Jeans", "Socks", "Belts",
+            "Scarves", "Gloves", "Watches", "Sunglasses" };
+    private static final String[] COLORS = { "black", "white", "red", "blue", "green", "grey", "brown" };
+    private static final String[] WORDS = { "Classic", "Urban", "Summer", "Winter", "Trail", "Studio", "Retro",
+            "Everyday", "Premium", "Vintage", "Sport", "Travel" };
+    private static final String[] TAGS = { "sale", "new", "bestseller", "eco", "limited", "unisex", "kids",
+            "waterproof", "leather", "cotton", "wool", "organic", "slim", "oversized", "gift" };
+
+    private SyntheticCatalog() {
+    }
+
+    static List<Item> items(int size, long seed) {
+        Random random = new Random(seed);
+        List<Item> items = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            ArrayList<String> tags = new ArrayList<>();
+            int tagCount = random.nextInt(4);
+            for (int t = 0; t < tagCount; t++) {
+                tags.add(TAGS[random.nextInt(TAGS.length)]);
+            }
+            items.add(new Item(id,
+                    WORDS[random.nextInt(WORDS.length)] + " " + category + " " + random.nextInt(1000),
+                    Math.round((0.5 + random.nextDouble() * 499.5) * 100) / 100.0,
+                    random.nextInt(5) == 0 ? 0 : random.nextInt(50),
+                    "img/" + id + ".png",
+                    COLORS[random.nextInt(COLORS.length)],
+                    category,
+                    tags));
+        }
+        return items;
+    }
+
+    // Landing page, category pages, the price and stock filters, a tag search and a
+    // paged first screen
+    static ItemFilterDto[] filterMix() {
+        return new ItemFilterDto[] {
+                filter(Arrays.asList("name,none", "price,none"), null, null, null, null, null),
+                filter(Arrays.asList("price,asc"), null, null, "Shoes", null, null),
+                filter(Arrays.asList("name,asc"), 10.0, 50.0, null, true, null),
+                filter(Arrays.asList("price,desc"), null, null, null, null, "sale"),
+                filter(Arrays.asList("quantity,desc", "name,asc"), null, 100.0, "hats", true, null),
+                page(filter(Arrays.asList("price,asc"), null, null, null, true, null), 24),
+        };
+    }
+
+    // What shoppers type into the search bar on the way to a word of the catalog, one to
+    // five characters of it, plus a few longer multi-word and numeric prefixes
+    static String[] typedPrefixes() {
+        List<String> prefixes = new ArrayList<>();
+        for (String[] words : Arrays.asList(WORDS, CATEGORIES, TAGS, COLORS)) {
+            for (String word : words) {
+                for (int length = 1; length <= Math.min(5, word.length()); length++) {
+                    prefixes.add(word.substring(0, length).toLowerCase());
+                }
+            }
+        }
+        prefixes.addAll(Arrays.asList("classic s", "trail shoes", "trail shoes 1", "urban hats 42", "4", "42",
+                "water", "vintage w"));
+        return prefixes.toArray(new String[0]);
+    }
+
+    static ItemFilterDto filter(List<String> sort, Double minPrice, Double maxPrice, String category,
+            Boolean inStock, String searchTerm) {
+        ItemFilterDto filter = new ItemFilterDto();
+        filter.setSort(sort);
+        filter.setMinPrice(minPrice);
+        filter.setMaxPrice(maxPrice);
+        filter.setCategory(category);
+        filter.setInStock(inStock);
+        filter.setSearchTerm(searchTerm);
+        return filter;
+    }
+
+    private static ItemFilterDto page(ItemFilterDto filter, int size) {
+        filter.setPage(0);
+        filter.setSize(size);
+        return filter;
+    }
+}
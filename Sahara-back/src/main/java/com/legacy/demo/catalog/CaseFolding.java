@@ -0,0 +1,17 @@
+package com.legacy.demo.catalog;
+
+public final class CaseFolding {
+
+    private CaseFolding() {
+    }
+
+    // Folds case one char at a time the same way String.equalsIgnoreCase compares them,
+    // so two strings fold to the same value exactly when equalsIgnoreCase is true
+    public static String fold(String value) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,103 @@
+package com.legacy.demo.catalog;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.legacy.demo.entities.Item;
+import com.legacy.demo.repos.ItemRepo;
+
+/**
+ * Loads every {@link ItemIndex} from the item table once the application is up, and
+ * passes each item write on to them afterwards.
+ *
+ * Writes that happen while the table is being read are held back and replayed on top
+ * of the freshly built indexes, so nothing committed during startup is lost. Each write
+ * is applied as it is passed on, so callers must pass on the writes to one item in the
+ * order they were made - ItemService holds the item's write lock across both.
+ */
+@Component
+public class CatalogIndexer {
+
+    private final ItemRepo repo;
+    private final List<ItemIndex> indexes;
+
+    // Non-null while a load is in progress - item id to latest state, null for removed
+    private Map<Integer, Item> pending;
+    private volatile boolean loaded;
+
+    public CatalogIndexer(ItemRepo repo, List<ItemIndex> indexes) {
+        this.repo = repo;
+        this.indexes = indexes;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        synchronized (this) {
+            pending = new LinkedHashMap<>();
+        }
+
+        List<Item> items = this.repo.findAll();
+
+        synchronized (this) {
+            for (ItemIndex index : indexes) {
+                index.rebuild(items);
+            }
+            for (Map.Entry<Integer, Item> change : pending.entrySet()) {
+                apply(change.getKey(), change.getValue());
+            }
+            pending = null;
+            loaded = true;
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized void saved(Item item) {
+        record(item.getId(), item);
+    }
+
+    // A batch of writes, passed on under one hold of the lock and as one putAll, so each
+    // index can fold the whole batch in at once
+    public synchronized void savedAll(Collection<Item> items) {
+        if (pending == null && loaded) {
+            for (ItemIndex index : indexes) {
+                index.putAll(items);
+            }
+            return;
+        }
+        for (Item item : items) {
+            record(item.getId(), item);
+        }
+    }
+
+    public synchronized void removed(Integer id) {
+        record(id, null);
+    }
+
+    private void record(Integer id, Item item) {
+        if (pending != null) {
+            pending.put(id, item);
+        } else if (loaded) {
+            apply(id, item);
+        }
+        // Not loaded yet and no load running - the load will pick this up from the table
+    }
+
+    private void apply(Integer id, Item item) {
+        for (ItemIndex index : indexes) {
+            if (item != null) {
+                index.put(item);
+            } else {
+                index.remove(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,889 @@
+package com.legacy.demo.catalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.dtos.ItemResultsDto;
+import com.legacy.demo.entities.Item;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Read-optimized copy of the catalog for the shop browse path.
+ *
+ * Item fields are held as parallel primitive columns - price as {@code double[]},
+ * quantity as {@code int[]} and category as dictionary codes in an {@code int[]} - with
+ * one row per item in ascending id order. A filter is a tight loop over those columns
+ * that writes matching row numbers into a selection vector, split across cores with
+ * fork/join once the catalog passes a size threshold. Only the rows that end up on the
+ * requested page are turned into ItemDtos.
+ *
+ * For each sortable column the snapshot also keeps the live rows pre-sorted by that
+ * column, updated in place on every write. A batch of writes is merged into each ordering
+ * in one pass instead. A sorted request walks the ordering of its first sort field and
+ * stops once the page is full, so it never sorts the whole result.
+ *
+ * Removed items leave a dead row behind until enough have built up to compact.
+ *
+ * A query can also count facets - categories, price buckets and stock - over everything
+ * it matches. Those counts are taken in the filter loop itself, which then has to see
+ * every row rather than stopping at the end of the page.
+ *
+ * Each stage of a query is timed as catalog.snapshot.stage, next to a gauge of the
+ * number of items held.
+ */
+@Component
+public class CatalogSnapshot implements ItemIndex, MeterBinder {
+
+    // Stand-ins for null columns. NaN fails every price comparison and MIN_VALUE is
+    // never in stock, which matches how the SQL filter treats NULLs.
+    private static final double NO_PRICE = Double.NaN;
+    private static final int NO_QUANTITY = Integer.MIN_VALUE;
+    private static final int NO_CATEGORY = -1;
+    private static final int ANY_CATEGORY = -2;
+
+    private static final int MIN_CAPACITY = 64;
+    private static final int COMPACT_AFTER = 1024;
+    private static final int INSERTION_SORT_MAX = 16;
+
+    // Sortable columns, indexing the orderings below. The id sort has no ordering of its
+    // own since the rows are already in id order.
+    private static final int ID = -1;
+    private static final int NAME = 0;
+    private static final int PRICE = 1;
+    private static final int QUANTITY = 2;
+    private static final int SORTED_FIELDS = 3;
+
+    private final boolean enabled;
+    private final int parallelThreshold;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int rows; // rows in use, live or dead
+    private int dead;
+    private int[] ids = new int[0];
+    private boolean[] live = new boolean[0];
+    private double[] prices = new double[0];
+    private int[] quantities = new int[0];
+    private int[] categories = new int[0];
+    private String[] names = new String[0];
+    private Item[] items = new Item[0];
+
+    // orderings[field][0, ordered) lists every live row, ascending by that field and then
+    // by id
+    private int[][] orderings = new int[SORTED_FIELDS][0];
+    private int ordered;
+
+    // Case-folded category to its code in the categories column, and each code's name
+    // as first seen
+    private final Map<String, Integer> categoryCodes = new HashMap<>();
+    private final List<String> categoryNames = new ArrayList<>();
+
+    // Set once the meter registry binds the snapshot, nothing is timed before that
+    private volatile Meters meters;
+
+    public CatalogSnapshot(@Value("${catalog.snapshot.enabled:true}") boolean enabled,
+            @Value("${catalog.snapshot.parallel-threshold:50000}") int parallelThreshold) {
+        this.enabled = enabled;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Number of live items
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows - dead;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("catalog.snapshot.items", this, CatalogSnapshot::size)
+                .description("Live items in the catalog snapshot")
+                .register(registry);
+        this.meters = new Meters(registry);
+    }
+
+    @Override
+    public void rebuild(List<Item> source) {
+        if (!enabled) {
+            return;
+        }
+        List<Item> sorted = new ArrayList<>(source);
+        sorted.sort(Comparator.comparing(Item::getId));
+
+        lock.writeLock().lock();
+        try {
+            rows = 0;
+            dead = 0;
+            categoryCodes.clear();
+            categoryNames.clear();
+            resize(Math.max(MIN_CAPACITY, sorted.size()));
+            for (Item item : sorted) {
+                set(rows++, item);
+            }
+
+            for (int field = 0; field < SORTED_FIELDS; field++) {
+                int[] ordering = orderings[field];
+                for (int r = 0; r < rows; r++) {
+                    ordering[r] = r;
+                }
+                int f = field;
+                sort(ordering, 0, rows, (a, b) -> compareOrdered(f, a, b));
+            }
+            ordered = rows;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(Item item) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            int at = Arrays.binarySearch(ids, 0, rows, item.getId());
+            if (at >= 0) {
+                if (live[at]) {
+                    unorder(at);
+                } else {
+                    dead--;
+                }
+                set(at, item);
+                order(at);
+                return;
+            }
+
+            // New ids are normally the highest yet, so this is an append; anything else
+            // shifts the rows after it down by one to keep the columns in id order
+            at = -at - 1;
+            if (rows == ids.length) {
+                resize(Math.max(MIN_CAPACITY, rows * 2));
+            }
+            if (at < rows) {
+                shiftDown(at);
+            }
+            rows++;
+            set(at, item);
+            order(at);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The batch's rows are written as by put, but the orderings are only brought up to
+    // date at the end: one pass over each drops the rows' old positions and another merges
+    // them back in, sorted among themselves. That costs O(n + k log k) per ordering for k
+    // items, where put's shifting costs O(n) for each of them.
+    @Override
+    public void putAll(Collection<Item> batch) {
+        if (!enabled) {
+            return;
+        }
+        // Only the last write of an id counts
+        Map<Integer, Item> latest = new LinkedHashMap<>();
+        for (Item item : batch) {
+            latest.put(item.getId(), item);
+        }
+        lock.writeLock().lock();
+        try {
+            int last = rows > 0 ? ids[rows - 1] : Integer.MIN_VALUE;
+            List<Item> rest = new ArrayList<>(latest.size());
+            for (Item item : latest.values()) {
+                if (item.getId() < last && Arrays.binarySearch(ids, 0, rows, item.getId()) < 0) {
+                    // A new id below the highest shifts rows down, rare enough to leave to put
+                    put(item);
+                } else {
+                    rest.add(item);
+                }
+            }
+            // So the new ids among them append in order
+            rest.sort(Comparator.comparing(Item::getId));
+
+            boolean[] leaving = new boolean[rows];
+            int left = 0;
+            int[] added = new int[rest.size()];
+            for (int i = 0; i < added.length; i++) {
+                Item item = rest.get(i);
+                int at = Arrays.binarySearch(ids, 0, rows, item.getId());
+                if (at >= 0) {
+                    if (live[at]) {
+                        leaving[at] = true;
+                        left++;
+                    } else {
+                        dead--;
+                    }
+                } else {
+                    if (rows == ids.length) {
+                        resize(Math.max(MIN_CAPACITY, rows * 2));
+                    }
+                    at = rows++;
+                }
+                set(at, item);
+                added[i] = at;
+            }
+
+            for (int field = 0; field < SORTED_FIELDS; field++) {
+                int[] ordering = orderings[field];
+                int kept = 0;
+                for (int i = 0; i < ordered; i++) {
+                    if (!leaving[ordering[i]]) {
+                        ordering[kept++] = ordering[i];
+                    }
+                }
+                int f = field;
+                RowOrder order = (a, b) -> compareOrdered(f, a, b);
+                int[] merged = Arrays.copyOf(added, added.length);
+                sort(merged, 0, merged.length, order);
+
+                // From the back, so the ordering can be merged into in place
+                int i = kept - 1;
+                int j = merged.length - 1;
+                int to = kept + merged.length - 1;
+                while (j >= 0) {
+                    ordering[to--] = i >= 0 && order.compare(ordering[i], merged[j]) > 0 ? ordering[i--] : merged[j--];
+                }
+            }
+            ordered += added.length - left;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Integer id) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            int at = Arrays.binarySearch(ids, 0, rows, id);
+            if (at < 0 || !live[at]) {
+                return;
+            }
+            unorder(at);
+            live[at] = false;
+            items[at] = null;
+            names[at] = null;
+            dead++;
+            if (dead > COMPACT_AFTER && dead > rows / 4) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // One page of the filtered, sorted catalog. taggedIds is the sorted posting list for
+    // a searchTerm, or null when there is no tag filter.
+    public List<ItemDto> query(ItemFilterDto filter, Sort sort, int[] taggedIds, long offset, int limit) {
+        lock.readLock().lock();
+        try {
+            return select(filter, sort, taggedIds, offset, limit, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The same page along with facet counts over every match, bucketing prices at the
+    // given ascending boundaries
+    public ItemResultsDto queryWithFacets(ItemFilterDto filter, Sort sort, int[] taggedIds, long offset, int limit,
+            double[] priceBuckets) {
+        lock.readLock().lock();
+        try {
+            FacetCounter counts = new FacetCounter(priceBuckets);
+            List<ItemDto> page = select(filter, sort, taggedIds, offset, limit, counts);
+            return new ItemResultsDto(page, counts.toDto(categoryNames));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Runs under the read lock. Every match is added to counts when it is non-null.
+    private List<ItemDto> select(ItemFilterDto filter, Sort sort, int[] taggedIds, long offset, int limit,
+            FacetCounter counts) {
+        int category = categoryCode(filter.getCategory());
+        if (category == NO_CATEGORY) {
+            return new ArrayList<>();
+        }
+        RowFilter rowFilter = new RowFilter(filter, category);
+
+        // Only the first offset + limit rows in sort order are needed
+        List<Sort.Order> orders = sort.toList();
+        int wanted = (int) Math.min(Integer.MAX_VALUE, offset + limit);
+
+        // The id tiebreaker alone is already row order
+        boolean byId = orders.size() <= 1;
+
+        long started = System.nanoTime();
+        // Walking stops at the end of the page, which facet counts can't
+        boolean walked = taggedIds == null && !byId && counts == null;
+        int[] selected;
+        if (taggedIds != null) {
+            selected = scanTagged(rowFilter, taggedIds, counts);
+        } else if (walked) {
+            selected = walk(rowFilter, orders, wanted);
+        } else if (rows - dead >= parallelThreshold) {
+            ScanTask task = new ScanTask(rowFilter, 0, rows, chunkSize(), counts != null ? counts.priceBuckets() : null);
+            selected = ForkJoinPool.commonPool().invoke(task);
+            if (counts != null) {
+                counts.merge(task.counts);
+            }
+        } else {
+            selected = scan(rowFilter, 0, rows, counts);
+        }
+        long scanned = System.nanoTime();
+
+        boolean topped = !byId && !walked;
+        if (topped) {
+            selected = top(selected, rowOrder(orders), wanted);
+        }
+        long sorted = System.nanoTime();
+
+        int from = (int) Math.min(offset, selected.length);
+        int to = (int) Math.min((long) from + limit, selected.length);
+        List<ItemDto> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(new ItemDto(items[selected[i]]));
+        }
+
+        Meters m = this.meters;
+        if (m != null) {
+            (walked ? m.walk : m.scan).record(scanned - started, TimeUnit.NANOSECONDS);
+            if (topped) {
+                m.sort.record(sorted - scanned, TimeUnit.NANOSECONDS);
+            }
+            m.page.record(System.nanoTime() - sorted, TimeUnit.NANOSECONDS);
+        }
+        return page;
+    }
+
+    // Row numbers in [from, to) that pass the filter, in row (id) order
+    private int[] scan(RowFilter f, int from, int to, FacetCounter counts) {
+        int[] out = new int[to - from];
+        int n = 0;
+        for (int r = from; r < to; r++) {
+            if (f.matches(r)) {
+                out[n++] = r;
+                if (counts != null) {
+                    counts.add(categories[r], prices[r], quantities[r]);
+                }
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // Intersects the tag posting list with the other filters - both are in id order so
+    // each posting is found with a binary search that starts where the last one ended
+    private int[] scanTagged(RowFilter f, int[] taggedIds, FacetCounter counts) {
+        int[] out = new int[taggedIds.length];
+        int n = 0;
+        int low = 0;
+        for (int id : taggedIds) {
+            int at = Arrays.binarySearch(ids, low, rows, id);
+            if (at < 0) {
+                low = -at - 1;
+                continue;
+            }
+            low = at + 1;
+            if (f.matches(at)) {
+                out[n++] = at;
+                if (counts != null) {
+                    counts.add(categories[at], prices[at], quantities[at]);
+                }
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private int chunkSize() {
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        return Math.max(parallelThreshold / 4, rows / (parallelism * 4) + 1);
+    }
+
+    // Rows in sort order, taken by walking the ordering of the first sort field - from the
+    // back for a descending sort - until enough have matched. Each run of rows sharing a
+    // value is then put in order by the remaining sort fields. A run is only ever sorted
+    // whole, so every row kept is in its final position.
+    private int[] walk(RowFilter f, List<Sort.Order> orders, int wanted) {
+        Sort.Order first = orders.get(0);
+        int field = fieldOf(first.getProperty());
+        int[] ordering = orderings[field];
+        boolean descending = first.isDescending();
+
+        // Within a run the ordering is already by id, so with no sort fields left beyond
+        // the tiebreaker there is nothing to do
+        RowOrder rest = orders.size() > 2 ? rowOrder(orders.subList(1, orders.size())) : null;
+
+        int[] out = new int[Math.min(wanted, ordered)];
+        int n = 0;
+        int next = descending ? ordered - 1 : 0;
+        while (n < wanted && next >= 0 && next < ordered) {
+            int start = next;
+            int end = next + 1;
+            if (descending) {
+                while (start > 0 && compareField(field, ordering[start - 1], ordering[next]) == 0) {
+                    start--;
+                }
+                next = start - 1;
+            } else {
+                while (end < ordered && compareField(field, ordering[end], ordering[next]) == 0) {
+                    end++;
+                }
+                next = end;
+            }
+
+            int runStart = n;
+            for (int i = start; i < end; i++) {
+                int r = ordering[i];
+                if (f.matches(r)) {
+                    if (n == out.length) {
+                        out = Arrays.copyOf(out, Math.min(ordered, n * 2 + MIN_CAPACITY));
+                    }
+                    out[n++] = r;
+                }
+            }
+            if (rest != null) {
+                sort(out, runStart, n, rest);
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // The first `wanted` rows of the selection in sort order. A bounded max-heap holds the
+    // best rows seen so far, so a first page costs O(n log k) instead of a full sort.
+    private static int[] top(int[] selected, RowOrder order, int wanted) {
+        if (wanted >= selected.length) {
+            sort(selected, 0, selected.length, order);
+            return selected;
+        }
+        int[] heap = Arrays.copyOf(selected, wanted);
+        for (int i = wanted / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i, wanted, order);
+        }
+        for (int i = wanted; i < selected.length; i++) {
+            if (order.compare(selected[i], heap[0]) < 0) {
+                heap[0] = selected[i];
+                siftDown(heap, 0, wanted, order);
+            }
+        }
+        sort(heap, 0, wanted, order);
+        return heap;
+    }
+
+    // Restores the heap below i - every row is at or after its children in sort order
+    private static void siftDown(int[] heap, int i, int size, RowOrder order) {
+        while (true) {
+            int last = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && order.compare(heap[left], heap[last]) > 0) {
+                last = left;
+            }
+            if (right < size && order.compare(heap[right], heap[last]) > 0) {
+                last = right;
+            }
+            if (last == i) {
+                return;
+            }
+            int swapped = heap[i];
+            heap[i] = heap[last];
+            heap[last] = swapped;
+            i = last;
+        }
+    }
+
+    // Stable merge sort of rows[from, to) on int rows, avoiding the boxing of a Comparator
+    private static void sort(int[] rows, int from, int to, RowOrder order) {
+        if (to - from < 2) {
+            return;
+        }
+        mergeSort(rows, new int[(to - from + 1) / 2], from, to, order);
+    }
+
+    private static void mergeSort(int[] rows, int[] buffer, int from, int to, RowOrder order) {
+        if (to - from <= INSERTION_SORT_MAX) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i - 1;
+                while (j >= from && order.compare(rows[j], row) > 0) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, middle, order);
+        mergeSort(rows, buffer, middle, to, order);
+        if (order.compare(rows[middle - 1], rows[middle]) <= 0) {
+            return;
+        }
+
+        // Merge back into rows from a copy of the left half
+        int length = middle - from;
+        System.arraycopy(rows, from, buffer, 0, length);
+        int i = 0;
+        int j = middle;
+        int k = from;
+        while (i < length && j < to) {
+            rows[k++] = order.compare(rows[j], buffer[i]) < 0 ? rows[j++] : buffer[i++];
+        }
+        System.arraycopy(buffer, i, rows, k, length - i);
+    }
+
+    // Compares rows by the sort orders in turn. NULLs sort lowest, the same as in MySQL
+    // and H2.
+    private RowOrder rowOrder(List<Sort.Order> orders) {
+        int[] fields = new int[orders.size()];
+        boolean[] descending = new boolean[orders.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fieldOf(orders.get(i).getProperty());
+            descending[i] = orders.get(i).isDescending();
+        }
+        return (a, b) -> {
+            for (int i = 0; i < fields.length; i++) {
+                int c = fields[i] == ID ? Integer.compare(ids[a], ids[b]) : compareField(fields[i], a, b);
+                if (c != 0) {
+                    return descending[i] ? -c : c;
+                }
+            }
+            return 0;
+        };
+    }
+
+    private static int fieldOf(String property) {
+        switch (property) {
+            case "name":
+                return NAME;
+            case "price":
+                return PRICE;
+            case "quantity":
+                return QUANTITY;
+            default:
+                return ID;
+        }
+    }
+
+    private int compareField(int field, int a, int b) {
+        switch (field) {
+            case NAME:
+                return compareNames(names[a], names[b]);
+            case PRICE:
+                return comparePrices(prices[a], prices[b]);
+            default:
+                return Integer.compare(quantities[a], quantities[b]);
+        }
+    }
+
+    // Position in an ordering - the field, then the id
+    private int compareOrdered(int field, int a, int b) {
+        int c = compareField(field, a, b);
+        return c != 0 ? c : Integer.compare(ids[a], ids[b]);
+    }
+
+    // Code point order, the order the database sorts the names' UTF-8 bytes in, see
+    // ItemSpecifications. It only differs from compareTo where a character beyond U+FFFF,
+    // stored as a surrogate pair, meets one from U+E000 to U+FFFF: the surrogates are
+    // moved above that range before comparing.
+    private static int compareNames(String a, String b) {
+        if (a == null || b == null) {
+            return Boolean.compare(a != null, b != null);
+        }
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                if (x >= Character.MIN_SURROGATE && y >= Character.MIN_SURROGATE) {
+                    x = codePointOrder(x);
+                    y = codePointOrder(y);
+                }
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    private static char codePointOrder(char c) {
+        return (char) (Character.isSurrogate(c) ? c + 0x2000 : c - 0x800);
+    }
+
+    private static int comparePrices(double a, double b) {
+        boolean aMissing = Double.isNaN(a);
+        boolean bMissing = Double.isNaN(b);
+        if (aMissing || bMissing) {
+            return Boolean.compare(!aMissing, !bMissing);
+        }
+        return Double.compare(a, b);
+    }
+
+    // ANY_CATEGORY when there is no category filter, NO_CATEGORY when no item has it
+    private int categoryCode(String category) {
+        if (category == null || category.isEmpty()) {
+            return ANY_CATEGORY;
+        }
+        return categoryCodes.getOrDefault(CaseFolding.fold(category), NO_CATEGORY);
+    }
+
+    private int encodeCategory(String category) {
+        if (category == null) {
+            return NO_CATEGORY;
+        }
+        return categoryCodes.computeIfAbsent(CaseFolding.fold(category), c -> {
+            categoryNames.add(category);
+            return categoryCodes.size();
+        });
+    }
+
+    // Adds a live row to every ordering, by the values now in its columns
+    private void order(int row) {
+        for (int field = 0; field < SORTED_FIELDS; field++) {
+            int[] ordering = orderings[field];
+            int at = -position(field, row) - 1;
+            System.arraycopy(ordering, at, ordering, at + 1, ordered - at);
+            ordering[at] = row;
+        }
+        ordered++;
+    }
+
+    // Takes a row out of every ordering. Must run before its columns change.
+    private void unorder(int row) {
+        for (int field = 0; field < SORTED_FIELDS; field++) {
+            int[] ordering = orderings[field];
+            int at = position(field, row);
+            System.arraycopy(ordering, at + 1, ordering, at, ordered - at - 1);
+        }
+        ordered--;
+    }
+
+    // Binary search for the row in an ordering. Ids are unique, so only the row itself
+    // compares equal.
+    private int position(int field, int row) {
+        int[] ordering = orderings[field];
+        int low = 0;
+        int high = ordered - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int c = compareOrdered(field, ordering[middle], row);
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void set(int row, Item item) {
+        ids[row] = item.getId();
+        live[row] = true;
+        prices[row] = item.getPrice() != null ? item.getPrice() : NO_PRICE;
+        quantities[row] = item.getQuantity() != null ? item.getQuantity() : NO_QUANTITY;
+        categories[row] = encodeCategory(item.getCategory());
+        names[row] = item.getName();
+        items[row] = copyOf(item);
+    }
+
+    // The snapshot keeps its own copy so later changes to a managed entity can't leak in
+    private static Item copyOf(Item item) {
+        return new Item(item.getId(), item.getName(), item.getPrice(), item.getQuantity(), item.getImageUrl(),
+                item.getColor(), item.getCategory(), item.getTags() != null ? new ArrayList<>(item.getTags()) : null);
+    }
+
+    private void resize(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        live = Arrays.copyOf(live, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        names = Arrays.copyOf(names, capacity);
+        items = Arrays.copyOf(items, capacity);
+        for (int field = 0; field < SORTED_FIELDS; field++) {
+            orderings[field] = Arrays.copyOf(orderings[field], capacity);
+        }
+    }
+
+    private void shiftDown(int at) {
+        int length = rows - at;
+        System.arraycopy(ids, at, ids, at + 1, length);
+        System.arraycopy(live, at, live, at + 1, length);
+        System.arraycopy(prices, at, prices, at + 1, length);
+        System.arraycopy(quantities, at, quantities, at + 1, length);
+        System.arraycopy(categories, at, categories, at + 1, length);
+        System.arraycopy(names, at, names, at + 1, length);
+        System.arraycopy(items, at, items, at + 1, length);
+
+        // Every row from at onwards is now one further down
+        for (int field = 0; field < SORTED_FIELDS; field++) {
+            int[] ordering = orderings[field];
+            for (int i = 0; i < ordered; i++) {
+                if (ordering[i] >= at) {
+                    ordering[i]++;
+                }
+            }
+        }
+    }
+
+    private void compact() {
+        int[] moved = new int[rows];
+        int kept = 0;
+        for (int r = 0; r < rows; r++) {
+            if (!live[r]) {
+                continue;
+            }
+            moved[r] = kept;
+            ids[kept] = ids[r];
+            live[kept] = true;
+            prices[kept] = prices[r];
+            quantities[kept] = quantities[r];
+            categories[kept] = categories[r];
+            names[kept] = names[r];
+            items[kept] = items[r];
+            kept++;
+        }
+        Arrays.fill(live, kept, rows, false);
+        Arrays.fill(names, kept, rows, null);
+        Arrays.fill(items, kept, rows, null);
+        rows = kept;
+        dead = 0;
+
+        // The orderings only hold live rows, so each just needs renumbering
+        for (int field = 0; field < SORTED_FIELDS; field++) {
+            int[] ordering = orderings[field];
+            for (int i = 0; i < ordered; i++) {
+                ordering[i] = moved[ordering[i]];
+            }
+        }
+    }
+
+    // The filter predicates with nulls and absent bounds resolved up front, so the
+    // per-row check is only primitive comparisons
+    private final class RowFilter {
+        private final boolean priceBound;
+        private final double minPrice;
+        private final double maxPrice;
+        private final int category;
+        private final boolean inStock;
+
+        RowFilter(ItemFilterDto filter, int category) {
+            this.priceBound = filter.getMinPrice() != null || filter.getMaxPrice() != null;
+            this.minPrice = filter.getMinPrice() != null ? filter.getMinPrice() : Double.NEGATIVE_INFINITY;
+            this.maxPrice = filter.getMaxPrice() != null ? filter.getMaxPrice() : Double.POSITIVE_INFINITY;
+            this.category = category;
+            this.inStock = filter.getInStock() != null && filter.getInStock();
+        }
+
+        boolean matches(int r) {
+            if (!live[r]) {
+                return false;
+            }
+            if (priceBound && !(prices[r] >= minPrice && prices[r] <= maxPrice)) {
+                return false;
+            }
+            if (category != ANY_CATEGORY && categories[r] != category) {
+                return false;
+            }
+            return !inStock || quantities[r] > 0;
+        }
+    }
+
+    // scan filters in row order, walk filters and sorts in one pass over an ordering, sort
+    // orders a tag search's matches and page builds the DTOs
+    private static final class Meters {
+        private final Timer scan;
+        private final Timer walk;
+        private final Timer sort;
+        private final Timer page;
+
+        Meters(MeterRegistry registry) {
+            this.scan = stage(registry, "scan");
+            this.walk = stage(registry, "walk");
+            this.sort = stage(registry, "sort");
+            this.page = stage(registry, "page");
+        }
+
+        private static Timer stage(MeterRegistry registry, String stage) {
+            return Timer.builder("catalog.snapshot.stage")
+                    .description("Time spent in each stage of a catalog snapshot query")
+                    .tag("stage", stage)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+    }
+
+    private interface RowOrder {
+        int compare(int a, int b);
+    }
+
+    // Each task counts its own rows' facets when priceBuckets is set, and adds in the
+    // counts of the half it forked once that has joined
+    private final class ScanTask extends RecursiveTask<int[]> {
+        private final RowFilter filter;
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final double[] priceBuckets;
+        private FacetCounter counts;
+
+        ScanTask(RowFilter filter, int from, int to, int chunk, double[] priceBuckets) {
+            this.filter = filter;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.priceBuckets = priceBuckets;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= chunk) {
+                counts = priceBuckets != null ? new FacetCounter(priceBuckets) : null;
+                return scan(filter, from, to, counts);
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(filter, from, middle, chunk, priceBuckets);
+            left.fork();
+            ScanTask rightTask = new ScanTask(filter, middle, to, chunk, priceBuckets);
+            int[] right = rightTask.compute();
+            int[] head = left.join();
+            if (priceBuckets != null) {
+                counts = left.counts;
+                counts.merge(rightTask.counts);
+            }
+
+            int[] joined = Arrays.copyOf(head, head.length + right.length);
+            System.arraycopy(right, 0, joined, head.length, right.length);
+            return joined;
+        }
+    }
+}
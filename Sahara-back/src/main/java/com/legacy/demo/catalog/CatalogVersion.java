@@ -0,0 +1,65 @@
+package com.legacy.demo.catalog;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Version numbers for the catalog as a whole and for each item, used as ETags on the
+ * read endpoints.
+ *
+ * Every item write bumps the catalog version, and the item takes the new version as its
+ * own. Items untouched since startup are at version 0. The numbers live in memory only,
+ * so each tag also carries the time the application started and a restart makes every
+ * earlier tag stale.
+ *
+ * A write must be bumped only after it is visible to readers - committed, cached copies
+ * invalidated and indexes updated. A reader that takes the version before reading the
+ * data can then never pair old data with a new tag.
+ */
+@Component
+public class CatalogVersion {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong version = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Long> itemVersions = new ConcurrentHashMap<>();
+
+    public long current() {
+        return version.get();
+    }
+
+    public long of(Integer id) {
+        return itemVersions.getOrDefault(id, 0L);
+    }
+
+    // Called once an add, update or removal of the item is visible. Without an id only the
+    // catalog version moves.
+    public void changed(Integer id) {
+        long bumped = version.incrementAndGet();
+        if (id != null) {
+            itemVersions.merge(id, bumped, Math::max);
+        }
+    }
+
+    // The item's version as sent with the item itself. Carries the epoch like the tags, so
+    // clients comparing versions see a change across a restart.
+    public String itemVersion(Integer id) {
+        return epoch + "-" + of(id);
+    }
+
+    // ETag for anything derived from the whole catalog
+    public String catalogTag() {
+        return tag("c", current());
+    }
+
+    public String itemTag(Integer id) {
+        return tag("i" + id, of(id));
+    }
+
+    // Weak, as the same version is sent as JSON or CBOR, whole or with some fields, gzipped
+    // or not - and Tomcat won't compress a response with a strong ETag
+    private String tag(String scope, long value) {
+        return "W/\"" + scope + "-" + epoch + "-" + value + "\"";
+    }
+}
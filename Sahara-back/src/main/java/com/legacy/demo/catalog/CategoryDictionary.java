@@ -0,0 +1,117 @@
+package com.legacy.demo.catalog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.stereotype.Component;
+
+import com.legacy.demo.dtos.CategoryCountDto;
+import com.legacy.demo.entities.Item;
+
+/**
+ * Every category in the catalog with how many items it holds and how many of those are
+ * in stock, so the shop's category list never has to run a SELECT DISTINCT.
+ *
+ * Categories that differ only in case are one category, as they are to the filter and
+ * to MySQL's DISTINCT. It is shown with the spelling it was first seen with. Each write
+ * moves its item between the counts, and a category is dropped once it has no items
+ * left. Items without a category are not listed.
+ */
+@Component
+public class CategoryDictionary implements ItemIndex {
+
+    // Case-folded name to its counts, in name order
+    private final TreeMap<String, Category> categories = new TreeMap<>();
+
+    // The category and stock state each item is counted under, so a write knows what to
+    // take it out of
+    private final Map<Integer, Counted> counted = new HashMap<>();
+
+    // Category names in name order
+    public synchronized List<String> names() {
+        List<String> names = new ArrayList<>(categories.size());
+        for (Category category : categories.values()) {
+            names.add(category.name);
+        }
+        return names;
+    }
+
+    public synchronized List<CategoryCountDto> counts() {
+        List<CategoryCountDto> counts = new ArrayList<>(categories.size());
+        for (Category category : categories.values()) {
+            counts.add(new CategoryCountDto(category.name, category.items, category.inStock));
+        }
+        return counts;
+    }
+
+    @Override
+    public synchronized void rebuild(List<Item> items) {
+        categories.clear();
+        counted.clear();
+        for (Item item : items) {
+            add(item);
+        }
+    }
+
+    @Override
+    public synchronized void put(Item item) {
+        subtract(counted.remove(item.getId()));
+        add(item);
+    }
+
+    @Override
+    public synchronized void remove(Integer id) {
+        subtract(counted.remove(id));
+    }
+
+    private void add(Item item) {
+        if (item.getCategory() == null) {
+            return;
+        }
+        String key = CaseFolding.fold(item.getCategory());
+        boolean inStock = item.getQuantity() != null && item.getQuantity() > 0;
+        Category category = categories.computeIfAbsent(key, k -> new Category(item.getCategory()));
+        category.items++;
+        if (inStock) {
+            category.inStock++;
+        }
+        counted.put(item.getId(), new Counted(key, inStock));
+    }
+
+    private void subtract(Counted previous) {
+        if (previous == null) {
+            return;
+        }
+        Category category = categories.get(previous.key);
+        category.items--;
+        if (previous.inStock) {
+            category.inStock--;
+        }
+        if (category.items == 0) {
+            categories.remove(previous.key);
+        }
+    }
+
+    private static final class Category {
+        private final String name;
+        private int items;
+        private int inStock;
+
+        Category(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Counted {
+        private final String key;
+        private final boolean inStock;
+
+        Counted(String key, boolean inStock) {
+            this.key = key;
+            this.inStock = inStock;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.legacy.demo.catalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.legacy.demo.dtos.CategoryCountDto;
+import com.legacy.demo.dtos.FacetsDto;
+import com.legacy.demo.dtos.PriceBucketDto;
+
+/**
+ * Running facet counts for the items matching a filter - per category, per price bucket
+ * and in stock. Items are added as plain column values while the filter runs, so there is
+ * no second pass over the result.
+ *
+ * Categories are dictionary codes chosen by the caller, which passes the code to name
+ * mapping in when the counts are turned into a {@link FacetsDto}. Counters for separate
+ * ranges of rows can be merged, one per fork/join task.
+ */
+public final class FacetCounter {
+
+    private final double[] priceBuckets;
+    private final int[] prices;
+    private int[] categoryItems;
+    private int[] categoryInStock;
+    private int total;
+    private int inStock;
+
+    // priceBuckets holds the ascending bucket boundaries - n boundaries make n + 1 buckets
+    public FacetCounter(double[] priceBuckets) {
+        this.priceBuckets = priceBuckets;
+        this.prices = new int[priceBuckets.length + 1];
+        this.categoryItems = new int[16];
+        this.categoryInStock = new int[16];
+    }
+
+    double[] priceBuckets() {
+        return priceBuckets;
+    }
+
+    // A negative category or a NaN price is left out of that facet but still counted in
+    // the total
+    public void add(int category, double price, int quantity) {
+        total++;
+        boolean stocked = quantity > 0;
+        if (stocked) {
+            inStock++;
+        }
+        if (category >= 0) {
+            if (category >= categoryItems.length) {
+                grow(category + 1);
+            }
+            categoryItems[category]++;
+            if (stocked) {
+                categoryInStock[category]++;
+            }
+        }
+        if (!Double.isNaN(price)) {
+            prices[bucketOf(price)]++;
+        }
+    }
+
+    public void merge(FacetCounter other) {
+        total += other.total;
+        inStock += other.inStock;
+        if (other.categoryItems.length > categoryItems.length) {
+            grow(other.categoryItems.length);
+        }
+        for (int c = 0; c < other.categoryItems.length; c++) {
+            categoryItems[c] += other.categoryItems[c];
+            categoryInStock[c] += other.categoryInStock[c];
+        }
+        for (int b = 0; b < prices.length; b++) {
+            prices[b] += other.prices[b];
+        }
+    }
+
+    // categoryNames maps each code back to the name to show for it
+    public FacetsDto toDto(List<String> categoryNames) {
+        List<CategoryCountDto> categories = new ArrayList<>();
+        for (int c = 0; c < categoryItems.length; c++) {
+            if (categoryItems[c] > 0) {
+                categories.add(new CategoryCountDto(categoryNames.get(c), categoryItems[c], categoryInStock[c]));
+            }
+        }
+        categories.sort(Comparator.comparingInt(CategoryCountDto::getItems).reversed()
+                .thenComparing(CategoryCountDto::getCategory));
+
+        List<PriceBucketDto> buckets = new ArrayList<>(prices.length);
+        for (int b = 0; b < prices.length; b++) {
+            Double min = b > 0 ? priceBuckets[b - 1] : null;
+            Double max = b < priceBuckets.length ? priceBuckets[b] : null;
+            buckets.add(new PriceBucketDto(min, max, prices[b]));
+        }
+        return new FacetsDto(total, inStock, categories, buckets);
+    }
+
+    // Buckets include their lower bound, so a price on a boundary goes in the bucket above
+    private int bucketOf(double price) {
+        int b = 0;
+        while (b < priceBuckets.length && price >= priceBuckets[b]) {
+            b++;
+        }
+        return b;
+    }
+
+    private void grow(int size) {
+        int capacity = Math.max(size, categoryItems.length * 2);
+        categoryItems = Arrays.copyOf(categoryItems, capacity);
+        categoryInStock = Arrays.copyOf(categoryInStock, capacity);
+    }
+}
@@ -0,0 +1,123 @@
+package com.legacy.demo.catalog;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.entities.Item;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded read-through cache of single items, sitting in front of ItemRepo for the
+ * product and cart pages.
+ *
+ * Caffeine's W-TinyLFU policy decides what to keep, so products that are looked up
+ * often survive a burst of one-off lookups. Entries also expire after a fixed time.
+ * Hit, miss and eviction counts are published as the "items" cache metrics on the
+ * actuator.
+ *
+ * A write invalidates the item once it has committed. A load that read the row before
+ * then must not store it afterwards, or the old item would be served until it expires.
+ * A single get loads inside Caffeine's compute, which an invalidate of the same id waits
+ * for. A multi-get loads outside of it, so it notes the invalidation generation of each
+ * id first and stores an item only if that hasn't moved by the time it is stored.
+ */
+@Component
+public class ItemCache implements MeterBinder {
+
+    // Ids share generations a stripe at a time. A write to one id of a stripe only keeps
+    // a concurrent load of another from being cached.
+    private static final int GENERATION_STRIPES = 64;
+
+    private final Cache<Integer, ItemDto> cache;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public ItemCache(@Value("${catalog.cache.max-size:10000}") long maxSize,
+            @Value("${catalog.cache.ttl:10m}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    // Loads and caches the item on a miss. Missing items are not cached.
+    public Optional<ItemDto> get(Integer id, Function<Integer, Optional<Item>> loader) {
+        return Optional.ofNullable(cache.get(id, key -> loader.apply(key).map(ItemCache::toDto).orElse(null)));
+    }
+
+    // Multi-get that loads every miss with one call to the loader. Results come back in
+    // the order the ids were asked for, without duplicates or missing items.
+    public List<ItemDto> getAll(Collection<Integer> ids, Function<List<Integer>, List<Item>> loader) {
+        Collection<Integer> distinct = new LinkedHashSet<>(ids);
+        Map<Integer, ItemDto> found = new HashMap<>(cache.getAllPresent(distinct));
+
+        Map<Integer, Long> generationsSeen = new HashMap<>();
+        for (Integer id : distinct) {
+            if (!found.containsKey(id)) {
+                generationsSeen.put(id, generations.get(stripe(id)));
+            }
+        }
+        if (!generationsSeen.isEmpty()) {
+            for (Item item : loader.apply(new ArrayList<>(generationsSeen.keySet()))) {
+                ItemDto dto = toDto(item);
+                found.put(item.getId(), dto);
+                long seen = generationsSeen.get(item.getId());
+                // Atomic with an invalidate of the id: either it sees the new generation
+                // or it runs after the store and removes the item again
+                cache.asMap().compute(item.getId(), (id, cached) ->
+                        cached != null || generations.get(stripe(id)) != seen ? cached : dto);
+            }
+        }
+
+        List<ItemDto> items = new ArrayList<>();
+        for (Integer id : distinct) {
+            ItemDto item = found.get(id);
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    // Called on every write once it has committed. Invalidating rather than storing the
+    // new value means a slower write can never overwrite a newer one.
+    public void invalidate(Integer id) {
+        generations.incrementAndGet(stripe(id));
+        cache.invalidate(id);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "items");
+    }
+
+    private static int stripe(Integer id) {
+        return Math.floorMod(id.hashCode(), GENERATION_STRIPES);
+    }
+
+    // The cached copy gets its own tags list so it can't change under a later write
+    private static ItemDto toDto(Item item) {
+        ItemDto dto = new ItemDto(item);
+        if (item.getTags() != null) {
+            dto.setTags(new ArrayList<>(item.getTags()));
+        }
+        return dto;
+    }
+}
@@ -0,0 +1,167 @@
+package com.legacy.demo.catalog;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.legacy.demo.dtos.ItemDto;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Items encoded once as UTF-8 JSON, for writing lists of whole items without running
+ * Jackson over every item of every response.
+ *
+ * A fragment is kept with the version of the item it was encoded from and used only while
+ * the item is still at that version, so it can't outlive a write even before ItemService
+ * invalidates it. Only items whose version is no newer than the catalog version read
+ * before the list was - so the list is known to hold that version - are stored.
+ *
+ * Fragments leave out the version field. The one /items/getByIds sends is spliced in at
+ * the end, where Jackson would have written it. Hit, miss and eviction counts are
+ * published as the "item-fragments" cache metrics.
+ */
+@Component
+public class ItemFragments implements MeterBinder {
+
+    private static final byte[] VERSION_FIELD = ",\"version\":\"".getBytes(StandardCharsets.UTF_8);
+
+    private final CatalogVersion versions;
+    private final ObjectWriter writer;
+    private final Cache<Integer, Fragment> cache;
+
+    public ItemFragments(ObjectMapper objectMapper, CatalogVersion versions,
+            @Value("${catalog.fragments.max-size:50000}") long maxSize) {
+        this.versions = versions;
+        this.writer = objectMapper.writer(new SimpleFilterProvider()
+                .addFilter(ItemDto.FIELDS, SimpleBeanPropertyFilter.serializeAllExcept("version")));
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    // The items as a JSON array, for a list read after the catalog version was readSince
+    public Page page(List<ItemDto> items, long readSince) {
+        return new Page(items, readSince);
+    }
+
+    // Called on every write, to free the space early - the version check alone would do
+    public void invalidate(Integer id) {
+        cache.invalidate(id);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "item-fragments");
+    }
+
+    private byte[] fragment(ItemDto item, long readSince) {
+        long version = versions.of(item.getId());
+        Fragment cached = cache.getIfPresent(item.getId());
+        if (cached != null && cached.version == version) {
+            return cached.json;
+        }
+        byte[] json;
+        try {
+            json = writer.writeValueAsBytes(item);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        // A newer version may have been written after the list was read
+        if (version <= readSince) {
+            cache.put(item.getId(), new Fragment(version, json));
+        }
+        return json;
+    }
+
+    /**
+     * A list of whole items on its way to a JSON response, written from fragments by
+     * ItemFragmentConverter. Any other converter writes the items themselves.
+     */
+    public final class Page {
+        private final List<ItemDto> items;
+        private final long readSince;
+        private byte[][] fragments;
+        private long length;
+
+        private Page(List<ItemDto> items, long readSince) {
+            this.items = items;
+            this.readSince = readSince;
+        }
+
+        @JsonValue
+        public List<ItemDto> getItems() {
+            return items;
+        }
+
+        // Bytes of JSON, known before any is written so the response can say so up front
+        public long length() {
+            encode();
+            return length;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            encode();
+            out.write('[');
+            for (int i = 0; i < fragments.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                String version = items.get(i).getVersion();
+                if (version == null) {
+                    out.write(fragments[i]);
+                    continue;
+                }
+                // Versions are made of letters, digits and dashes only, nothing to escape
+                out.write(fragments[i], 0, fragments[i].length - 1);
+                out.write(VERSION_FIELD);
+                out.write(version.getBytes(StandardCharsets.UTF_8));
+                out.write('"');
+                out.write('}');
+            }
+            out.write(']');
+        }
+
+        private void encode() {
+            if (fragments != null) {
+                return;
+            }
+            fragments = new byte[items.size()][];
+            length = 2 + Math.max(0, items.size() - 1);
+            for (int i = 0; i < fragments.length; i++) {
+                ItemDto item = items.get(i);
+                fragments[i] = fragment(item, readSince);
+                length += fragments[i].length;
+                if (item.getVersion() != null) {
+                    length += VERSION_FIELD.length + item.getVersion().length() + 1;
+                }
+            }
+        }
+    }
+
+    private static final class Fragment {
+        private final long version;
+        private final byte[] json;
+
+        Fragment(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.legacy.demo.catalog;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.legacy.demo.entities.Item;
+
+/**
+ * An in-memory structure derived from the item table. Implementations are loaded once
+ * from the full catalog and then kept up to date by {@link CatalogIndexer} as items are
+ * written, so they never need to re-read the table.
+ */
+public interface ItemIndex {
+
+    // Replaces the whole index with one built from these items
+    void rebuild(List<Item> items);
+
+    // Adds the item, or updates it if it is already indexed
+    void put(Item item);
+
+    // A batch of puts, which an index can apply in one go rather than one at a time
+    default void putAll(Collection<Item> items) {
+        for (Item item : items) {
+            put(item);
+        }
+    }
+
+    void remove(Integer id);
+}
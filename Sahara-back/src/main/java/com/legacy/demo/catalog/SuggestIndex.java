@@ -0,0 +1,749 @@
+package com.legacy.demo.catalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.springframework.stereotype.Component;
+
+import com.legacy.demo.dtos.SuggestionDto;
+import com.legacy.demo.entities.Item;
+
+/**
+ * Typeahead over item names, categories, colors and tags.
+ *
+ * Each distinct text of each kind is a phrase, scored by how many items carry it. A
+ * phrase is filed once for every word it contains, under the text from the start of that
+ * word on, so "Trail Shoes 12" is found by typing "tra", "sho" or "12".
+ *
+ * The filings are held in levels. A level is a sorted array of filings, each a phrase id
+ * and a word start packed into a long, with a tree over it that holds the best-ranked
+ * filing of every power-of-two stretch. A prefix covers one contiguous range of each
+ * level, found by binary search, and the range's best phrases come off the tree one at a
+ * time. So a lookup costs O(levels * log n + limit * log n) for any prefix, however big
+ * the catalog is and however many of its phrases the prefix matches. A filing takes about
+ * 20 bytes, and the phrase texts are held once.
+ *
+ * A write that brings in new phrases files them in a new level, and a level is merged
+ * into the one before it while that one is no more than twice its size. That keeps the
+ * levels to O(log n), and each filing is merged O(log n) times. A change in a phrase's
+ * item count is made in place, along the tree paths of the phrase's filings. Lookups
+ * skip phrases no item carries any more, merges drop them, and once they outnumber the
+ * live phrases the index is rebuilt from the live ones.
+ *
+ * Lookups take no locks, writes are serialized.
+ */
+@Component
+public class SuggestIndex implements ItemIndex {
+
+    public static final String NAME = "name";
+    public static final String CATEGORY = "category";
+    public static final String COLOR = "color";
+    public static final String TAG = "tag";
+
+    // Most suggestions a lookup can return
+    public static final int MAX_SUGGESTIONS = 20;
+
+    // Phrase kinds by code, in the order that breaks the last ranking ties
+    private static final String[] KINDS = { CATEGORY, COLOR, NAME, TAG };
+
+    // Phrases no item carries that are kept until a rebuild, as long as they are also
+    // fewer than the live ones
+    private static final int DEFAULT_COMPACT_AFTER = 4096;
+
+    private static final int[] NO_PHRASES = new int[0];
+    private static final int INSERTION_SORT_MAX = 16;
+
+    private final int compactAfter;
+    private volatile State state = new State(new Phrases(0), new Level[0]);
+
+    // Only used under the index's lock
+    private Phrases phrases = state.phrases;
+    private List<Level> levels = new ArrayList<>();
+    private PhraseTable table = new PhraseTable();
+    private Map<Integer, int[]> phrasesById = new HashMap<>();
+    private int dead;
+
+    public SuggestIndex() {
+        this(DEFAULT_COMPACT_AFTER);
+    }
+
+    public SuggestIndex(int compactAfter) {
+        this.compactAfter = compactAfter;
+    }
+
+    // Up to limit phrases with a word starting with the prefix, best first. Empty if the
+    // prefix is blank.
+    public List<SuggestionDto> suggest(String prefix, int limit) {
+        String key = normalize(prefix, false);
+        if (key.isEmpty()) {
+            return Collections.emptyList();
+        }
+        State current = this.state;
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        for (Level level : current.levels) {
+            int from = level.bound(current.phrases, key, false);
+            int to = level.bound(current.phrases, key, true);
+            // The fewest nodes that together cover [from, to)
+            for (int l = from + level.leaves, r = to + level.leaves; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    offer(queue, current.phrases, level, l++);
+                }
+                if ((r & 1) == 1) {
+                    offer(queue, current.phrases, level, --r);
+                }
+            }
+        }
+
+        // A node comes off the queue only once everything ranked above it has, and then
+        // hands its filing on to the child that holds it. A phrase with two words that
+        // match is met twice.
+        List<SuggestionDto> top = new ArrayList<>(Math.min(limit, MAX_SUGGESTIONS));
+        Set<Integer> taken = new HashSet<>();
+        while (top.size() < limit && !queue.isEmpty()) {
+            Candidate next = queue.poll();
+            if (next.node < next.level.leaves) {
+                offer(queue, current.phrases, next.level, 2 * next.node);
+                offer(queue, current.phrases, next.level, 2 * next.node + 1);
+            } else if (taken.add(next.phrase)) {
+                top.add(new SuggestionDto(next.text, KINDS[next.kind], next.items));
+            }
+        }
+        return top;
+    }
+
+    @Override
+    public synchronized void rebuild(List<Item> items) {
+        phrases = new Phrases(Math.max(16, items.size()));
+        table = new PhraseTable();
+        phrasesById = new HashMap<>();
+        dead = 0;
+        Batch batch = new Batch();
+        for (Item item : items) {
+            write(item.getId(), item, batch);
+        }
+        levels = new ArrayList<>();
+        finish(batch);
+    }
+
+    @Override
+    public synchronized void put(Item item) {
+        Batch batch = new Batch();
+        write(item.getId(), item, batch);
+        finish(batch);
+    }
+
+    // The new phrases of the whole batch go into one level
+    @Override
+    public synchronized void putAll(Collection<Item> items) {
+        Batch batch = new Batch();
+        for (Item item : items) {
+            write(item.getId(), item, batch);
+        }
+        finish(batch);
+    }
+
+    @Override
+    public synchronized void remove(Integer id) {
+        Batch batch = new Batch();
+        write(id, null, batch);
+        finish(batch);
+    }
+
+    // Counts the item under its phrases instead of the ones it had, interning any that
+    // are new. The levels are left to finish.
+    private void write(Integer id, Item item, Batch batch) {
+        int[] previous = phrasesById.getOrDefault(id, NO_PHRASES);
+        List<Text> texts = item != null ? phrasesOf(item) : Collections.emptyList();
+        int[] updated = new int[texts.size()];
+        for (int i = 0; i < updated.length; i++) {
+            Text text = texts.get(i);
+            int phrase = table.find(phrases, text.kind, text.normalized);
+            if (phrase < 0) {
+                phrase = intern(text);
+                table.add(phrases, phrase);
+                batch.added.add(phrase);
+            } else if (!contains(previous, phrase)) {
+                phrases.counts.incrementAndGet(phrase);
+                batch.counted.add(phrase);
+            }
+            updated[i] = phrase;
+        }
+        for (int phrase : previous) {
+            if (!contains(updated, phrase)) {
+                if (phrases.counts.decrementAndGet(phrase) == 0) {
+                    table.remove(phrases, phrase);
+                    dead++;
+                }
+                batch.counted.add(phrase);
+            }
+        }
+        if (updated.length == 0) {
+            phrasesById.remove(id);
+        } else {
+            phrasesById.put(id, updated);
+        }
+    }
+
+    // Files the batch's new phrases, brings the trees up to date with its counts and
+    // publishes the result
+    private void finish(Batch batch) {
+        if (!batch.added.isEmpty()) {
+            long[] filings = filingsOf(phrases, batch.added);
+            if (filings.length > 0) {
+                levels.add(new Level(filings, phrases));
+                while (levels.size() > 1) {
+                    Level last = levels.get(levels.size() - 1);
+                    Level before = levels.get(levels.size() - 2);
+                    if (before.filings.length > 2 * last.filings.length) {
+                        break;
+                    }
+                    levels.remove(levels.size() - 1);
+                    levels.set(levels.size() - 1, merge(before, last, phrases));
+                }
+            }
+        }
+        for (int phrase : batch.counted) {
+            for (Level level : levels) {
+                if (level.recount(phrases, phrase)) {
+                    break;
+                }
+            }
+        }
+        if (dead > compactAfter && dead > phrases.size - dead) {
+            compact();
+        }
+        this.state = new State(phrases, levels.toArray(new Level[0]));
+    }
+
+    // Renumbers the live phrases from 0 and files them all in one level
+    private void compact() {
+        Phrases live = new Phrases(Math.max(16, phrases.size - dead));
+        int[] renumbered = new int[phrases.size];
+        List<Integer> all = new ArrayList<>(phrases.size - dead);
+        for (int phrase = 0; phrase < phrases.size; phrase++) {
+            if (phrases.counts.get(phrase) > 0) {
+                int moved = live.size++;
+                live.texts[moved] = phrases.texts[phrase];
+                live.normalized[moved] = phrases.normalized[phrase];
+                live.kinds[moved] = phrases.kinds[phrase];
+                live.counts.set(moved, phrases.counts.get(phrase));
+                renumbered[phrase] = moved;
+                all.add(moved);
+            }
+        }
+        for (int[] ids : phrasesById.values()) {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = renumbered[ids[i]];
+            }
+        }
+        phrases = live;
+        dead = 0;
+        table = new PhraseTable();
+        for (int phrase : all) {
+            table.add(phrases, phrase);
+        }
+        levels = new ArrayList<>();
+        long[] filings = filingsOf(phrases, all);
+        if (filings.length > 0) {
+            levels.add(new Level(filings, phrases));
+        }
+    }
+
+    private int intern(Text text) {
+        if (phrases.size == phrases.texts.length) {
+            phrases = phrases.grown();
+        }
+        int phrase = phrases.size++;
+        phrases.texts[phrase] = text.text;
+        phrases.normalized[phrase] = text.normalized;
+        phrases.kinds[phrase] = text.kind;
+        phrases.counts.set(phrase, 1);
+        return phrase;
+    }
+
+    private static void offer(PriorityQueue<Candidate> queue, Phrases phrases, Level level, int node) {
+        int filing = level.best(node);
+        if (filing < 0) {
+            return;
+        }
+        int phrase = level.phraseOf(filing);
+        int items = phrases.counts.get(phrase);
+        // Everything below a node is ranked after it, so none of it is carried either
+        if (items > 0) {
+            queue.add(new Candidate(level, node, phrase, items, phrases.texts[phrase], phrases.kinds[phrase],
+                    phrases.normalized[phrase]));
+        }
+    }
+
+    // A filing for every word of every phrase that is still carried, sorted
+    private static long[] filingsOf(Phrases phrases, Collection<Integer> ids) {
+        long[] filings = new long[16];
+        int n = 0;
+        for (int phrase : ids) {
+            if (phrases.counts.get(phrase) == 0) {
+                continue;
+            }
+            for (int start : wordStarts(phrases.normalized[phrase])) {
+                if (n == filings.length) {
+                    filings = Arrays.copyOf(filings, n * 2);
+                }
+                filings[n++] = (long) phrase << 32 | start;
+            }
+        }
+        filings = Arrays.copyOf(filings, n);
+        if (n > 1) {
+            mergeSort(filings, new long[(n + 1) / 2], 0, n, phrases);
+        }
+        return filings;
+    }
+
+    // The filings of both levels in one, leaving out the phrases no item carries
+    private static Level merge(Level a, Level b, Phrases phrases) {
+        long[] merged = new long[a.filings.length + b.filings.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.filings.length || j < b.filings.length) {
+            long next;
+            if (j == b.filings.length
+                    || i < a.filings.length && compareFilings(phrases, a.filings[i], b.filings[j]) <= 0) {
+                next = a.filings[i++];
+            } else {
+                next = b.filings[j++];
+            }
+            if (phrases.counts.get((int) (next >>> 32)) > 0) {
+                merged[n++] = next;
+            }
+        }
+        return new Level(Arrays.copyOf(merged, n), phrases);
+    }
+
+    // Stable merge sort of filings[from, to), as CatalogSnapshot sorts its rows
+    private static void mergeSort(long[] filings, long[] buffer, int from, int to, Phrases phrases) {
+        if (to - from <= INSERTION_SORT_MAX) {
+            for (int i = from + 1; i < to; i++) {
+                long filing = filings[i];
+                int j = i - 1;
+                while (j >= from && compareFilings(phrases, filings[j], filing) > 0) {
+                    filings[j + 1] = filings[j];
+                    j--;
+                }
+                filings[j + 1] = filing;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(filings, buffer, from, middle, phrases);
+        mergeSort(filings, buffer, middle, to, phrases);
+        if (compareFilings(phrases, filings[middle - 1], filings[middle]) <= 0) {
+            return;
+        }
+        int length = middle - from;
+        System.arraycopy(filings, from, buffer, 0, length);
+        int i = 0;
+        int j = middle;
+        int k = from;
+        while (i < length && j < to) {
+            filings[k++] = compareFilings(phrases, filings[j], buffer[i]) < 0 ? filings[j++] : buffer[i++];
+        }
+        System.arraycopy(buffer, i, filings, k, length - i);
+    }
+
+    // By the text from the word start on, then by phrase id
+    private static int compareFilings(Phrases phrases, long a, long b) {
+        String x = phrases.normalized[(int) (a >>> 32)];
+        String y = phrases.normalized[(int) (b >>> 32)];
+        int i = (int) a;
+        int j = (int) b;
+        while (i < x.length() && j < y.length()) {
+            char c = x.charAt(i++);
+            char d = y.charAt(j++);
+            if (c != d) {
+                return c - d;
+            }
+        }
+        int c = Integer.compare(x.length() - i, y.length() - j);
+        return c != 0 ? c : Integer.compare((int) (a >>> 32), (int) (b >>> 32));
+    }
+
+    // Most items first, then the shortest and alphabetically first text, then kind and
+    // the normalized text, which no two live phrases share
+    private static int compareRank(Phrases phrases, int p, int q) {
+        int c = Integer.compare(phrases.counts.get(q), phrases.counts.get(p));
+        if (c != 0) {
+            return c;
+        }
+        return compareTexts(phrases.texts[p], phrases.kinds[p], phrases.normalized[p], phrases.texts[q],
+                phrases.kinds[q], phrases.normalized[q]);
+    }
+
+    private static int compareTexts(String text, byte kind, String normalized, String otherText, byte otherKind,
+            String otherNormalized) {
+        int c = Integer.compare(text.length(), otherText.length());
+        if (c == 0) {
+            c = text.compareTo(otherText);
+        }
+        if (c == 0) {
+            c = Byte.compare(kind, otherKind);
+        }
+        return c != 0 ? c : normalized.compareTo(otherNormalized);
+    }
+
+    private static boolean contains(int[] phrases, int phrase) {
+        for (int p : phrases) {
+            if (p == phrase) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Text> phrasesOf(Item item) {
+        List<Text> texts = new ArrayList<>();
+        addPhrase(texts, NAME, item.getName());
+        addPhrase(texts, CATEGORY, item.getCategory());
+        addPhrase(texts, COLOR, item.getColor());
+        if (item.getTags() != null) {
+            for (String tag : item.getTags()) {
+                addPhrase(texts, TAG, tag);
+            }
+        }
+        return texts;
+    }
+
+    private static void addPhrase(List<Text> texts, String kind, String text) {
+        if (text == null) {
+            return;
+        }
+        String normalized = normalize(text, true);
+        if (normalized.isEmpty()) {
+            return;
+        }
+        byte code = (byte) Arrays.asList(KINDS).indexOf(kind);
+        for (Text existing : texts) {
+            if (existing.kind == code && existing.normalized.equals(normalized)) {
+                return;
+            }
+        }
+        texts.add(new Text(code, text.strip(), normalized));
+    }
+
+    // Case folded, with each run of spaces and control characters made a single space and
+    // leading ones removed. A typed prefix keeps one trailing space, since "shoe " and
+    // "shoe" match different things.
+    static String normalize(String text, boolean stripEnd) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || Character.isISOControl(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(c);
+            }
+        }
+        if (space && !stripEnd) {
+            normalized.append(' ');
+        }
+        return CaseFolding.fold(normalized.toString());
+    }
+
+    // Where each word starts, a word being a run of letters and digits. Text without any
+    // is one word.
+    private static int[] wordStarts(String normalized) {
+        int[] starts = new int[normalized.length()];
+        int count = 0;
+        for (int i = 0; i < normalized.length(); i++) {
+            if (Character.isLetterOrDigit(normalized.charAt(i))
+                    && (i == 0 || !Character.isLetterOrDigit(normalized.charAt(i - 1)))) {
+                starts[count++] = i;
+            }
+        }
+        return count > 0 ? Arrays.copyOf(starts, count) : new int[] { 0 };
+    }
+
+    // What a lookup reads, published whole by every write
+    private static final class State {
+        private final Phrases phrases;
+        private final Level[] levels;
+
+        State(Phrases phrases, Level[] levels) {
+            this.phrases = phrases;
+            this.levels = levels;
+        }
+    }
+
+    // The phrases as columns, by id. Ids are handed out in turn and only reused after a
+    // compaction renumbers the live phrases; a phrase no item carries has a count of 0.
+    // Grown by copying, so a lookup keeps the columns it started with.
+    private static final class Phrases {
+        private final String[] texts;
+        private final String[] normalized;
+        private final byte[] kinds;
+        private final AtomicIntegerArray counts;
+        // Only used under the index's lock
+        private int size;
+
+        Phrases(int capacity) {
+            this.texts = new String[capacity];
+            this.normalized = new String[capacity];
+            this.kinds = new byte[capacity];
+            this.counts = new AtomicIntegerArray(capacity);
+        }
+
+        Phrases grown() {
+            Phrases grown = new Phrases(Math.max(16, texts.length * 2));
+            System.arraycopy(texts, 0, grown.texts, 0, size);
+            System.arraycopy(normalized, 0, grown.normalized, 0, size);
+            System.arraycopy(kinds, 0, grown.kinds, 0, size);
+            for (int i = 0; i < size; i++) {
+                grown.counts.set(i, counts.get(i));
+            }
+            grown.size = size;
+            return grown;
+        }
+    }
+
+    private static final class Level {
+        // Sorted by compareFilings, each the phrase id in the high half and where the word
+        // starts in its normalized text in the low half
+        private final long[] filings;
+        // A power of two. Node i covers nodes 2i and 2i + 1, and nodes from leaves on are
+        // the filings themselves.
+        private final int leaves;
+        // For each node below leaves, the best-ranked filing it covers, -1 for none
+        private final AtomicIntegerArray tree;
+        // The phrases filed here in ascending order, and where each one's filings are:
+        // those of members[i] are at[from[i]] up to at[from[i + 1]]
+        private final int[] members;
+        private final int[] from;
+        private final int[] at;
+
+        Level(long[] filings, Phrases phrases) {
+            this.filings = filings;
+            this.leaves = filings.length <= 1 ? 1 : Integer.highestOneBit(filings.length - 1) << 1;
+            this.tree = new AtomicIntegerArray(leaves);
+            for (int node = leaves - 1; node >= 1; node--) {
+                tree.set(node, better(phrases, best(2 * node), best(2 * node + 1)));
+            }
+
+            long[] byPhrase = new long[filings.length];
+            for (int i = 0; i < filings.length; i++) {
+                byPhrase[i] = filings[i] & 0xFFFFFFFF00000000L | i;
+            }
+            Arrays.sort(byPhrase);
+            int[] members = new int[filings.length];
+            int[] from = new int[filings.length + 1];
+            this.at = new int[filings.length];
+            int count = 0;
+            for (int i = 0; i < byPhrase.length; i++) {
+                int phrase = (int) (byPhrase[i] >>> 32);
+                if (count == 0 || members[count - 1] != phrase) {
+                    members[count] = phrase;
+                    from[count++] = i;
+                }
+                at[i] = (int) byPhrase[i];
+            }
+            from[count] = byPhrase.length;
+            this.members = Arrays.copyOf(members, count);
+            this.from = Arrays.copyOf(from, count + 1);
+        }
+
+        int phraseOf(int filing) {
+            return (int) (filings[filing] >>> 32);
+        }
+
+        int best(int node) {
+            if (node < leaves) {
+                return tree.get(node);
+            }
+            return node - leaves < filings.length ? node - leaves : -1;
+        }
+
+        private int better(Phrases phrases, int a, int b) {
+            if (a < 0 || b < 0) {
+                return a < 0 ? b : a;
+            }
+            return compareRank(phrases, phraseOf(a), phraseOf(b)) <= 0 ? a : b;
+        }
+
+        // Re-ranks the phrase's filings after its count changed. False if it isn't filed
+        // here.
+        boolean recount(Phrases phrases, int phrase) {
+            int member = Arrays.binarySearch(members, phrase);
+            if (member < 0) {
+                return false;
+            }
+            for (int i = from[member]; i < from[member + 1]; i++) {
+                for (int node = (leaves + at[i]) >> 1; node >= 1; node >>= 1) {
+                    tree.set(node, better(phrases, best(2 * node), best(2 * node + 1)));
+                }
+            }
+            return true;
+        }
+
+        // The first filing whose word starts with the prefix or sorts after it, or with
+        // past set, the first after every one that starts with it
+        int bound(Phrases phrases, String prefix, boolean past) {
+            int low = 0;
+            int high = filings.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int c = comparePrefix(phrases, filings[middle], prefix);
+                if (c < 0 || past && c == 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        // Compares the filing's word with the prefix, as equal if the word starts with it
+        private static int comparePrefix(Phrases phrases, long filing, String prefix) {
+            String text = phrases.normalized[(int) (filing >>> 32)];
+            int start = (int) filing;
+            int length = Math.min(text.length() - start, prefix.length());
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(start + i);
+                char d = prefix.charAt(i);
+                if (c != d) {
+                    return c - d;
+                }
+            }
+            return text.length() - start >= prefix.length() ? 0 : -1;
+        }
+    }
+
+    // Open addressing from kind and normalized text to the live phrase's id, holding only
+    // ids so the texts aren't kept twice. Linear probing, with removal shifting later
+    // entries back so no tombstones are needed.
+    private static final class PhraseTable {
+        // Phrase id + 1 in each slot, 0 for empty
+        private int[] slots = new int[16];
+        private int size;
+
+        int find(Phrases phrases, byte kind, String normalized) {
+            int mask = slots.length - 1;
+            for (int i = hash(kind, normalized) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                int phrase = slots[i] - 1;
+                if (phrases.kinds[phrase] == kind && phrases.normalized[phrase].equals(normalized)) {
+                    return phrase;
+                }
+            }
+            return -1;
+        }
+
+        void add(Phrases phrases, int phrase) {
+            if (2 * (size + 1) > slots.length) {
+                int[] old = slots;
+                slots = new int[old.length * 2];
+                for (int slot : old) {
+                    if (slot != 0) {
+                        place(phrases, slot - 1);
+                    }
+                }
+            }
+            place(phrases, phrase);
+            size++;
+        }
+
+        void remove(Phrases phrases, int phrase) {
+            int mask = slots.length - 1;
+            int i = slot(phrases, phrase) & mask;
+            while (slots[i] != phrase + 1) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = 0;
+            size--;
+            // Moves back every later entry of the run that can no longer be reached
+            for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+                int home = slot(phrases, slots[j] - 1) & mask;
+                if ((j - home & mask) >= (j - i & mask)) {
+                    slots[i] = slots[j];
+                    slots[j] = 0;
+                    i = j;
+                }
+            }
+        }
+
+        private void place(Phrases phrases, int phrase) {
+            int mask = slots.length - 1;
+            int i = slot(phrases, phrase) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = phrase + 1;
+        }
+
+        private static int slot(Phrases phrases, int phrase) {
+            return hash(phrases.kinds[phrase], phrases.normalized[phrase]);
+        }
+
+        private static int hash(byte kind, String normalized) {
+            int h = normalized.hashCode() * 31 + kind;
+            return h ^ h >>> 16;
+        }
+    }
+
+    // The phrases one write or batch interned, and those whose count it changed
+    private static final class Batch {
+        private final List<Integer> added = new ArrayList<>();
+        private final Set<Integer> counted = new LinkedHashSet<>();
+    }
+
+    // A phrase of an item before it is interned
+    private static final class Text {
+        private final byte kind;
+        private final String text;
+        private final String normalized;
+
+        Text(byte kind, String text, String normalized) {
+            this.kind = kind;
+            this.text = text;
+            this.normalized = normalized;
+        }
+    }
+
+    // A tree node waiting in a lookup's queue, ranked by its best filing's phrase as it
+    // was when the node was queued
+    private static final class Candidate implements Comparable<Candidate> {
+        private final Level level;
+        private final int node;
+        private final int phrase;
+        private final int items;
+        private final String text;
+        private final byte kind;
+        private final String normalized;
+
+        Candidate(Level level, int node, int phrase, int items, String text, byte kind, String normalized) {
+            this.level = level;
+            this.node = node;
+            this.phrase = phrase;
+            this.items = items;
+            this.text = text;
+            this.kind = kind;
+            this.normalized = normalized;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int c = Integer.compare(other.items, items);
+            return c != 0 ? c : compareTexts(text, kind, normalized, other.text, other.kind, other.normalized);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.legacy.demo.catalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+import com.legacy.demo.entities.Item;
+
+/**
+ * Inverted index from tag to the ids of the items carrying it.
+ *
+ * Tags are normalized so that a lookup matches exactly what {@code equalsIgnoreCase}
+ * would. Each posting list is a sorted {@code int[]} that is replaced, never modified,
+ * so lookups need no locking and the returned array can be read freely.
+ */
+@Component
+public class TagIndex implements ItemIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private volatile Map<String, int[]> postings = new ConcurrentHashMap<>();
+
+    // Normalized tags per item, so an update knows which postings to take the id out of
+    private Map<Integer, Set<String>> tagsById = new HashMap<>();
+
+    // Sorted ids of the items tagged with this term, empty if there are none
+    public int[] lookup(String tag) {
+        int[] ids = postings.get(CaseFolding.fold(tag));
+        return ids != null ? ids : NONE;
+    }
+
+    @Override
+    public synchronized void rebuild(List<Item> items) {
+        Map<String, List<Integer>> building = new HashMap<>();
+        Map<Integer, Set<String>> byId = new HashMap<>();
+        for (Item item : items) {
+            Set<String> tags = normalizedTags(item);
+            if (tags.isEmpty()) {
+                continue;
+            }
+            byId.put(item.getId(), tags);
+            for (String tag : tags) {
+                building.computeIfAbsent(tag, t -> new ArrayList<>()).add(item.getId());
+            }
+        }
+
+        Map<String, int[]> built = new ConcurrentHashMap<>();
+        building.forEach((tag, ids) -> {
+            int[] sorted = ids.stream().mapToInt(Integer::intValue).toArray();
+            Arrays.sort(sorted);
+            built.put(tag, sorted);
+        });
+
+        this.tagsById = byId;
+        this.postings = built;
+    }
+
+    @Override
+    public synchronized void put(Item item) {
+        int id = item.getId();
+        Set<String> updated = normalizedTags(item);
+        Set<String> previous = tagsById.getOrDefault(id, Collections.emptySet());
+
+        for (String tag : previous) {
+            if (!updated.contains(tag)) {
+                postings.computeIfPresent(tag, (t, ids) -> without(ids, id));
+            }
+        }
+        for (String tag : updated) {
+            if (!previous.contains(tag)) {
+                postings.compute(tag, (t, ids) -> with(ids != null ? ids : NONE, id));
+            }
+        }
+
+        if (updated.isEmpty()) {
+            tagsById.remove(id);
+        } else {
+            tagsById.put(id, updated);
+        }
+    }
+
+    @Override
+    public synchronized void remove(Integer id) {
+        Set<String> previous = tagsById.remove(id);
+        if (previous != null) {
+            for (String tag : previous) {
+                postings.computeIfPresent(tag, (t, ids) -> without(ids, id));
+            }
+        }
+    }
+
+    private static Set<String> normalizedTags(Item item) {
+        if (item.getTags() == null || item.getTags().isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> tags = new HashSet<>();
+        for (String tag : item.getTags()) {
+            if (tag != null) {
+                tags.add(CaseFolding.fold(tag));
+            }
+        }
+        return tags;
+    }
+
+    private static int[] with(int[] ids, int id) {
+        int at = Arrays.binarySearch(ids, id);
+        if (at >= 0) {
+            return ids;
+        }
+        at = -at - 1;
+        int[] copy = new int[ids.length + 1];
+        System.arraycopy(ids, 0, copy, 0, at);
+        copy[at] = id;
+        System.arraycopy(ids, at, copy, at + 1, ids.length - at);
+        return copy;
+    }
+
+    // Returning null drops the tag from the map once its last item is gone
+    private static int[] without(int[] ids, int id) {
+        int at = Arrays.binarySearch(ids, id);
+        if (at < 0) {
+            return ids;
+        }
+        if (ids.length == 1) {
+            return null;
+        }
+        int[] copy = new int[ids.length - 1];
+        System.arraycopy(ids, 0, copy, 0, at);
+        System.arraycopy(ids, at + 1, copy, at, ids.length - at - 1);
+        return copy;
+    }
+}
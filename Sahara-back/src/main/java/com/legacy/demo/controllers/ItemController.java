@@ -1,8 +1,15 @@
 package com.legacy.demo.controllers;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -11,20 +18,44 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.legacy.demo.catalog.CatalogVersion;
+import com.legacy.demo.catalog.ItemFragments;
+import com.legacy.demo.dtos.CategoryCountDto;
 import com.legacy.demo.dtos.ItemDto;
 import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.dtos.StockLineDto;
+import com.legacy.demo.dtos.StockReservationDto;
+import com.legacy.demo.dtos.SuggestionDto;
 import com.legacy.demo.entities.Item;
-import com.legacy.demo.repos.ItemRepo;
+import com.legacy.demo.services.ItemImportService;
+import com.legacy.demo.services.ItemPageQuery;
 import com.legacy.demo.services.ItemService;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
 @CrossOrigin(origins = "http://localhost:3000")
 @RestController
 public class ItemController {
 
     @Autowired
-    private ItemRepo itemRepo;
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CatalogVersion versions;
+
+    @Autowired
+    private ItemFragments fragments;
+
+    @Autowired
+    private ItemImportService importService;
 
     private ItemService service;
 
@@ -38,33 +69,205 @@ public class ItemController {
         return this.service.addItem(item);
     }
 
+    // CREATE - bulk import. The body is NDJSON (one item per line) or a JSON array, and
+    // is read as it arrives. Progress is streamed back as NDJSON, a line per batch and a
+    // final line with done set.
+    @PostMapping(value = "/items/import", consumes = { MediaType.APPLICATION_NDJSON_VALUE,
+            MediaType.APPLICATION_JSON_VALUE })
+    public void importItems(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean ndjson = MediaType.APPLICATION_NDJSON.isCompatibleWith(MediaType.parseMediaType(request.getContentType()));
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        OutputStream out = response.getOutputStream();
+        importService.importItems(request.getInputStream(), ndjson, progress -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(progress));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
     // READ
     // POST as need to send sort, search and filter as part of the request body to
     // avoid capping out max URL length
+    // Setting facets in the body wraps the items in {items, facets} with the counts
+    // The read endpoints take a fields parameter and answer in CBOR too, see ResponseFormats
     @PostMapping("/items/filter")
-    public List<Item> getAllItems(@RequestBody ItemFilterDto filterDto) {
-        return service.getAllFiltered(
-                filterDto.getSort(),
-                filterDto.getMinPrice(),
-                filterDto.getMaxPrice(),
-                filterDto.getCategory(),
-                filterDto.getInStock(),
-                filterDto.getSearchTerm());
+    public ResponseEntity<?> getAllItems(@RequestBody ItemFilterDto filterDto,
+            @RequestParam(required = false) String fields) {
+        long readSince = versions.current();
+        try {
+            if (Boolean.TRUE.equals(filterDto.getFacets())) {
+                return ResponseEntity.ok(ResponseFormats.withFields(service.browseWithFacets(filterDto), fields));
+            }
+            return ResponseEntity.ok(items(service.browse(filterDto), fields, readSince));
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    // READ - the same filter as a GET, so browsers and the CDN can revalidate it. Each
+    // sort is its own sort parameter, e.g. ?sort=price,asc&sort=name,desc. Any item
+    // write changes the ETag, and until then a matching If-None-Match gets a 304.
+    @GetMapping("/items/filter")
+    public ResponseEntity<?> getFilteredItems(@RequestParam(required = false) Double minPrice,
+            @RequestParam(required = false) Double maxPrice,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Boolean inStock,
+            @RequestParam(required = false) String searchTerm,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(required = false) Boolean facets,
+            @RequestParam(required = false) String fields,
+            WebRequest request) {
+        long readSince = versions.current();
+        String etag = versions.catalogTag();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        ItemFilterDto filterDto = new ItemFilterDto();
+        // Read raw, as binding a single "price,asc" to a list would split it at the comma
+        String[] sort = request.getParameterValues("sort");
+        filterDto.setSort(sort != null ? List.of(sort) : null);
+        filterDto.setMinPrice(minPrice);
+        filterDto.setMaxPrice(maxPrice);
+        filterDto.setCategory(category);
+        filterDto.setInStock(inStock);
+        filterDto.setSearchTerm(searchTerm);
+        filterDto.setPage(page);
+        filterDto.setSize(size);
+
+        Object body;
+        try {
+            body = Boolean.TRUE.equals(facets) ? ResponseFormats.withFields(service.browseWithFacets(filterDto), fields)
+                    : items(service.browse(filterDto), fields, readSince);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        // JSON and CBOR share the ETag, so caches have to keep them apart
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(etag).varyBy(HttpHeaders.ACCEPT)
+                .body(body);
     }
 
+    // READ - paginated version of the filter, takes a size and the cursor returned with
+    // the previous page. Items are written out as they are read from the database.
+    @PostMapping("/items/filter/page")
+    public ResponseEntity<?> getItemPage(@RequestBody ItemFilterDto filterDto) {
+        ItemPageQuery page;
+        try {
+            page = service.preparePage(filterDto);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+
+        StreamingResponseBody body = out -> {
+            JsonGenerator json = objectMapper.getFactory().createGenerator(out);
+            json.writeStartObject();
+            json.writeArrayFieldStart("items");
+            String nextCursor = service.streamPage(page, dto -> {
+                try {
+                    json.writeObject(dto);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            json.writeEndArray();
+            json.writeStringField("nextCursor", nextCursor);
+            json.writeEndObject();
+            json.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    // READ - the whole catalog as NDJSON, one item per line in id order, streamed from
+    // a database cursor for feeds and indexers that want everything
+    @GetMapping(value = "/items/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportItems() {
+        StreamingResponseBody body = out -> {
+            JsonGenerator json = objectMapper.getFactory().createGenerator(out);
+            json.setRootValueSeparator(null);
+            service.exportAll(dto -> {
+                try {
+                    json.writeObject(dto);
+                    json.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            json.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // The version is read before the item, so a write in between can only make the
+    // response newer than its ETag, never older
     @GetMapping("/items/get/{id}")
-    public ResponseEntity<?> getItem(@PathVariable Integer id) {
-        return this.service.getItem(id);
+    public ResponseEntity<?> getItem(@PathVariable Integer id, @RequestParam(required = false) String fields,
+            WebRequest request) {
+        String etag = versions.itemTag(id);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        ResponseEntity<?> found = this.service.getItem(id);
+        if (!found.getStatusCode().is2xxSuccessful()) {
+            return found;
+        }
+        try {
+            return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(etag).varyBy(HttpHeaders.ACCEPT)
+                    .body(ResponseFormats.withFields(found.getBody(), fields));
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
     }
 
     @PostMapping("/items/getByIds")
-    public List<ItemDto> getItemsByIds(@RequestBody List<Integer> ids) {
-        return this.service.getItemsByIds(ids);
+    public ResponseEntity<?> getItemsByIds(@RequestBody List<Integer> ids,
+            @RequestParam(required = false) String fields) {
+        long readSince = versions.current();
+        try {
+            return ResponseEntity.ok(items(this.service.getItemsByIds(ids), fields, readSince));
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    // READ - typeahead for the shop search bar, q being what has been typed so far
+    @GetMapping("/items/suggest")
+    public ResponseEntity<?> suggest(@RequestParam String q, @RequestParam(required = false) Integer limit,
+            WebRequest request) {
+        String etag = versions.catalogTag();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        List<SuggestionDto> suggestions;
+        try {
+            suggestions = service.suggest(q, limit);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(etag).body(suggestions);
     }
 
     @GetMapping("/items/get/categories")
-    public List<String> getAllDistinctCategories() {
-        return itemRepo.findDistinctCategories();
+    public ResponseEntity<List<String>> getAllDistinctCategories(WebRequest request) {
+        String etag = versions.catalogTag();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(etag)
+                .body(service.getAllDistinctCategories());
+    }
+
+    @GetMapping("/items/get/categories/counts")
+    public ResponseEntity<List<CategoryCountDto>> getCategoryCounts(WebRequest request) {
+        String etag = versions.catalogTag();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(etag).body(service.getCategoryCounts());
     }
 
     // UPDATE
@@ -81,6 +284,19 @@ public class ItemController {
                 ItemUpdate.getCategory());
     }
 
+    // UPDATE - checkout, takes every line off stock in one go. 409 with the lines that
+    // fell short if any of them did, in which case nothing is taken.
+    @PostMapping("/items/reserve")
+    public ResponseEntity<?> reserveStock(@RequestBody List<StockLineDto> lines) {
+        StockReservationDto result;
+        try {
+            result = this.service.reserveStock(lines);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(result, result.isReserved() ? HttpStatus.OK : HttpStatus.CONFLICT);
+    }
+
     // UPDATE - add tag
     @PatchMapping("/item/update/{id}/addTag")
     public ResponseEntity<ItemDto> addTag(@PathVariable Integer id,
@@ -102,4 +318,13 @@ public class ItemController {
     public ResponseEntity<?> removeItem(@PathVariable Integer id) {
         return this.service.removeItem(id);
     }
+
+    // Whole items are written from their cached JSON, picked fields by Jackson. readSince
+    // is the catalog version read before the items were.
+    private Object items(List<ItemDto> items, String fields, long readSince) {
+        if (fields == null || fields.isBlank()) {
+            return fragments.page(items, readSince);
+        }
+        return ResponseFormats.withFields(items, fields);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.legacy.demo.controllers;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.legacy.demo.catalog.ItemFragments;
+
+// Writes a page of whole items as JSON straight from their cached fragments. Registered
+// ahead of the Jackson converters, which still take any other media type.
+public class ItemFragmentConverter extends AbstractHttpMessageConverter<ItemFragments.Page> {
+
+    public ItemFragmentConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ItemFragments.Page.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected ItemFragments.Page readInternal(Class<? extends ItemFragments.Page> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Pages of items are only written", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(ItemFragments.Page page, MediaType contentType) {
+        return page.length();
+    }
+
+    @Override
+    protected void writeInternal(ItemFragments.Page page, HttpOutputMessage outputMessage) throws IOException {
+        page.writeTo(outputMessage.getBody());
+    }
+}
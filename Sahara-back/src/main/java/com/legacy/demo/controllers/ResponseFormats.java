@@ -0,0 +1,79 @@
+package com.legacy.demo.controllers;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJacksonValue;
+
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.legacy.demo.dtos.ItemDto;
+
+/**
+ * How catalog responses can be written besides whole items as JSON.
+ *
+ * A fields parameter picks the item fields to write, e.g. fields=id,name,price,imageUrl
+ * for the shop grid. Accept: application/cbor gets the same response as CBOR, which is
+ * smaller and cheaper to write than JSON. Compression is Tomcat's, set up with the
+ * server.compression properties.
+ *
+ * Lists of whole items in JSON are written from ItemFragments by ItemFragmentConverter.
+ */
+@Configuration
+public class ResponseFormats {
+
+    public static final List<String> ITEM_FIELDS = List.of("id", "name", "price", "quantity", "imageUrl", "color",
+            "category", "tags", "version");
+
+    // Unless a response picks its fields, items are written whole
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer allItemFields() {
+        return builder -> builder.filters(allFields());
+    }
+
+    @Bean
+    public ItemFragmentConverter itemFragmentConverter() {
+        return new ItemFragmentConverter();
+    }
+
+    // Built from the same builder as the JSON mapper, so both write items the same way.
+    // Takes the place of the CBOR converter Spring MVC would add on its own.
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    public static FilterProvider allFields() {
+        return new SimpleFilterProvider().addFilter(ItemDto.FIELDS, SimpleBeanPropertyFilter.serializeAll());
+    }
+
+    // Only the listed item fields, comma separated. Null or blank is all of them.
+    public static FilterProvider fields(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return allFields();
+        }
+        Set<String> picked = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!ITEM_FIELDS.contains(name)) {
+                throw new IllegalArgumentException("Unknown field " + name + ", fields can be " + ITEM_FIELDS);
+            }
+            picked.add(name);
+        }
+        return new SimpleFilterProvider().addFilter(ItemDto.FIELDS, SimpleBeanPropertyFilter.filterOutAllExcept(picked));
+    }
+
+    public static MappingJacksonValue withFields(Object body, String fields) {
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        value.setFilters(fields(fields));
+        return value;
+    }
+}
@@ -0,0 +1,42 @@
+package com.legacy.demo.dtos;
+
+public class CategoryCountDto {
+    private String category;
+    private int items; // Items in the category
+    private int inStock; // Of those, how many have a quantity above zero
+
+    public CategoryCountDto() {
+        super();
+    }
+
+    public CategoryCountDto(String category, int items, int inStock) {
+        this.category = category;
+        this.items = items;
+        this.inStock = inStock;
+    }
+
+    // Getters and setters
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public int getItems() {
+        return items;
+    }
+
+    public void setItems(int items) {
+        this.items = items;
+    }
+
+    public int getInStock() {
+        return inStock;
+    }
+
+    public void setInStock(int inStock) {
+        this.inStock = inStock;
+    }
+}
@@ -0,0 +1,55 @@
+package com.legacy.demo.dtos;
+
+import java.util.List;
+
+// Counts over every item matching a filter, not just the page returned
+public class FacetsDto {
+    private int total; // Matching items
+    private int inStock; // Matching items with a quantity above zero
+    private List<CategoryCountDto> categories; // Most items first
+    private List<PriceBucketDto> prices; // Every bucket in price order, empty ones included
+
+    public FacetsDto() {
+        super();
+    }
+
+    public FacetsDto(int total, int inStock, List<CategoryCountDto> categories, List<PriceBucketDto> prices) {
+        this.total = total;
+        this.inStock = inStock;
+        this.categories = categories;
+        this.prices = prices;
+    }
+
+    // Getters and setters
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getInStock() {
+        return inStock;
+    }
+
+    public void setInStock(int inStock) {
+        this.inStock = inStock;
+    }
+
+    public List<CategoryCountDto> getCategories() {
+        return categories;
+    }
+
+    public void setCategories(List<CategoryCountDto> categories) {
+        this.categories = categories;
+    }
+
+    public List<PriceBucketDto> getPrices() {
+        return prices;
+    }
+
+    public void setPrices(List<PriceBucketDto> prices) {
+        this.prices = prices;
+    }
+}
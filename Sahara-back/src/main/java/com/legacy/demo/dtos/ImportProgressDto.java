@@ -0,0 +1,66 @@
+package com.legacy.demo.dtos;
+
+import java.util.List;
+
+// One line of the /items/import progress stream, written as each batch finishes and once
+// more at the end with done set
+public class ImportProgressDto {
+    private int batch; // Batches finished so far
+    private long imported; // Items written so far
+    private long failed; // Items skipped or rolled back so far
+    private List<String> errors; // What went wrong in this batch, capped in length
+    private boolean done;
+
+    public ImportProgressDto() {
+        super();
+    }
+
+    public ImportProgressDto(int batch, long imported, long failed, List<String> errors, boolean done) {
+        this.batch = batch;
+        this.imported = imported;
+        this.failed = failed;
+        this.errors = errors;
+        this.done = done;
+    }
+
+    // Getters and setters
+    public int getBatch() {
+        return batch;
+    }
+
+    public void setBatch(int batch) {
+        this.batch = batch;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public void setImported(long imported) {
+        this.imported = imported;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+}
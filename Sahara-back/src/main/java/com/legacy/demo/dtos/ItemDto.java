@@ -2,10 +2,16 @@ package com.legacy.demo.dtos;
 
 import java.util.ArrayList;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.legacy.demo.entities.Item;
 
 
+// Which fields are written is up to the FIELDS filter, see ResponseFormats
+@JsonFilter(ItemDto.FIELDS)
 public class ItemDto {
+    public static final String FIELDS = "itemFields";
+
     private Integer id;
     private String name;
     private Double price;
@@ -14,6 +20,8 @@ public class ItemDto {
     private String color;
     private String category;
     private ArrayList<String> tags;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String version; // Only sent by /items/getByIds, see CatalogVersion.itemVersion
 
     public ItemDto(Integer id, String name, Double price, Integer quantity, String imageUrl, String color, String category, ArrayList<String> tags) {
 
@@ -104,4 +112,12 @@ public class ItemDto {
     public void setTags(ArrayList<String> tags) {
         this.tags = tags;
     }
-}
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+}
\ No newline at end of file
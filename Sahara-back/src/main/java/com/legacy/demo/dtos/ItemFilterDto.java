@@ -9,6 +9,10 @@ public class ItemFilterDto {
     private String category; // Category filter
     private Boolean inStock; // Stock filter (true for in stock)
     private String searchTerm; 
+    private Integer page; // Zero-based page number, only used when size is set
+    private Integer size; // Page size (LIMIT), null returns every match
+    private String cursor; // Opaque keyset cursor returned by /items/filter/page
+    private Boolean facets; // True to get category, price and stock counts with the items
 
     // Getters and setters
     public List<String> getSort() {
@@ -58,4 +62,36 @@ public class ItemFilterDto {
     public void setSearchTerm(String searchTerm) {
         this.searchTerm = searchTerm;
     }
+
+    public Integer getPage() {
+        return page;
+    }
+
+    public void setPage(Integer page) {
+        this.page = page;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public void setSize(Integer size) {
+        this.size = size;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public Boolean getFacets() {
+        return facets;
+    }
+
+    public void setFacets(Boolean facets) {
+        this.facets = facets;
+    }
 }
@@ -0,0 +1,35 @@
+package com.legacy.demo.dtos;
+
+import java.util.List;
+
+// /items/filter response when facets are asked for
+public class ItemResultsDto {
+    private List<ItemDto> items;
+    private FacetsDto facets;
+
+    public ItemResultsDto() {
+        super();
+    }
+
+    public ItemResultsDto(List<ItemDto> items, FacetsDto facets) {
+        this.items = items;
+        this.facets = facets;
+    }
+
+    // Getters and setters
+    public List<ItemDto> getItems() {
+        return items;
+    }
+
+    public void setItems(List<ItemDto> items) {
+        this.items = items;
+    }
+
+    public FacetsDto getFacets() {
+        return facets;
+    }
+
+    public void setFacets(FacetsDto facets) {
+        this.facets = facets;
+    }
+}
@@ -0,0 +1,42 @@
+package com.legacy.demo.dtos;
+
+public class PriceBucketDto {
+    private Double min; // Inclusive lower bound, null for the first bucket
+    private Double max; // Exclusive upper bound, null for the last bucket
+    private int items;
+
+    public PriceBucketDto() {
+        super();
+    }
+
+    public PriceBucketDto(Double min, Double max, int items) {
+        this.min = min;
+        this.max = max;
+        this.items = items;
+    }
+
+    // Getters and setters
+    public Double getMin() {
+        return min;
+    }
+
+    public void setMin(Double min) {
+        this.min = min;
+    }
+
+    public Double getMax() {
+        return max;
+    }
+
+    public void setMax(Double max) {
+        this.max = max;
+    }
+
+    public int getItems() {
+        return items;
+    }
+
+    public void setItems(int items) {
+        this.items = items;
+    }
+}
@@ -0,0 +1,50 @@
+package com.legacy.demo.dtos;
+
+public class StockLineDto {
+    private Integer itemId;
+    private Integer quantity; // Units wanted
+    private Boolean ok; // Whether there was enough stock for this line
+    private Integer available; // Stock on hand, only filled in when the line fell short
+
+    public StockLineDto() {
+        super();
+    }
+
+    public StockLineDto(Integer itemId, Integer quantity) {
+        this.itemId = itemId;
+        this.quantity = quantity;
+    }
+
+    // Getters and setters
+    public Integer getItemId() {
+        return itemId;
+    }
+
+    public void setItemId(Integer itemId) {
+        this.itemId = itemId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+
+    public Boolean getOk() {
+        return ok;
+    }
+
+    public void setOk(Boolean ok) {
+        this.ok = ok;
+    }
+
+    public Integer getAvailable() {
+        return available;
+    }
+
+    public void setAvailable(Integer available) {
+        this.available = available;
+    }
+}
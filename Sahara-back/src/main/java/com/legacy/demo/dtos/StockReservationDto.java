@@ -0,0 +1,34 @@
+package com.legacy.demo.dtos;
+
+import java.util.List;
+
+public class StockReservationDto {
+    private boolean reserved; // True only if every line was taken off stock
+    private List<StockLineDto> lines;
+
+    public StockReservationDto() {
+        super();
+    }
+
+    public StockReservationDto(boolean reserved, List<StockLineDto> lines) {
+        this.reserved = reserved;
+        this.lines = lines;
+    }
+
+    // Getters and setters
+    public boolean isReserved() {
+        return reserved;
+    }
+
+    public void setReserved(boolean reserved) {
+        this.reserved = reserved;
+    }
+
+    public List<StockLineDto> getLines() {
+        return lines;
+    }
+
+    public void setLines(List<StockLineDto> lines) {
+        this.lines = lines;
+    }
+}
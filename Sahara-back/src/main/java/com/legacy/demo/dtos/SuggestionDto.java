@@ -0,0 +1,42 @@
+package com.legacy.demo.dtos;
+
+public class SuggestionDto {
+    private String text;
+    private String kind; // name, category, color or tag
+    private int items; // Items carrying this text as that kind
+
+    public SuggestionDto() {
+        super();
+    }
+
+    public SuggestionDto(String text, String kind, int items) {
+        this.text = text;
+        this.kind = kind;
+        this.items = items;
+    }
+
+    // Getters and setters
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    public int getItems() {
+        return items;
+    }
+
+    public void setItems(int items) {
+        this.items = items;
+    }
+}
@@ -6,11 +6,21 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.TableGenerator;
 
 @Entity
 public class Item {
+    // Ids are handed out in blocks of ALLOCATION_SIZE from the id_generator table rather
+    // than by the database on insert, which lets Hibernate batch the inserts. The table
+    // is moved past existing ids on startup, see ItemIdAlignment.
+    public static final String ID_GENERATOR_TABLE = "id_generator";
+    public static final String ID_GENERATOR_KEY = "item";
+    public static final int ALLOCATION_SIZE = 100;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "item_ids")
+    @TableGenerator(name = "item_ids", table = ID_GENERATOR_TABLE, pkColumnName = "name",
+            valueColumnName = "next_value", pkColumnValue = ID_GENERATOR_KEY, allocationSize = ALLOCATION_SIZE)
 
     private Integer id;
     private String name;
@@ -0,0 +1,55 @@
+package com.legacy.demo.repos;
+
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.legacy.demo.entities.Item;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Moves the item id generator past every id already in the item table, before anything
+ * can insert.
+ *
+ * Item ids used to come from the table's AUTO_INCREMENT, so an existing catalog has ids
+ * the generator knows nothing about. Hibernate hands out a block of ids ending at the
+ * stored value, so the stored value has to be at least the highest id plus a whole
+ * block. This runs once the schema is in place (after the entity manager factory) and
+ * before the web server starts.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class ItemIdAlignment {
+
+    private static final String TABLE = Item.ID_GENERATOR_TABLE;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transaction;
+
+    public ItemIdAlignment(JdbcTemplate jdbc, PlatformTransactionManager transactionManager) {
+        this.jdbc = jdbc;
+        this.transaction = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void align() {
+        transaction.executeWithoutResult(status -> {
+            Long highest = jdbc.queryForObject("SELECT MAX(id) FROM item", Long.class);
+            long floor = (highest != null ? highest : 0) + Item.ALLOCATION_SIZE;
+
+            int moved = jdbc.update("UPDATE " + TABLE + " SET next_value = ? WHERE name = ? AND next_value < ?",
+                    floor, Item.ID_GENERATOR_KEY, floor);
+            if (moved == 0) {
+                Integer rows = jdbc.queryForObject("SELECT COUNT(*) FROM " + TABLE + " WHERE name = ?",
+                        Integer.class, Item.ID_GENERATOR_KEY);
+                if (rows == null || rows == 0) {
+                    jdbc.update("INSERT INTO " + TABLE + " (name, next_value) VALUES (?, ?)",
+                            Item.ID_GENERATOR_KEY, floor);
+                }
+            }
+        });
+    }
+}
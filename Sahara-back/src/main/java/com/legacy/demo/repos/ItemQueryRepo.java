@@ -0,0 +1,29 @@
+package com.legacy.demo.repos;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import com.legacy.demo.entities.Item;
+
+public interface ItemQueryRepo {
+
+    // Takes the place of JpaSpecificationExecutor's findAll, so that the sort is applied
+    // with ItemSpecifications.toOrders - names in binary order - rather than by property
+    List<Item> findAll(Specification<Item> spec, Sort sort);
+
+    // Runs the specification as one query with ORDER BY and LIMIT/OFFSET, without the
+    // extra COUNT query that a Page would trigger
+    List<Item> findSlice(Specification<Item> spec, Sort sort, long offset, int limit);
+
+    // Same query without an offset, read row by row - must be called inside a transaction
+    // and the stream closed afterwards
+    Stream<Item> streamSlice(Specification<Item> spec, Sort sort, int limit);
+
+    // Every item in id order, fetched from the cursor fetchSize rows at a time. Items are
+    // detached as they come off the cursor, so the persistence context stays empty however
+    // many are read. Same transaction and closing rules as streamSlice.
+    Stream<Item> streamAll(int fetchSize);
+}
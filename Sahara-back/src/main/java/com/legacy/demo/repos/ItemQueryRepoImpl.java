@@ -0,0 +1,70 @@
+package com.legacy.demo.repos;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import com.legacy.demo.entities.Item;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+public class ItemQueryRepoImpl implements ItemQueryRepo {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Item> findAll(Specification<Item> spec, Sort sort) {
+        return createQuery(spec, sort).getResultList();
+    }
+
+    @Override
+    public List<Item> findSlice(Specification<Item> spec, Sort sort, long offset, int limit) {
+        return createQuery(spec, sort)
+                .setFirstResult(Math.toIntExact(offset))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<Item> streamSlice(Specification<Item> spec, Sort sort, int limit) {
+        return createQuery(spec, sort)
+                .setMaxResults(limit)
+                .setHint("org.hibernate.fetchSize", limit)
+                .getResultStream();
+    }
+
+    @Override
+    public Stream<Item> streamAll(int fetchSize) {
+        return entityManager.createQuery("SELECT i FROM Item i ORDER BY i.id", Item.class)
+                .setHint("org.hibernate.fetchSize", fetchSize)
+                .setHint("org.hibernate.readOnly", true)
+                .getResultStream()
+                .map(item -> {
+                    entityManager.detach(item);
+                    return item;
+                });
+    }
+
+    private TypedQuery<Item> createQuery(Specification<Item> spec, Sort sort) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Item> query = cb.createQuery(Item.class);
+        Root<Item> root = query.from(Item.class);
+
+        Predicate where = spec.toPredicate(root, query, cb);
+        if (where != null) {
+            query.where(where);
+        }
+        query.orderBy(ItemSpecifications.toOrders(sort, root, cb));
+
+        return entityManager.createQuery(query);
+    }
+}
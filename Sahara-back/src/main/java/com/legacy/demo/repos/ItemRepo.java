@@ -1,6 +1,7 @@
 package com.legacy.demo.repos;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.stereotype.Repository;
 import org.springframework.data.jpa.repository.Query;
 
@@ -9,7 +10,18 @@ import com.legacy.demo.entities.Item;
 import java.util.List;
 
 @Repository
-public interface ItemRepo extends JpaRepository <Item, Integer> {
+public interface ItemRepo extends JpaRepository <Item, Integer>, JpaSpecificationExecutor<Item>, ItemQueryRepo {
     @Query("SELECT DISTINCT i.category FROM Item i")
     List<String> findDistinctCategories();
+
+    // Category, item count and in-stock count - only used until the category dictionary
+    // has loaded
+    @Query("SELECT i.category, COUNT(i), SUM(CASE WHEN i.quantity > 0 THEN 1 ELSE 0 END) FROM Item i "
+            + "WHERE i.category IS NOT NULL GROUP BY i.category")
+    List<Object[]> countByCategory();
+
+    // Tags are stored as a serialized blob, so the tag search has to be matched in
+    // Java - this only loads the id and tags columns rather than whole items
+    @Query("SELECT i.id, i.tags FROM Item i")
+    List<Object[]> findAllIdsAndTags();
 }
@@ -0,0 +1,172 @@
+package com.legacy.demo.repos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import com.legacy.demo.catalog.CaseFolding;
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.entities.Item;
+
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Order;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+/**
+ * Turns the shop filter into JPA criteria so that filtering, ordering and paging
+ * all happen in a single SQL statement instead of on the full item list in memory.
+ *
+ * Names and categories are compared as binary strings. The MySQL columns use the
+ * schema's case- and accent-insensitive collation, under which "apple" and "Apple" tie
+ * and "Cafe" equals "Café", while CatalogSnapshot and the old in-memory filter compare
+ * them as Java strings. Cast to binary, names sort in code point order on MySQL and H2
+ * alike, which is the order CatalogSnapshot sorts them in.
+ */
+public final class ItemSpecifications {
+
+    private ItemSpecifications() {
+    }
+
+    // WHERE clause for the price range, category and stock filters - each one is
+    // optional and the ones present are ANDed together
+    public static Specification<Item> matching(ItemFilterDto filter) {
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+
+            if (filter.getMinPrice() != null) {
+                predicates.add(cb.ge(root.get("price"), filter.getMinPrice()));
+            }
+
+            if (filter.getMaxPrice() != null) {
+                predicates.add(cb.le(root.get("price"), filter.getMaxPrice()));
+            }
+
+            // lower(upper(c)) folds case a character at a time like CaseFolding, and so
+            // like the equalsIgnoreCase the snapshot and the old filter match with
+            String category = filter.getCategory();
+            if (category != null && !category.isEmpty()) {
+                predicates.add(cb.equal(binary(cb.lower(cb.upper(root.get("category")))),
+                        binary(cb.literal(CaseFolding.fold(category)))));
+            }
+
+            if (filter.getInStock() != null && filter.getInStock()) {
+                predicates.add(cb.gt(root.get("quantity"), 0));
+            }
+
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    public static Specification<Item> idIn(Collection<Integer> ids) {
+        return (root, query, cb) -> ids.isEmpty() ? cb.disjunction() : root.get("id").in(ids);
+    }
+
+    // Keyset condition for "every row after this one" in the given sort, where keys holds
+    // the last row's value for each sort property in order. For sort (a, b, id) this is
+    // a > ? OR (a = ? AND b > ?) OR (a = ? AND b = ? AND id > ?), so the database can seek
+    // straight to the next page instead of counting past an OFFSET.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static Specification<Item> after(Sort sort, List<Object> keys) {
+        return (root, query, cb) -> {
+            List<Predicate> alternatives = new ArrayList<>();
+            List<Predicate> equalSoFar = new ArrayList<>();
+
+            int i = 0;
+            for (Sort.Order order : sort) {
+                Expression<Comparable> path = (Expression) sortKey(root, order.getProperty());
+                Comparable value = (Comparable) keys.get(i++);
+                Expression<Comparable> key = value == null ? null
+                        : value instanceof String ? (Expression) binary(cb.literal((String) value))
+                        : cb.literal(value);
+
+                Predicate beyond = beyond(cb, path, key, order.isAscending());
+                if (beyond != null) {
+                    List<Predicate> alternative = new ArrayList<>(equalSoFar);
+                    alternative.add(beyond);
+                    alternatives.add(cb.and(alternative.toArray(new Predicate[0])));
+                }
+                equalSoFar.add(key == null ? cb.isNull(path) : cb.equal(path, key));
+            }
+
+            return cb.or(alternatives.toArray(new Predicate[0]));
+        };
+    }
+
+    // Rows strictly past value in one direction. NULLs sort lowest in both MySQL and H2,
+    // so they come first ascending and last descending.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Predicate beyond(CriteriaBuilder cb, Expression<Comparable> path, Expression<Comparable> value,
+            boolean ascending) {
+        if (ascending) {
+            return value == null ? cb.isNotNull(path) : cb.greaterThan(path, value);
+        }
+        return value == null ? null : cb.or(cb.lessThan(path, value), cb.isNull(path));
+    }
+
+    // ORDER BY for the sort, with names in binary order as above
+    public static List<Order> toOrders(Sort sort, Root<Item> root, CriteriaBuilder cb) {
+        List<Order> orders = new ArrayList<>();
+        for (Sort.Order order : sort) {
+            Expression<?> key = sortKey(root, order.getProperty());
+            orders.add(order.isAscending() ? cb.asc(key) : cb.desc(key));
+        }
+        return orders;
+    }
+
+    private static Expression<?> sortKey(Root<Item> root, String property) {
+        return "name".equals(property) ? binary(root.get("name")) : root.get(property);
+    }
+
+    // CAST(... AS BINARY) on MySQL, VARBINARY on H2 - the UTF-8 bytes of the string
+    private static Expression<byte[]> binary(Expression<String> value) {
+        return value.as(byte[].class);
+    }
+
+    // Sort params come in as "field,direction" pairs, e.g. "price,desc". A direction of
+    // "none" skips the field. The id is always appended last so that ties come back in
+    // a stable order between requests and pages.
+    public static Sort toSort(List<String> sort) {
+        List<Sort.Order> orders = new ArrayList<>();
+        if (sort != null) {
+            for (String param : sort) {
+                String[] sortCriteria = param.split(",");
+                if (sortCriteria.length != 2) {
+                    throw new IllegalArgumentException("Invalid sort parameter format: " + param);
+                }
+
+                String field = sortCriteria[0];
+                String direction = sortCriteria[1];
+
+                if ("none".equalsIgnoreCase(direction)) {
+                    continue;
+                }
+
+                orders.add(new Sort.Order(toDirection(direction), toProperty(field)));
+            }
+        }
+        orders.add(Sort.Order.asc("id"));
+        return Sort.by(orders);
+    }
+
+    private static String toProperty(String field) {
+        switch (field.toLowerCase()) {
+            case "name":
+                return "name";
+            case "price":
+                return "price";
+            case "quantity":
+                return "quantity";
+            default:
+                throw new IllegalArgumentException("Invalid sort field: " + field);
+        }
+    }
+
+    private static Sort.Direction toDirection(String direction) {
+        return "desc".equalsIgnoreCase(direction) ? Sort.Direction.DESC : Sort.Direction.ASC;
+    }
+}
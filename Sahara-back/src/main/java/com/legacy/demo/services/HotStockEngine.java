@@ -0,0 +1,483 @@
+package com.legacy.demo.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Stock of the items in {@code catalog.stock.hot-items} - the few SKUs a sale sends every
+ * checkout to - kept in memory, so reserving them doesn't queue on one row lock.
+ *
+ * The stock of a hot item is split over {@code catalog.stock.stripes} counters, each on a
+ * cache line of its own. A reservation takes from its thread's stripe with a compare and
+ * set, moving on to the others if that one runs short. Only when no single stripe has
+ * enough are they gathered under the item's lock, so stock can be taken from several at
+ * once but never below zero.
+ *
+ * Reservations are written back to {@code item.quantity} by one writer thread, as a
+ * guarded decrement per item for everything taken since its last write. A reservation is
+ * only answered once its write has committed, so the row is the stock minus what is in
+ * flight and the counters can be loaded from it again after a restart. Without any hot
+ * items the writer isn't started.
+ */
+@Component
+public class HotStockEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(HotStockEngine.class);
+
+    private static final String TAKE_SQL = "UPDATE item SET quantity = quantity - ? WHERE id = ? AND quantity >= ?";
+    private static final int MAX_GROUP = 1024;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transaction;
+    private final Set<Integer> hotItems;
+    private final int stripes;
+    private final Timer flushes;
+    private final DistributionSummary groups;
+
+    private final Map<Integer, Stock> stock = new ConcurrentHashMap<>();
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private volatile boolean closed;
+
+    public HotStockEngine(JdbcTemplate jdbc,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${catalog.stock.hot-items:}") Set<Integer> hotItems,
+            @Value("${catalog.stock.stripes:16}") int stripes) {
+        this.jdbc = jdbc;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.hotItems = Set.copyOf(hotItems);
+        this.stripes = stripes;
+        this.flushes = Timer.builder("catalog.stock.hot.flush")
+                .description("Time taken to write one group of hot item reservations to the database")
+                .register(meterRegistry);
+        this.groups = DistributionSummary.builder("catalog.stock.hot.group")
+                .description("Reservations written to the database together")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (this.hotItems.isEmpty() || this.writer != null) {
+            return;
+        }
+        this.writer = new Thread(this::writeGroups, "hot-stock-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public boolean isHot(Integer itemId) {
+        return this.hotItems.contains(itemId);
+    }
+
+    /**
+     * Takes the wanted quantities of hot items off their counters, all or nothing. If any
+     * item is short, everything taken so far is put back and the claim only reports what
+     * was available.
+     */
+    public Claim claim(SortedMap<Integer, Integer> wanted) {
+        int home = home();
+        Map<Stock, Integer> taken = new HashMap<>();
+        Map<Integer, Integer> shortfall = new HashMap<>();
+        for (Map.Entry<Integer, Integer> line : wanted.entrySet()) {
+            Stock item = stockOf(line.getKey());
+            int available = item == null ? 0 : item.take(line.getValue(), home);
+            if (available < 0) {
+                taken.put(item, line.getValue());
+            } else {
+                shortfall.put(line.getKey(), available);
+            }
+        }
+        Claim claim = new Claim(taken, shortfall, home);
+        if (!shortfall.isEmpty()) {
+            claim.release();
+        }
+        return claim;
+    }
+
+    /**
+     * Runs an update of a hot item's row with its stock held still: nothing is written to
+     * the row and no reservation can take from it meanwhile. The write is handed the
+     * quantity the row must end up with - its stock as it is, or newQuantity less what is
+     * reserved but not yet written - and must store exactly that. It is handed null for an
+     * item whose stock isn't in memory.
+     */
+    public <T> T update(Integer itemId, Integer newQuantity, Function<Integer, T> write) {
+        Stock item = isHot(itemId) ? stockOf(itemId) : null;
+        if (item == null) {
+            return write.apply(null);
+        }
+        synchronized (item) {
+            item.writes.lock();
+            try {
+                int stored = currentQuantity(itemId);
+                if (newQuantity == null) {
+                    return write.apply(stored);
+                }
+                int delta = newQuantity - item.drain();
+                item.fill(newQuantity);
+                try {
+                    return write.apply(stored + delta);
+                } catch (RuntimeException e) {
+                    item.fill(Math.max(0, item.drain() - delta));
+                    throw e;
+                }
+            } finally {
+                item.writes.unlock();
+            }
+        }
+    }
+
+    // Stock in memory for the item, or -1 if none is loaded
+    int available(Integer itemId) {
+        Stock item = this.stock.get(itemId);
+        return item == null ? -1 : item.available();
+    }
+
+    // Drops the counters of an item that was deleted or that no longer matches its row.
+    // They are loaded again on next use.
+    public void forget(Integer itemId) {
+        this.stock.remove(itemId);
+    }
+
+    // Writes what is still queued before the database goes away
+    @PreDestroy
+    public void close() {
+        this.closed = true;
+        if (this.writer != null) {
+            try {
+                this.writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<Pending> late = new ArrayList<>();
+        this.queue.drainTo(late);
+        for (Pending pending : late) {
+            pending.stored.completeExceptionally(new IllegalStateException("Hot stock is closed"));
+        }
+    }
+
+    private Stock stockOf(Integer itemId) {
+        Stock item = this.stock.get(itemId);
+        if (item != null) {
+            return item;
+        }
+        // Loaded outside computeIfAbsent so the query doesn't hold up other items
+        Integer quantity = storedQuantity(itemId);
+        if (quantity == null) {
+            return null;
+        }
+        return this.stock.computeIfAbsent(itemId, id -> {
+            Stock loaded = new Stock(id, this.stripes);
+            loaded.fill(Math.max(0, quantity));
+            return loaded;
+        });
+    }
+
+    private Integer storedQuantity(Integer itemId) {
+        try {
+            return this.jdbc.queryForObject("SELECT quantity FROM item WHERE id = ?", Integer.class, itemId);
+        } catch (EmptyResultDataAccessException e) {
+            return null;
+        }
+    }
+
+    private int currentQuantity(Integer itemId) {
+        Integer quantity = storedQuantity(itemId);
+        return quantity == null ? 0 : quantity;
+    }
+
+    // Spreads threads over the stripes
+    private int home() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 33) % this.stripes;
+    }
+
+    private void writeGroups() {
+        List<Pending> group = new ArrayList<>();
+        while (!this.closed || !this.queue.isEmpty()) {
+            try {
+                Pending first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            this.queue.drainTo(group, MAX_GROUP - group.size());
+            if (!group.isEmpty()) {
+                this.groups.record(group.size());
+                this.flushes.record(() -> write(group));
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Decrements each item's row by the sum of the group's reservations of it, in one
+     * transaction and in id order. A row that doesn't have enough left no longer matches
+     * its counters: the transaction is rolled back, the reservations of that item come
+     * back short of it and the rest are written again without them.
+     */
+    private void write(List<Pending> group) {
+        List<Pending> remaining = new ArrayList<>(group);
+        while (!remaining.isEmpty()) {
+            SortedMap<Integer, Integer> totals = new TreeMap<>();
+            Map<Integer, Stock> items = new HashMap<>();
+            for (Pending pending : remaining) {
+                for (Map.Entry<Stock, Integer> line : pending.taken.entrySet()) {
+                    totals.merge(line.getKey().itemId, line.getValue(), Integer::sum);
+                    items.putIfAbsent(line.getKey().itemId, line.getKey());
+                }
+            }
+
+            List<Stock> locked = new ArrayList<>(totals.size());
+            List<Integer> mismatched = new ArrayList<>();
+            try {
+                for (Integer itemId : totals.keySet()) {
+                    Stock item = items.get(itemId);
+                    item.writes.lock();
+                    locked.add(item);
+                }
+                this.transaction.executeWithoutResult(status -> {
+                    List<Object[]> batch = new ArrayList<>(totals.size());
+                    for (Map.Entry<Integer, Integer> total : totals.entrySet()) {
+                        batch.add(new Object[] { total.getValue(), total.getKey(), total.getValue() });
+                    }
+                    int[] updated = this.jdbc.batchUpdate(TAKE_SQL, batch);
+                    int i = 0;
+                    for (Integer itemId : totals.keySet()) {
+                        if (updated[i++] == 0) {
+                            mismatched.add(itemId);
+                        }
+                    }
+                    if (!mismatched.isEmpty()) {
+                        status.setRollbackOnly();
+                    }
+                });
+            } catch (RuntimeException e) {
+                log.error("Could not write {} hot stock reservations", remaining.size(), e);
+                for (Pending pending : remaining) {
+                    pending.stored.completeExceptionally(e);
+                }
+                return;
+            } finally {
+                for (Stock item : locked) {
+                    item.writes.unlock();
+                }
+            }
+
+            if (mismatched.isEmpty()) {
+                for (Pending pending : remaining) {
+                    pending.stored.complete(Set.of());
+                }
+                return;
+            }
+            log.warn("Stock of items {} no longer matches the database, reloading it", mismatched);
+            List<Pending> retry = new ArrayList<>();
+            for (Pending pending : remaining) {
+                Set<Integer> shortItems = pending.itemsIn(mismatched);
+                if (!shortItems.isEmpty()) {
+                    pending.stored.complete(shortItems);
+                } else {
+                    retry.add(pending);
+                }
+            }
+            for (Integer itemId : mismatched) {
+                this.stock.remove(itemId, items.get(itemId));
+            }
+            remaining = retry;
+        }
+    }
+
+    /**
+     * Hot stock taken for one checkout. It is either released, or committed - which waits
+     * until it has been written to the database.
+     */
+    public final class Claim {
+        private final Map<Stock, Integer> taken;
+        private final Map<Integer, Integer> shortfall;
+        private final int home;
+        private boolean released;
+
+        private Claim(Map<Stock, Integer> taken, Map<Integer, Integer> shortfall, int home) {
+            this.taken = taken;
+            this.shortfall = shortfall;
+            this.home = home;
+        }
+
+        // What was available of each item there wasn't enough of
+        public Map<Integer, Integer> getShortfall() {
+            return this.shortfall;
+        }
+
+        public void release() {
+            if (this.released) {
+                return;
+            }
+            this.released = true;
+            for (Map.Entry<Stock, Integer> line : this.taken.entrySet()) {
+                line.getKey().giveBack(line.getValue(), this.home);
+            }
+        }
+
+        // Waits for the write and returns the items whose rows turned out not to have
+        // enough, which is empty once it is written. If that isn't empty the stock is put
+        // back, as it is if the write fails, which throws.
+        public Set<Integer> commit() {
+            if (this.taken.isEmpty() || this.released) {
+                return Set.of();
+            }
+            Pending pending = new Pending(this.taken);
+            if (closed) {
+                release();
+                throw new IllegalStateException("Hot stock is closed");
+            }
+            queue.add(pending);
+            Set<Integer> shortItems;
+            try {
+                shortItems = pending.stored.join();
+            } catch (CompletionException e) {
+                release();
+                throw new IllegalStateException("The reservation could not be written", e.getCause());
+            }
+            if (!shortItems.isEmpty()) {
+                release();
+            }
+            return shortItems;
+        }
+    }
+
+    private static final class Pending {
+        private final Map<Stock, Integer> taken;
+        private final CompletableFuture<Set<Integer>> stored = new CompletableFuture<>();
+
+        Pending(Map<Stock, Integer> taken) {
+            this.taken = taken;
+        }
+
+        Set<Integer> itemsIn(Collection<Integer> itemIds) {
+            Set<Integer> found = new HashSet<>();
+            for (Stock item : this.taken.keySet()) {
+                if (itemIds.contains(item.itemId)) {
+                    found.add(item.itemId);
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * The available stock of one item, striped. Taking is lock-free while a stripe has
+     * enough; the monitor is only for gathering every stripe, and writes keeps the writer
+     * off the row while an update holds the stock still.
+     */
+    static final class Stock {
+        // Ints per 64-byte cache line, so stripes don't share one
+        private static final int SPACING = 16;
+
+        private final Integer itemId;
+        private final int stripes;
+        private final AtomicIntegerArray cells;
+        private final ReentrantLock writes = new ReentrantLock();
+
+        Stock(Integer itemId, int stripes) {
+            this.itemId = itemId;
+            this.stripes = stripes;
+            this.cells = new AtomicIntegerArray(stripes * SPACING);
+        }
+
+        // -1 if the quantity was taken, otherwise how much there was
+        int take(int quantity, int home) {
+            if (tryTake(quantity, home)) {
+                return -1;
+            }
+            synchronized (this) {
+                int total = drain();
+                if (total >= quantity) {
+                    fill(total - quantity);
+                    return -1;
+                }
+                fill(total);
+                return total;
+            }
+        }
+
+        private boolean tryTake(int quantity, int home) {
+            for (int i = 0; i < this.stripes; i++) {
+                int cell = ((home + i) % this.stripes) * SPACING;
+                int left = this.cells.get(cell);
+                while (left >= quantity) {
+                    if (this.cells.compareAndSet(cell, left, left - quantity)) {
+                        return true;
+                    }
+                    left = this.cells.get(cell);
+                }
+            }
+            return false;
+        }
+
+        void giveBack(int quantity, int home) {
+            this.cells.getAndAdd((home % this.stripes) * SPACING, quantity);
+        }
+
+        // Empties every stripe, returning what they held
+        int drain() {
+            int total = 0;
+            for (int i = 0; i < this.stripes; i++) {
+                total += this.cells.getAndSet(i * SPACING, 0);
+            }
+            return total;
+        }
+
+        // Spreads the quantity evenly over the stripes
+        void fill(int quantity) {
+            int each = quantity / this.stripes;
+            int extra = quantity % this.stripes;
+            for (int i = 0; i < this.stripes; i++) {
+                this.cells.getAndAdd(i * SPACING, i < extra ? each + 1 : each);
+            }
+        }
+
+        int available() {
+            int total = 0;
+            for (int i = 0; i < this.stripes; i++) {
+                total += this.cells.get(i * SPACING);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.legacy.demo.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.domain.Sort;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.legacy.demo.entities.Item;
+
+/**
+ * Opaque continuation token for keyset pagination. It carries the sort key values of
+ * the last item on a page, plus the sort it was built for so that a cursor cannot be
+ * replayed against a different ordering.
+ */
+public final class ItemCursor {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ItemCursor() {
+    }
+
+    public static String encode(Sort sort, Item last) {
+        List<Object> keys = new ArrayList<>();
+        for (Sort.Order order : sort) {
+            keys.add(valueOf(last, order.getProperty()));
+        }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("s", sort.toString());
+        body.put("k", keys);
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(body));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode cursor", e);
+        }
+    }
+
+    public static List<Object> decode(String cursor, Sort sort) {
+        JsonNode body;
+        try {
+            body = MAPPER.readTree(Base64.getUrlDecoder().decode(cursor));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+
+        JsonNode keys = body.path("k");
+        if (!sort.toString().equals(body.path("s").asText()) || keys.size() != sort.toList().size()) {
+            throw new IllegalArgumentException("Cursor does not match the requested sort");
+        }
+
+        List<Object> values = new ArrayList<>();
+        int i = 0;
+        for (Sort.Order order : sort) {
+            JsonNode key = keys.get(i++);
+            values.add(key.isNull() ? null : typed(order.getProperty(), key));
+        }
+        return values;
+    }
+
+    private static Object valueOf(Item item, String property) {
+        switch (property) {
+            case "name":
+                return item.getName();
+            case "price":
+                return item.getPrice();
+            case "quantity":
+                return item.getQuantity();
+            case "id":
+                return item.getId();
+            default:
+                throw new IllegalArgumentException("Invalid sort field: " + property);
+        }
+    }
+
+    private static Object typed(String property, JsonNode key) {
+        switch (property) {
+            case "name":
+                return key.asText();
+            case "price":
+                return key.asDouble();
+            default:
+                return key.asInt();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.legacy.demo.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.legacy.demo.catalog.CatalogIndexer;
+import com.legacy.demo.catalog.CatalogVersion;
+import com.legacy.demo.dtos.ImportProgressDto;
+import com.legacy.demo.entities.Item;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Bulk item import for loading a whole catalog.
+ *
+ * Items are parsed one at a time off the request stream, so memory use doesn't depend
+ * on the size of the import. Every batch is written in its own transaction as a JDBC
+ * batch, and the persistence context is cleared afterwards. A batch that fails is
+ * rolled back and reported, and the import carries on with the next one.
+ *
+ * Each batch is passed on to the catalog indexes once it has committed, all of it under
+ * one hold of the indexer's lock. Before the indexes have loaded nothing is passed on,
+ * as the load reads the imported rows from the table.
+ */
+@Service
+public class ItemImportService {
+
+    private static final int MAX_ERRORS_PER_BATCH = 20;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate transaction;
+    private final ObjectReader itemReader;
+    private final CatalogIndexer indexer;
+    private final CatalogVersion versions;
+    private final int batchSize;
+
+    public ItemImportService(PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+            CatalogIndexer indexer, CatalogVersion versions, @Value("${catalog.import.batch-size:1000}") int batchSize) {
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.itemReader = objectMapper.readerFor(Item.class);
+        this.indexer = indexer;
+        this.versions = versions;
+        this.batchSize = batchSize;
+    }
+
+    // Imports every item in the stream as a new item - any ids given are ignored. With
+    // ndjson set the input is one item per line and a bad line is skipped. Otherwise it
+    // is a JSON array or a run of objects, where a bad item ends the import since there
+    // is no telling where the next one starts. progress is called after each batch and
+    // once more at the end.
+    public ImportProgressDto importItems(InputStream in, boolean ndjson, Consumer<ImportProgressDto> progress)
+            throws IOException {
+        Batches batches = new Batches(progress);
+        if (ndjson) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    batches.add(itemReader.readValue(line));
+                } catch (JsonProcessingException e) {
+                    batches.reject("line " + lineNumber + ": " + e.getOriginalMessage());
+                }
+            }
+        } else {
+            long itemNumber = 0;
+            try (MappingIterator<Item> items = itemReader.readValues(in)) {
+                while (items.hasNextValue()) {
+                    itemNumber++;
+                    batches.add(items.nextValue());
+                }
+            } catch (JsonProcessingException e) {
+                batches.reject("item " + (itemNumber + 1) + ": " + e.getOriginalMessage() + " - import stopped");
+            }
+        }
+        batches.flush();
+        this.versions.changed(null);
+
+        ImportProgressDto done = new ImportProgressDto(batches.batch, batches.imported, batches.failed,
+                new ArrayList<>(), true);
+        progress.accept(done);
+        return done;
+    }
+
+    private void write(List<Item> items) {
+        transaction.executeWithoutResult(status -> {
+            entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+            for (Item item : items) {
+                entityManager.persist(item);
+            }
+            entityManager.flush();
+            entityManager.clear();
+        });
+    }
+
+    // The batch being filled and the running totals
+    private final class Batches {
+        private final Consumer<ImportProgressDto> progress;
+        private List<Item> pending = new ArrayList<>();
+        private List<String> errors = new ArrayList<>();
+        private int batch;
+        private long imported;
+        private long failed;
+
+        Batches(Consumer<ImportProgressDto> progress) {
+            this.progress = progress;
+        }
+
+        void add(Item item) {
+            item.setId(null);
+            pending.add(item);
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        void reject(String error) {
+            failed++;
+            error(error);
+        }
+
+        void flush() {
+            if (pending.isEmpty() && errors.isEmpty()) {
+                return;
+            }
+            if (!pending.isEmpty()) {
+                try {
+                    write(pending);
+                    imported += pending.size();
+                    indexer.savedAll(pending);
+                    versions.changed(null);
+                } catch (RuntimeException e) {
+                    failed += pending.size();
+                    error("batch " + (batch + 1) + " rolled back: " + NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+                }
+            }
+            batch++;
+            progress.accept(new ImportProgressDto(batch, imported, failed, errors, false));
+            pending = new ArrayList<>(batchSize);
+            errors = new ArrayList<>();
+        }
+
+        private void error(String error) {
+            if (errors.size() < MAX_ERRORS_PER_BATCH) {
+                errors.add(error);
+            } else if (errors.size() == MAX_ERRORS_PER_BATCH) {
+                errors.add("further errors in this batch not shown");
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.legacy.demo.services;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import com.legacy.demo.entities.Item;
+
+// A validated keyset page request, built by ItemService.preparePage before the response
+// starts streaming so that bad input can still be answered with a 400
+public final class ItemPageQuery {
+
+    private final Specification<Item> spec;
+    private final Sort sort;
+    private final int size;
+
+    ItemPageQuery(Specification<Item> spec, Sort sort, int size) {
+        this.spec = spec;
+        this.sort = sort;
+        this.size = size;
+    }
+
+    public Specification<Item> getSpec() {
+        return spec;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
@@ -1,155 +1,477 @@
 package com.legacy.demo.services;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.legacy.demo.catalog.CatalogIndexer;
+import com.legacy.demo.catalog.CatalogSnapshot;
+import com.legacy.demo.catalog.CatalogVersion;
+import com.legacy.demo.catalog.CaseFolding;
+import com.legacy.demo.catalog.CategoryDictionary;
+import com.legacy.demo.catalog.FacetCounter;
+import com.legacy.demo.catalog.ItemCache;
+import com.legacy.demo.catalog.ItemFragments;
+import com.legacy.demo.catalog.SingleFlight;
+import com.legacy.demo.catalog.SuggestIndex;
+import com.legacy.demo.catalog.TagIndex;
+import com.legacy.demo.dtos.CategoryCountDto;
 import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.dtos.ItemResultsDto;
+import com.legacy.demo.dtos.StockLineDto;
+import com.legacy.demo.dtos.StockReservationDto;
+import com.legacy.demo.dtos.SuggestionDto;
 import com.legacy.demo.entities.Item;
 import com.legacy.demo.repos.ItemRepo;
+import com.legacy.demo.repos.ItemSpecifications;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.persistence.EntityNotFoundException;
 
 @Service
 public class ItemService {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int DEFAULT_SUGGESTIONS = 8;
+    private static final int WRITE_LOCK_STRIPES = 256;
+
     @Autowired
     private final ItemRepo repo;
 
-    public ItemService(ItemRepo repo) {
+    private final TagIndex tagIndex;
+    private final CatalogSnapshot snapshot;
+    private final CategoryDictionary categories;
+    private final SuggestIndex suggestions;
+    private final CatalogIndexer indexer;
+    private final CatalogVersion versions;
+    private final ItemCache itemCache;
+    private final ItemFragments fragments;
+    private final StockReservationService reservations;
+
+    // A write to an item holds the item's lock from reading the row until the cache and
+    // the indexes have the result, so they get the writes to one item in the order the
+    // rows were written. Ids share a lock a stripe at a time.
+    private final ReentrantLock[] writeLocks = new ReentrantLock[WRITE_LOCK_STRIPES];
+
+    // Filter stages for the database (sql) and in-memory (snapshot) paths. The rest of a
+    // request - JSON and the network - is the difference from http.server.requests.
+    private final Timer sqlTagsTimer;
+    private final Timer sqlQueryTimer;
+    private final Timer snapshotTagsTimer;
+    private final Timer snapshotQueryTimer;
+    private final DistributionSummary sqlResults;
+    private final DistributionSummary snapshotResults;
+    private final Timer suggestTimer;
+
+    // Boundaries of the price facet's buckets
+    @Value("${catalog.facets.price-buckets:10,25,50,100,250}")
+    private double[] priceBuckets = {10, 25, 50, 100, 250};
+
+    // Identical browse requests in flight at the same time, keyed by filterKey
+    @Value("${catalog.filter.coalescing:true}")
+    private boolean coalescing = true;
+    private final SingleFlight<List<Object>, List<ItemDto>> browses;
+    private final SingleFlight<List<Object>, ItemResultsDto> facetedBrowses;
+
+    // Rows per round trip when streaming the whole catalog out
+    @Value("${catalog.export.fetch-size:1000}")
+    private int exportFetchSize = 1000;
+
+    public ItemService(ItemRepo repo, TagIndex tagIndex, CatalogSnapshot snapshot, CategoryDictionary categories,
+            SuggestIndex suggestions, CatalogIndexer indexer, CatalogVersion versions, ItemCache itemCache,
+            ItemFragments fragments, StockReservationService reservations, MeterRegistry meterRegistry) {
         this.repo = repo;
+        this.tagIndex = tagIndex;
+        this.snapshot = snapshot;
+        this.categories = categories;
+        this.suggestions = suggestions;
+        this.indexer = indexer;
+        this.versions = versions;
+        this.itemCache = itemCache;
+        this.fragments = fragments;
+        this.reservations = reservations;
+        for (int i = 0; i < this.writeLocks.length; i++) {
+            this.writeLocks[i] = new ReentrantLock();
+        }
+        this.sqlTagsTimer = stageTimer(meterRegistry, "sql", "tags");
+        this.sqlQueryTimer = stageTimer(meterRegistry, "sql", "query");
+        this.snapshotTagsTimer = stageTimer(meterRegistry, "snapshot", "tags");
+        this.snapshotQueryTimer = stageTimer(meterRegistry, "snapshot", "query");
+        this.sqlResults = resultSize(meterRegistry, "sql");
+        this.snapshotResults = resultSize(meterRegistry, "snapshot");
+        this.browses = new SingleFlight<>(coalesced(meterRegistry, "items"));
+        this.facetedBrowses = new SingleFlight<>(coalesced(meterRegistry, "facets"));
+        this.suggestTimer = Timer.builder("catalog.suggest")
+                .description("Time to find the typeahead suggestions for a prefix")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private static Timer stageTimer(MeterRegistry registry, String path, String stage) {
+        return Timer.builder("catalog.filter.stage")
+                .description("Time spent in each stage of a catalog filter")
+                .tag("path", path)
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static Counter coalesced(MeterRegistry registry, String response) {
+        return Counter.builder("catalog.filter.coalesced")
+                .description("Browse requests answered with the result of an identical request already running")
+                .tag("response", response)
+                .register(registry);
+    }
+
+    private static DistributionSummary resultSize(MeterRegistry registry, String path) {
+        return DistributionSummary.builder("catalog.filter.results")
+                .description("Items returned by a catalog filter")
+                .tag("path", path)
+                .publishPercentileHistogram()
+                .register(registry);
     }
 
     // CREATE
     public ResponseEntity<ItemDto> addItem(Item newItem) {
         Item created = this.repo.save(newItem);
+        // Nothing to invalidate - lookups of missing ids are never cached
+        this.indexer.saved(created);
+        this.versions.changed(created.getId());
 
         return new ResponseEntity<>(new ItemDto(created), HttpStatus.CREATED);
     }
 
     // READ
     public List<Item> getAllFiltered(List<String> sort, Double minPrice, Double maxPrice, String category, Boolean inStock, String searchTerm) {
-        List<Item> items = this.repo.findAll();
-    
-        // Apply filtering logic
-        if (minPrice != null) {
-            items = items.stream()
-                    .filter(item -> item.getPrice() >= minPrice)
-                    .collect(Collectors.toList());
-        }
-    
-        if (maxPrice != null) {
-            items = items.stream()
-                    .filter(item -> item.getPrice() <= maxPrice)
-                    .collect(Collectors.toList());
-        }
-    
-        if (category != null && !category.isEmpty()) {
-            items = items.stream()
-                    .filter(item -> item.getCategory().equalsIgnoreCase(category))
-                    .collect(Collectors.toList());
-        }
-    
-        if (inStock != null && inStock) {
-            items = items.stream()
-                    .filter(item -> item.getQuantity() > 0)
-                    .collect(Collectors.toList());
+        ItemFilterDto filter = new ItemFilterDto();
+        filter.setSort(sort);
+        filter.setMinPrice(minPrice);
+        filter.setMaxPrice(maxPrice);
+        filter.setCategory(category);
+        filter.setInStock(inStock);
+        filter.setSearchTerm(searchTerm);
+        return getAllFiltered(filter);
+    }
+
+    // Filtering, sorting and paging are all pushed down into a single query
+    public List<Item> getAllFiltered(ItemFilterDto filter) {
+        Sort sort = ItemSpecifications.toSort(filter.getSort());
+        long started = System.nanoTime();
+        Specification<Item> spec = toSpecification(filter);
+        long resolved = System.nanoTime();
+
+        List<Item> items;
+        if (filter.getSize() == null) {
+            items = this.repo.findAll(spec, sort);
+        } else {
+            items = this.repo.findSlice(spec, sort, offsetOf(filter), filter.getSize());
         }
 
-        if (searchTerm != null && !searchTerm.isEmpty()) {
-            items = items.stream()
-                    .filter(item -> item.getTags() != null && item.getTags().stream()
-                            .anyMatch(tag -> tag.equalsIgnoreCase(searchTerm)))  // Search in tags
-                    .collect(Collectors.toList());
-        }
-    
-        // Sorting logic
-        if (sort != null && !sort.isEmpty()) {
-            Comparator<Item> comparator = null;
-            for (String param : sort) {
-                String[] sortCriteria = param.split(",");
-                if (sortCriteria.length != 2) {
-                    throw new IllegalArgumentException("Invalid sort parameter format: " + param);
+        this.sqlTagsTimer.record(resolved - started, TimeUnit.NANOSECONDS);
+        this.sqlQueryTimer.record(System.nanoTime() - resolved, TimeUnit.NANOSECONDS);
+        this.sqlResults.record(items.size());
+        return items;
+    }
+
+    // READ - shop browse path. Served from the in-memory catalog snapshot once it has
+    // loaded, otherwise from the database query above. Identical requests that arrive
+    // while one is running share its result.
+    public List<ItemDto> browse(ItemFilterDto filter) {
+        if (!this.coalescing) {
+            return computeBrowse(filter);
+        }
+        return this.browses.run(filterKey(filter), () -> computeBrowse(filter));
+    }
+
+    private List<ItemDto> computeBrowse(ItemFilterDto filter) {
+        if (!this.snapshot.isEnabled() || !this.indexer.isLoaded()) {
+            List<ItemDto> dtos = new ArrayList<>();
+            for (Item item : getAllFiltered(filter)) {
+                dtos.add(new ItemDto(item));
+            }
+            return dtos;
+        }
+
+        Sort sort = ItemSpecifications.toSort(filter.getSort());
+        long started = System.nanoTime();
+        String searchTerm = filter.getSearchTerm();
+        int[] taggedIds = searchTerm != null && !searchTerm.isEmpty() ? this.tagIndex.lookup(searchTerm) : null;
+        long resolved = System.nanoTime();
+
+        List<ItemDto> items;
+        if (filter.getSize() == null) {
+            items = this.snapshot.query(filter, sort, taggedIds, 0, Integer.MAX_VALUE);
+        } else {
+            items = this.snapshot.query(filter, sort, taggedIds, offsetOf(filter), filter.getSize());
+        }
+
+        this.snapshotTagsTimer.record(resolved - started, TimeUnit.NANOSECONDS);
+        this.snapshotQueryTimer.record(System.nanoTime() - resolved, TimeUnit.NANOSECONDS);
+        this.snapshotResults.record(items.size());
+        return items;
+    }
+
+    // READ - browse with facet counts over every match. Until the snapshot has loaded the
+    // counts are taken while the full result of the database query is turned into DTOs,
+    // and the page is cut from that.
+    public ItemResultsDto browseWithFacets(ItemFilterDto filter) {
+        if (!this.coalescing) {
+            return computeBrowseWithFacets(filter);
+        }
+        return this.facetedBrowses.run(filterKey(filter), () -> computeBrowseWithFacets(filter));
+    }
+
+    private ItemResultsDto computeBrowseWithFacets(ItemFilterDto filter) {
+        Sort sort = ItemSpecifications.toSort(filter.getSort());
+        long offset = filter.getSize() != null ? offsetOf(filter) : 0;
+        int limit = filter.getSize() != null ? filter.getSize() : Integer.MAX_VALUE;
+
+        if (!this.snapshot.isEnabled() || !this.indexer.isLoaded()) {
+            FacetCounter counts = new FacetCounter(this.priceBuckets);
+            Map<String, Integer> codes = new HashMap<>();
+            List<String> names = new ArrayList<>();
+            List<ItemDto> page = new ArrayList<>();
+            List<Item> matches = this.repo.findAll(toSpecification(filter), sort);
+            for (int i = 0; i < matches.size(); i++) {
+                Item item = matches.get(i);
+                int category = -1;
+                if (item.getCategory() != null) {
+                    category = codes.computeIfAbsent(CaseFolding.fold(item.getCategory()), c -> {
+                        names.add(item.getCategory());
+                        return codes.size();
+                    });
                 }
-    
-                String field = sortCriteria[0];
-                String direction = sortCriteria[1];
-    
-                // Skip sorting if "none" is passed
-                if ("none".equalsIgnoreCase(direction)) {
-                    continue; // Skip this sorting field
+                counts.add(category,
+                        item.getPrice() != null ? item.getPrice() : Double.NaN,
+                        item.getQuantity() != null ? item.getQuantity() : 0);
+                if (i >= offset && i - offset < limit) {
+                    page.add(new ItemDto(item));
                 }
-    
-                // Get the comparator for the specific field and direction
-                Comparator<Item> fieldComparator = getFieldComparator(field, direction);
-    
-                if (comparator == null) {
-                    comparator = fieldComparator;
-                } else {
-                    comparator = comparator.thenComparing(fieldComparator);
+            }
+            return new ItemResultsDto(page, counts.toDto(names));
+        }
+
+        String searchTerm = filter.getSearchTerm();
+        int[] taggedIds = searchTerm != null && !searchTerm.isEmpty() ? this.tagIndex.lookup(searchTerm) : null;
+        return this.snapshot.queryWithFacets(filter, sort, taggedIds, offset, limit, this.priceBuckets);
+    }
+
+    // Everything a browse result depends on. Filters that always match the same items -
+    // categories or search terms differing only in case, inStock false or absent, "none"
+    // sorts - get the same key. The catalog version is taken when the request arrives, so
+    // it never joins a run that started before a write it should see.
+    private List<Object> filterKey(ItemFilterDto filter) {
+        String category = filter.getCategory() != null ? CaseFolding.fold(filter.getCategory()) : "";
+        String searchTerm = filter.getSearchTerm() != null ? CaseFolding.fold(filter.getSearchTerm()) : "";
+        return Arrays.asList(
+                this.versions.current(),
+                ItemSpecifications.toSort(filter.getSort()).toString(),
+                filter.getMinPrice(),
+                filter.getMaxPrice(),
+                category,
+                filter.getInStock() != null && filter.getInStock(),
+                searchTerm,
+                filter.getSize() != null ? offsetOf(filter) : 0L,
+                filter.getSize());
+    }
+
+    // OFFSET of the requested page, checking page and size on the way
+    private static long offsetOf(ItemFilterDto filter) {
+        int size = filter.getSize();
+        int page = filter.getPage() != null ? filter.getPage() : 0;
+        if (size <= 0 || page < 0) {
+            throw new IllegalArgumentException("Invalid page request: page " + page + ", size " + size);
+        }
+        return (long) page * size;
+    }
+
+    // READ - keyset pages, each one continuing after the cursor of the previous page
+    public ItemPageQuery preparePage(ItemFilterDto filter) {
+        Sort sort = ItemSpecifications.toSort(filter.getSort());
+
+        int size = filter.getSize() != null ? filter.getSize() : DEFAULT_PAGE_SIZE;
+        if (size <= 0 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        Specification<Item> spec = toSpecification(filter);
+        String cursor = filter.getCursor();
+        if (cursor != null && !cursor.isEmpty()) {
+            spec = spec.and(ItemSpecifications.after(sort, ItemCursor.decode(cursor, sort)));
+        }
+        return new ItemPageQuery(spec, sort, size);
+    }
+
+    // Reads one row past the page size to find out whether there is a next page, and
+    // hands each item to the sink as it comes off the result set. Returns the cursor
+    // for the next page, or null on the last page.
+    @Transactional(readOnly = true)
+    public String streamPage(ItemPageQuery page, Consumer<ItemDto> sink) {
+        Item last = null;
+        int written = 0;
+        try (Stream<Item> rows = this.repo.streamSlice(page.getSpec(), page.getSort(), page.getSize() + 1)) {
+            Iterator<Item> it = rows.iterator();
+            while (it.hasNext()) {
+                Item item = it.next();
+                if (written == page.getSize()) {
+                    return ItemCursor.encode(page.getSort(), last);
                 }
+                sink.accept(new ItemDto(item));
+                last = item;
+                written++;
             }
-    
-            // Apply the comparator if it was built
-            if (comparator != null) {
-                items.sort(comparator);
+        }
+        return null;
+    }
+
+    // Hands every item to the sink in id order as it comes off the database cursor. Only
+    // the item being written is held in memory. Returns the number of items written.
+    @Transactional(readOnly = true)
+    public long exportAll(Consumer<ItemDto> sink) {
+        long written = 0;
+        try (Stream<Item> rows = this.repo.streamAll(this.exportFetchSize)) {
+            Iterator<Item> it = rows.iterator();
+            while (it.hasNext()) {
+                sink.accept(new ItemDto(it.next()));
+                written++;
             }
         }
-    
-        return items;
+        return written;
     }
-    
 
-    private Comparator<Item> getFieldComparator(String field, String direction) {
-        Comparator<Item> comparator;
+    private Specification<Item> toSpecification(ItemFilterDto filter) {
+        Specification<Item> spec = ItemSpecifications.matching(filter);
+
+        String searchTerm = filter.getSearchTerm();
+        if (searchTerm != null && !searchTerm.isEmpty()) {
+            spec = spec.and(ItemSpecifications.idIn(findIdsTagged(searchTerm)));
+        }
+        return spec;
+    }
 
-        switch (field.toLowerCase()) {
-            case "name":
-                comparator = Comparator.comparing(Item::getName);
-                break;
-            case "price":
-                comparator = Comparator.comparing(Item::getPrice);
-                break;
-            case "quantity":
-                comparator = Comparator.comparing(Item::getQuantity);
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid sort field: " + field);
+    // Posting list fetch from the tag index. Until the index has loaded at startup this
+    // falls back to matching the id + tags projection.
+    @SuppressWarnings("unchecked")
+    private List<Integer> findIdsTagged(String searchTerm) {
+        List<Integer> ids = new ArrayList<>();
+        if (this.indexer.isLoaded()) {
+            for (int id : this.tagIndex.lookup(searchTerm)) {
+                ids.add(id);
+            }
+            return ids;
         }
 
-        // Reverse comparator if direction is descending
-        return "desc".equalsIgnoreCase(direction) ? comparator.reversed() : comparator;
+        for (Object[] row : this.repo.findAllIdsAndTags()) {
+            List<String> tags = (List<String>) row[1];
+            if (tags != null && tags.stream().anyMatch(tag -> tag.equalsIgnoreCase(searchTerm))) {
+                ids.add((Integer) row[0]);
+            }
+        }
+        return ids;
     }
 
+    // Product page - read through the item cache
     public ResponseEntity<?> getItem(Integer id) {
-        Optional<Item> found = this.repo.findById(id);
+        Optional<ItemDto> found = this.itemCache.get(id, this.repo::findById);
         if (found.isEmpty()) {
             return new ResponseEntity<>("No Item found with id " + id, HttpStatus.NOT_FOUND);
         }
-        return ResponseEntity.ok(new ItemDto(found.get()));
+        return ResponseEntity.ok(found.get());
     }
 
+    // Cart page and cart service repricing - cached items are served straight away and the
+    // rest are loaded with a single findAllById. Items come back in the order their ids
+    // were given, each with its version. Versions are read before the items, so an item
+    // can only be newer than its version says.
     public List<ItemDto> getItemsByIds(List<Integer> ids) {
-        List<Item> items = this.repo.findAllById(ids);
-        List<ItemDto> dtos = new ArrayList<>();
-        for (Item item : items) {
-            dtos.add(new ItemDto(item));
+        Map<Integer, String> itemVersions = new HashMap<>();
+        for (Integer id : ids) {
+            if (id != null) {
+                itemVersions.put(id, this.versions.itemVersion(id));
+            }
+        }
+        List<ItemDto> found = this.itemCache.getAll(ids, this.repo::findAllById);
+        // Copies, as the cached items are shared
+        List<ItemDto> versioned = new ArrayList<>(found.size());
+        for (ItemDto item : found) {
+            ItemDto copy = new ItemDto(item.getId(), item.getName(), item.getPrice(), item.getQuantity(),
+                    item.getImageUrl(), item.getColor(), item.getCategory(), item.getTags());
+            copy.setVersion(itemVersions.get(item.getId()));
+            versioned.add(copy);
         }
-        return dtos;
+        return versioned;
     }
 
-    // Method to return all distinct categories
+    // Method to return all distinct categories, from the category dictionary once it has
+    // loaded
     public List<String> getAllDistinctCategories() {
+        if (this.indexer.isLoaded()) {
+            return this.categories.names();
+        }
         return this.repo.findDistinctCategories();
     }
 
+    // Typeahead suggestions for what has been typed so far - names, categories, colors and
+    // tags with a word starting with it, those on the most items first. Nothing is
+    // suggested until the catalog indexes have loaded.
+    public List<SuggestionDto> suggest(String prefix, Integer limit) {
+        int count = limit != null ? limit : DEFAULT_SUGGESTIONS;
+        if (count <= 0 || count > SuggestIndex.MAX_SUGGESTIONS) {
+            throw new IllegalArgumentException("Suggestion limit must be between 1 and " + SuggestIndex.MAX_SUGGESTIONS);
+        }
+        if (prefix == null || !this.indexer.isLoaded()) {
+            return new ArrayList<>();
+        }
+        return this.suggestTimer.record(() -> this.suggestions.suggest(prefix, count));
+    }
+
+    // Every category with its item and in-stock counts, in name order
+    public List<CategoryCountDto> getCategoryCounts() {
+        if (this.indexer.isLoaded()) {
+            return this.categories.counts();
+        }
+
+        // Grouping may split categories that differ only in case, so they are put back
+        // together here
+        Map<String, CategoryCountDto> merged = new TreeMap<>();
+        for (Object[] row : this.repo.countByCategory()) {
+            String category = (String) row[0];
+            int items = ((Number) row[1]).intValue();
+            int inStock = row[2] != null ? ((Number) row[2]).intValue() : 0;
+            CategoryCountDto counts = merged.computeIfAbsent(CaseFolding.fold(category),
+                    c -> new CategoryCountDto(category, 0, 0));
+            counts.setItems(counts.getItems() + items);
+            counts.setInStock(counts.getInStock() + inStock);
+        }
+        return new ArrayList<>(merged.values());
+    }
+
 
     // UPDATE
     public ResponseEntity<?> ItemUpdate(Integer id,
@@ -159,8 +481,12 @@ public class ItemService {
             String imageUrl,
             String color,
             String category) {
+        return locked(Collections.singletonList(id),
+                () -> update(id, name, price, quantity, imageUrl, color, category));
+    }
 
-
+    private ResponseEntity<?> update(Integer id, String name, Double price, Integer quantity, String imageUrl,
+            String color, String category) {
         Optional<Item> found = this.repo.findById(Math.toIntExact(id));
         if (found.isEmpty()) {
             return new ResponseEntity<>("No Item found with ID " + id, HttpStatus.NOT_FOUND);
@@ -181,12 +507,36 @@ public class ItemService {
         if (category != null)
             toUpdate.setCategory(category);
 
-        Item updated = this.repo.save(toUpdate);
+        Item updated = store(toUpdate, quantity);
+        saved(updated);
         return ResponseEntity.ok(new ItemDto(updated));
     }
 
+    // UPDATE - checkout. Every line comes off stock or none of them do. The new stock
+    // levels are read back once the reservation has committed.
+    public StockReservationDto reserveStock(List<StockLineDto> lines) {
+        StockReservationDto result = this.reservations.reserve(lines);
+        if (result.isReserved()) {
+            List<Integer> ids = new ArrayList<>();
+            for (StockLineDto line : lines) {
+                ids.add(line.getItemId());
+            }
+            locked(ids, () -> {
+                for (Item item : this.repo.findAllById(ids)) {
+                    saved(item);
+                }
+                return null;
+            });
+        }
+        return result;
+    }
+
     // UPDATE - add tag(s) to item
     public Item addTags(Integer id, List<String> tagsToAdd) {
+        return locked(Collections.singletonList(id), () -> addTagsLocked(id, tagsToAdd));
+    }
+
+    private Item addTagsLocked(Integer id, List<String> tagsToAdd) {
         Optional<Item> found = this.repo.findById(id);
         if (found.isPresent()) {
             Item item = found.get();
@@ -197,7 +547,8 @@ public class ItemService {
                 }
             }
             item.setTags(currentTags);
-            this.repo.save(item);
+            store(item, null);
+            saved(item);
             return item;
         } else {
             throw new EntityNotFoundException("Item not found with ID: " + id);
@@ -206,13 +557,18 @@ public class ItemService {
 
     // UPDATE - remove tag(s) from item
     public Item removeTags(Integer id, List<String> tagsToRemove) {
+        return locked(Collections.singletonList(id), () -> removeTagsLocked(id, tagsToRemove));
+    }
+
+    private Item removeTagsLocked(Integer id, List<String> tagsToRemove) {
         Optional<Item> found = this.repo.findById(id);
         if (found.isPresent()) {
             Item item = found.get();
             ArrayList<String> currentTags = item.getTags();
             currentTags.removeAll(tagsToRemove);
             item.setTags(currentTags);
-            this.repo.save(item);
+            store(item, null);
+            saved(item);
             return item;
         } else {
             throw new EntityNotFoundException("Item not found with ID: " + id);
@@ -221,12 +577,70 @@ public class ItemService {
 
     // DELETE
     public ResponseEntity<?> removeItem(Integer id) {
+        return locked(Collections.singletonList(id), () -> remove(id));
+    }
+
+    private ResponseEntity<?> remove(Integer id) {
         Optional<Item> found = this.repo.findById(id);
         if (found.isEmpty()) {
             return new ResponseEntity<>("No Item found with id " + id, HttpStatus.NOT_FOUND);
         }
         this.repo.deleteById(id);
+        this.reservations.forgetHot(id);
+        removed(id);
         return ResponseEntity.ok("Item with id " + id + " has been deleted.");
 
     }
+
+    // Saves an item read earlier. Reservations of a hot item may have been written since,
+    // so the quantity it is saved with comes from the stock engine - with newQuantity, if
+    // given, applied on top of what is reserved.
+    private Item store(Item item, Integer newQuantity) {
+        if (!this.reservations.isHot(item.getId())) {
+            return this.repo.save(item);
+        }
+        return this.reservations.updateHot(item.getId(), newQuantity, stock -> {
+            if (stock != null) {
+                item.setQuantity(stock);
+            }
+            return this.repo.save(item);
+        });
+    }
+
+    // Runs the write holding the locks of the ids, taken in stripe order so two writes
+    // can't each wait for the other
+    private <T> T locked(List<Integer> ids, Supplier<T> write) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (Integer id : ids) {
+            stripes.add(id == null ? 0 : Math.floorMod(id.hashCode(), WRITE_LOCK_STRIPES));
+        }
+        List<ReentrantLock> held = new ArrayList<>(stripes.size());
+        try {
+            for (int stripe : stripes) {
+                this.writeLocks[stripe].lock();
+                held.add(this.writeLocks[stripe]);
+            }
+            return write.get();
+        } finally {
+            for (ReentrantLock lock : held) {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Every change to an existing item goes through these two so the cache and the
+    // indexes never miss one. The version is bumped last, once the change is visible.
+    private void saved(Item item) {
+        this.itemCache.invalidate(item.getId());
+        this.fragments.invalidate(item.getId());
+        this.indexer.saved(item);
+        this.versions.changed(item.getId());
+    }
+
+    private void removed(Integer id) {
+        this.itemCache.invalidate(id);
+        this.fragments.invalidate(id);
+        this.indexer.removed(id);
+        this.versions.changed(id);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package com.legacy.demo.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.legacy.demo.dtos.StockLineDto;
+import com.legacy.demo.dtos.StockReservationDto;
+
+@Service
+public class StockReservationService {
+
+    // The stock check and the decrement are one statement, so two checkouts can never
+    // both see the same units as free
+    private static final String RESERVE_SQL = "UPDATE item SET quantity = quantity - ? WHERE id = ? AND quantity >= ?";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transaction;
+    private final HotStockEngine hotStock;
+
+    public StockReservationService(JdbcTemplate jdbc, PlatformTransactionManager transactionManager,
+            HotStockEngine hotStock) {
+        this.jdbc = jdbc;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.hotStock = hotStock;
+    }
+
+    // Takes every line off stock in one transaction, or none of them. Lines for the same
+    // item are merged and the updates are sent as one JDBC batch in id order, so two
+    // checkouts sharing items lock their rows in the same order and can't deadlock.
+    //
+    // Hot items are taken from HotStockEngine instead, before the rest. Their write is
+    // waited for once the rest has committed - not inside its transaction, where every
+    // pooled connection could end up held by a checkout waiting on the writer. A hot item
+    // whose row turns out to have less than its counters is short like any other.
+    //
+    // Relies on the driver reporting a count per statement, which MySQL does unless
+    // rewriteBatchedStatements is turned on.
+    public StockReservationDto reserve(List<StockLineDto> lines) {
+        SortedMap<Integer, Integer> hot = new TreeMap<>();
+        SortedMap<Integer, Integer> cold = new TreeMap<>();
+        for (StockLineDto line : lines) {
+            if (line.getItemId() == null || line.getQuantity() == null || line.getQuantity() <= 0) {
+                throw new IllegalArgumentException("Each line needs an itemId and a quantity above 0");
+            }
+            (this.hotStock.isHot(line.getItemId()) ? hot : cold)
+                    .merge(line.getItemId(), line.getQuantity(), Math::addExact);
+        }
+        if (hot.isEmpty() && cold.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to reserve");
+        }
+
+        HotStockEngine.Claim claim = this.hotStock.claim(hot);
+        Map<Integer, Integer> available = new HashMap<>(claim.getShortfall());
+        Set<Integer> shortItems = new HashSet<>(available.keySet());
+        if (cold.isEmpty()) {
+            if (shortItems.isEmpty()) {
+                shortItems.addAll(claim.commit());
+            }
+        } else {
+            this.transaction.executeWithoutResult(status -> {
+                Set<Integer> shortCold = takeCold(cold);
+                shortItems.addAll(shortCold);
+                if (!shortItems.isEmpty()) {
+                    status.setRollbackOnly();
+                }
+                if (!shortCold.isEmpty()) {
+                    available.putAll(stockOf(shortCold));
+                }
+            });
+            if (!shortItems.isEmpty()) {
+                claim.release();
+            } else {
+                shortItems.addAll(commitAfterCold(claim, cold));
+            }
+        }
+        // Hot items whose rows were short are only known once their write was tried
+        Set<Integer> unknown = new HashSet<>(shortItems);
+        unknown.removeAll(available.keySet());
+        if (!unknown.isEmpty()) {
+            available.putAll(stockOf(unknown));
+        }
+
+        List<StockLineDto> report = new ArrayList<>(lines.size());
+        for (StockLineDto line : lines) {
+            StockLineDto result = new StockLineDto(line.getItemId(), line.getQuantity());
+            result.setOk(!shortItems.contains(line.getItemId()));
+            if (!result.getOk()) {
+                result.setAvailable(available.getOrDefault(line.getItemId(), 0));
+            }
+            report.add(result);
+        }
+        return new StockReservationDto(shortItems.isEmpty(), report);
+    }
+
+    // Items in HotStockEngine, whose quantity is only to be written through updateHot
+    public boolean isHot(Integer itemId) {
+        return this.hotStock.isHot(itemId);
+    }
+
+    public <T> T updateHot(Integer itemId, Integer newQuantity, Function<Integer, T> write) {
+        return this.hotStock.update(itemId, newQuantity, write);
+    }
+
+    public void forgetHot(Integer itemId) {
+        this.hotStock.forget(itemId);
+    }
+
+    // If the hot stock turns out short or can't be written after all, the cold lines are
+    // put back. Returns the hot items that were short.
+    private Set<Integer> commitAfterCold(HotStockEngine.Claim claim, SortedMap<Integer, Integer> cold) {
+        Set<Integer> shortHot;
+        try {
+            shortHot = claim.commit();
+        } catch (RuntimeException e) {
+            putBack(cold);
+            throw e;
+        }
+        if (!shortHot.isEmpty()) {
+            putBack(cold);
+        }
+        return shortHot;
+    }
+
+    private void putBack(SortedMap<Integer, Integer> cold) {
+        List<Object[]> batch = new ArrayList<>(cold.size());
+        for (Map.Entry<Integer, Integer> line : cold.entrySet()) {
+            batch.add(new Object[] { line.getValue(), line.getKey() });
+        }
+        this.transaction.executeWithoutResult(
+                status -> this.jdbc.batchUpdate("UPDATE item SET quantity = quantity + ? WHERE id = ?", batch));
+    }
+
+    // The items there wasn't enough of
+    private Set<Integer> takeCold(SortedMap<Integer, Integer> wanted) {
+        List<Object[]> batch = new ArrayList<>(wanted.size());
+        for (Map.Entry<Integer, Integer> line : wanted.entrySet()) {
+            batch.add(new Object[] { line.getValue(), line.getKey(), line.getValue() });
+        }
+        int[] updated = this.jdbc.batchUpdate(RESERVE_SQL, batch);
+
+        Set<Integer> shortItems = new HashSet<>();
+        int i = 0;
+        for (Integer itemId : wanted.keySet()) {
+            if (updated[i++] == 0) {
+                shortItems.add(itemId);
+            }
+        }
+        return shortItems;
+    }
+
+    // Current stock of the given items. Items that don't exist are left out.
+    private Map<Integer, Integer> stockOf(Set<Integer> itemIds) {
+        String in = String.join(", ", Collections.nCopies(itemIds.size(), "?"));
+        Map<Integer, Integer> stock = new HashMap<>();
+        this.jdbc.query("SELECT id, quantity FROM item WHERE id IN (" + in + ")",
+                row -> {
+                    stock.put(row.getInt("id"), row.getInt("quantity"));
+                },
+                itemIds.toArray());
+        return stock;
+    }
+}
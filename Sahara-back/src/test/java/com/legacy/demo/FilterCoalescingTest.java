@@ -0,0 +1,203 @@
+package com.legacy.demo.services;
+
+import com.legacy.demo.catalog.CatalogIndexer;
+import com.legacy.demo.catalog.CatalogSnapshot;
+import com.legacy.demo.catalog.CatalogVersion;
+import com.legacy.demo.catalog.CategoryDictionary;
+import com.legacy.demo.catalog.ItemCache;
+import com.legacy.demo.catalog.ItemFragments;
+import com.legacy.demo.catalog.SuggestIndex;
+import com.legacy.demo.catalog.TagIndex;
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.entities.Item;
+import com.legacy.demo.repos.ItemRepo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+// Bursts of identical browse requests on the database path. The first query is held
+// until every other request in the burst has joined it, so the count of queries is
+// exact rather than depending on timing. Not transactional, so the request threads can
+// see the items.
+@DataJpaTest(showSql = false)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class FilterCoalescingTest {
+
+    @Autowired
+    private ItemRepo itemRepo;
+
+    private ItemRepo countedRepo;
+    private MeterRegistry meterRegistry;
+    private ItemService itemService;
+
+    @BeforeEach
+    public void setUp() {
+        itemRepo.deleteAll();
+        for (int i = 0; i < 40; i++) {
+            itemRepo.save(new Item(null, "Item " + i, 2.5 * i, i % 3, "img.png", "black", i % 2 == 0 ? "Hats" : "Shoes",
+                    new ArrayList<>()));
+        }
+
+        countedRepo = mock(ItemRepo.class, delegatesTo(itemRepo));
+        meterRegistry = new SimpleMeterRegistry();
+        TagIndex tagIndex = new TagIndex();
+        CatalogSnapshot snapshot = new CatalogSnapshot(true, 50000);
+        // Never loaded, so every browse is a database query
+        CatalogIndexer indexer = new CatalogIndexer(countedRepo, Arrays.asList(tagIndex, snapshot));
+        itemService = new ItemService(countedRepo, tagIndex, snapshot, new CategoryDictionary(), new SuggestIndex(), indexer,
+                new CatalogVersion(), new ItemCache(100, Duration.ofMinutes(10)),
+                mock(ItemFragments.class), mock(StockReservationService.class), meterRegistry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        itemRepo.deleteAll();
+    }
+
+    @Test
+    public void testQueryCountStaysFlatAsBurstsGrow() throws Exception {
+        for (int burst : new int[] {1, 10, 50, 200}) {
+            double coalescedBefore = coalesced();
+            holdFirstQueryUntil(coalescedBefore + burst - 1);
+            clearInvocations(countedRepo);
+
+            List<List<ItemDto>> results = browseConcurrently(burst, this::hatsByPrice);
+
+            int queries = mockingDetails(countedRepo).getInvocations().size();
+            assertEquals(1, queries, burst + " identical requests");
+            assertEquals(burst - 1, coalesced() - coalescedBefore);
+            for (List<ItemDto> result : results) {
+                assertEquals(20, result.size());
+                assertSame(results.get(0), result);
+            }
+        }
+    }
+
+    @Test
+    public void testEquivalentFiltersShareAndDifferentOnesDoNot() throws Exception {
+        holdFirstQueryUntil(coalesced() + 2);
+        clearInvocations(countedRepo);
+        List<List<ItemDto>> results = browseConcurrently(3, i -> {
+            ItemFilterDto filter = hatsByPrice(i);
+            // Same items whatever the case of the category, with or without a "none" sort
+            if (i == 1) {
+                filter.setCategory("HATS");
+            } else if (i == 2) {
+                filter.setSort(Arrays.asList("name,none", "price,asc"));
+                filter.setInStock(false);
+            }
+            return filter;
+        });
+        verify(countedRepo, times(1)).findAll(anySpecification(), any(Sort.class));
+        assertSame(results.get(0), results.get(2));
+
+        clearInvocations(countedRepo);
+        ItemFilterDto shoes = hatsByPrice(0);
+        shoes.setCategory("Shoes");
+        itemService.browse(hatsByPrice(0));
+        itemService.browse(shoes);
+        verify(countedRepo, times(2)).findAll(anySpecification(), any(Sort.class));
+    }
+
+    @Test
+    public void testRequestsAfterAWriteDoNotJoinAnEarlierQuery() throws Exception {
+        CountDownLatch queryStarted = new CountDownLatch(1);
+        CountDownLatch writeDone = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            List<Item> items = itemRepo.findAll(invocation.<Specification<Item>>getArgument(0),
+                    invocation.<Sort>getArgument(1));
+            queryStarted.countDown();
+            writeDone.await(10, TimeUnit.SECONDS);
+            return items;
+        }).doAnswer(delegatesTo(itemRepo)).when(countedRepo).findAll(anySpecification(), any(Sort.class));
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<List<ItemDto>> before = pool.submit(() -> itemService.browse(hatsByPrice(0)));
+        assertTrue(queryStarted.await(10, TimeUnit.SECONDS));
+
+        Item hat = itemRepo.findAll().stream().filter(item -> "Hats".equals(item.getCategory())).findFirst().get();
+        itemService.ItemUpdate(hat.getId(), null, null, null, null, null, "Shoes");
+        List<ItemDto> after = itemService.browse(hatsByPrice(0));
+        writeDone.countDown();
+
+        assertEquals(20, before.get().size());
+        assertEquals(19, after.size());
+        pool.shutdown();
+    }
+
+    // The first findAll waits until the coalesced counter reaches the given value, i.e.
+    // until the rest of the burst is waiting on it
+    private void holdFirstQueryUntil(double coalescedTarget) {
+        doAnswer(invocation -> {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (coalesced() < coalescedTarget && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            return itemRepo.findAll(invocation.<Specification<Item>>getArgument(0), invocation.<Sort>getArgument(1));
+        }).when(countedRepo).findAll(anySpecification(), any(Sort.class));
+    }
+
+    private List<List<ItemDto>> browseConcurrently(int requests, FilterFactory filters) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<ItemDto>>> futures = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            ItemFilterDto filter = filters.filter(i);
+            futures.add(pool.submit(() -> {
+                start.await();
+                return itemService.browse(filter);
+            }));
+        }
+        start.countDown();
+        List<List<ItemDto>> results = new ArrayList<>();
+        for (Future<List<ItemDto>> future : futures) {
+            results.add(future.get(20, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+        return results;
+    }
+
+    private ItemFilterDto hatsByPrice(int request) {
+        ItemFilterDto filter = new ItemFilterDto();
+        filter.setSort(Arrays.asList("price,asc"));
+        filter.setCategory("hats");
+        return filter;
+    }
+
+    // Typed, where any(Specification.class) would be an unchecked raw Specification
+    private static Specification<Item> anySpecification() {
+        return any();
+    }
+
+    private double coalesced() {
+        return meterRegistry.get("catalog.filter.coalesced").tag("response", "items").counter().count();
+    }
+
+    private interface FilterFactory {
+        ItemFilterDto filter(int request);
+    }
+}
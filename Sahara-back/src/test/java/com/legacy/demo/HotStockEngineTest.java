@@ -0,0 +1,191 @@
+package com.legacy.demo.services;
+
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.dtos.StockLineDto;
+import com.legacy.demo.dtos.StockReservationDto;
+import com.legacy.demo.entities.Item;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Reservations of hot items against a real (H2) database, through ItemService as a
+// checkout would make them
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:hotstock;LOCK_TIMEOUT=30000;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.show-sql=false",
+        "catalog.stock.hot-items=91001,91002,91003,91004",
+        "catalog.stock.stripes=8"
+})
+public class HotStockEngineTest {
+
+    private static final int STOCK = 500;
+    private static final int CHECKOUTS = 1000;
+    private static final int THREADS = 100;
+
+    @Autowired
+    private ItemService itemService;
+
+    @Autowired
+    private HotStockEngine hotStock;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    public void testParallelCheckoutsOfAHotItemNeverOversell() throws Exception {
+        insertHot(91001, STOCK);
+        Integer cold = itemService.addItem(new Item(null, "Cold", 5.0, 100, "img.png", "black", "Hats",
+                new ArrayList<>())).getBody().getId();
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger soldHot = new AtomicInteger();
+        AtomicInteger soldCold = new AtomicInteger();
+        List<Future<Boolean>> checkouts = new ArrayList<>();
+        for (int c = 0; c < CHECKOUTS; c++) {
+            Random random = new Random(c);
+            int hotUnits = 1 + random.nextInt(3);
+            int coldUnits = random.nextInt(4) == 0 ? 1 : 0;
+            List<StockLineDto> lines = new ArrayList<>();
+            lines.add(new StockLineDto(91001, hotUnits));
+            if (coldUnits > 0) {
+                lines.add(new StockLineDto(cold, coldUnits));
+            }
+            checkouts.add(pool.submit(() -> {
+                start.await();
+                StockReservationDto result = itemService.reserveStock(lines);
+                if (result.isReserved()) {
+                    soldHot.addAndGet(hotUnits);
+                    soldCold.addAndGet(coldUnits);
+                }
+                return result.isReserved();
+            }));
+        }
+        start.countDown();
+        int reserved = 0;
+        for (Future<Boolean> checkout : checkouts) {
+            if (checkout.get()) {
+                reserved++;
+            }
+        }
+        pool.shutdown();
+
+        assertTrue(reserved > 0);
+        assertTrue(reserved < CHECKOUTS);
+        int left = quantityOf(91001);
+        assertEquals(STOCK - soldHot.get(), left);
+        // Demand is four times the supply, so only the odd unit can be left over
+        assertTrue(left >= 0 && left < 3);
+        assertEquals(left, hotStock.available(91001));
+        assertEquals(100 - soldCold.get(), quantityOf(cold));
+        assertEquals(left, ((ItemDto) itemService.getItem(91001).getBody()).getQuantity());
+    }
+
+    @Test
+    public void testStockIsReloadedFromTheDatabaseAfterARestart() {
+        insertHot(91002, 20);
+        assertTrue(itemService.reserveStock(List.of(new StockLineDto(91002, 12))).isReserved());
+
+        // A second engine over the same database is the first one after a restart
+        HotStockEngine restarted = new HotStockEngine(jdbc, transactionManager, new SimpleMeterRegistry(),
+                Set.of(91002), 4);
+        restarted.start();
+        try {
+            HotStockEngine.Claim tooMuch = restarted.claim(new TreeMap<>(Map.of(91002, 9)));
+            assertEquals(8, tooMuch.getShortfall().get(91002));
+
+            HotStockEngine.Claim rest = restarted.claim(new TreeMap<>(Map.of(91002, 8)));
+            assertTrue(rest.getShortfall().isEmpty());
+            rest.commit();
+            assertEquals(0, quantityOf(91002));
+            assertEquals(0, restarted.available(91002));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void testRestockingAHotItemKeepsWhatIsReserved() throws Exception {
+        insertHot(91003, 30);
+        assertTrue(itemService.reserveStock(List.of(new StockLineDto(91003, 10))).isReserved());
+
+        itemService.ItemUpdate(91003, null, null, 50, null, null, null);
+        assertEquals(50, quantityOf(91003));
+        assertEquals(50, hotStock.available(91003));
+
+        // Saving the item for other reasons doesn't write back the quantity it was read with
+        itemService.ItemUpdate(91003, "Hot item on sale", null, null, null, null, null);
+        assertEquals(50, quantityOf(91003));
+
+        // Restocked while checkouts keep coming
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        List<Future<Boolean>> checkouts = new ArrayList<>();
+        for (int c = 0; c < 200; c++) {
+            checkouts.add(pool.submit(() -> itemService.reserveStock(List.of(new StockLineDto(91003, 1))).isReserved()));
+            if (c == 100) {
+                itemService.ItemUpdate(91003, null, null, 500, null, null, null);
+            }
+        }
+        for (Future<Boolean> checkout : checkouts) {
+            checkout.get();
+        }
+        pool.shutdown();
+
+        assertEquals(hotStock.available(91003), quantityOf(91003));
+        assertTrue(quantityOf(91003) >= 300);
+    }
+
+    @Test
+    public void testRowChangedUnderneathIsShortNotAnError() {
+        insertHot(91004, 10);
+        Integer cold = itemService.addItem(new Item(null, "Cold", 5.0, 10, "img.png", "black", "Hats",
+                new ArrayList<>())).getBody().getId();
+        assertTrue(itemService.reserveStock(List.of(new StockLineDto(91004, 2))).isReserved());
+
+        // Written past the engine, so its counters still think there are 8
+        jdbc.update("UPDATE item SET quantity = 1 WHERE id = ?", 91004);
+        StockReservationDto result = itemService.reserveStock(List.of(new StockLineDto(91004, 5),
+                new StockLineDto(cold, 3)));
+
+        assertFalse(result.isReserved());
+        assertFalse(result.getLines().get(0).getOk());
+        assertEquals(1, result.getLines().get(0).getAvailable());
+        assertEquals(1, quantityOf(91004));
+        assertEquals(10, quantityOf(cold));
+        // Loaded from the row again on next use
+        assertEquals(-1, hotStock.available(91004));
+        assertTrue(itemService.reserveStock(List.of(new StockLineDto(91004, 1))).isReserved());
+        assertEquals(0, quantityOf(91004));
+    }
+
+    private void insertHot(int id, int quantity) {
+        jdbc.update("INSERT INTO item (id, name, price, quantity, category) VALUES (?, ?, ?, ?, ?)",
+                id, "Hot " + id, 9.99, quantity, "Hats");
+    }
+
+    private int quantityOf(int id) {
+        return jdbc.queryForObject("SELECT quantity FROM item WHERE id = ?", Integer.class, id);
+    }
+}
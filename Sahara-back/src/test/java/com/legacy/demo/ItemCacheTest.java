@@ -0,0 +1,60 @@
+package com.legacy.demo.services;
+
+import com.legacy.demo.catalog.ItemCache;
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.entities.Item;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// A multi-get racing a write must not leave the item from before the write cached
+public class ItemCacheTest {
+
+    private final ItemCache cache = new ItemCache(100, Duration.ofMinutes(10));
+
+    @Test
+    public void testGetAllKeepsOrderAndCachesLoadedItems() {
+        AtomicInteger loads = new AtomicInteger();
+        List<ItemDto> first = cache.getAll(Arrays.asList(3, 1, 3, 2), ids -> {
+            loads.incrementAndGet();
+            return ids.stream().filter(id -> id != 2).map(id -> item(id, 5.0)).collect(Collectors.toList());
+        });
+        assertEquals(Arrays.asList(3, 1), ids(first));
+
+        List<ItemDto> second = cache.getAll(Arrays.asList(1, 3), ids -> {
+            loads.incrementAndGet();
+            return new ArrayList<>();
+        });
+        assertEquals(Arrays.asList(1, 3), ids(second));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testLoadOverlappingInvalidateIsNotCached() {
+        // The write commits and invalidates while the old row is on its way back
+        List<ItemDto> stale = cache.getAll(Arrays.asList(1, 2), ids -> {
+            cache.invalidate(1);
+            return ids.stream().map(id -> item(id, 5.0)).collect(Collectors.toList());
+        });
+        assertEquals(5.0, stale.get(0).getPrice());
+
+        List<ItemDto> fresh = cache.getAll(Arrays.asList(1), ids -> Arrays.asList(item(1, 9.0)));
+        assertEquals(9.0, fresh.get(0).getPrice());
+        assertEquals(9.0, cache.get(1, id -> { throw new AssertionError("should be cached"); }).get().getPrice());
+    }
+
+    private static Item item(int id, double price) {
+        return new Item(id, "Item " + id, price, 1, "img.png", "black", "Hats", new ArrayList<>());
+    }
+
+    private static List<Integer> ids(List<ItemDto> items) {
+        return items.stream().map(ItemDto::getId).collect(Collectors.toList());
+    }
+}
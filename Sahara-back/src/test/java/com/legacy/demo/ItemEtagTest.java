@@ -0,0 +1,122 @@
+package com.legacy.demo.services;
+
+import com.legacy.demo.entities.Item;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Conditional GETs on the read endpoints - a matching If-None-Match is answered with a
+// 304 before the service is called, and any item write makes the old tags stale
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:etag;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureMockMvc
+public class ItemEtagTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @SpyBean
+    private ItemService itemService;
+
+    private Integer hatId;
+    private Integer shoeId;
+
+    @BeforeEach
+    public void setUp() {
+        hatId = itemService.addItem(new Item(null, "Cap", 5.0, 2, "cap.png", "red", "Hats", new ArrayList<>()))
+                .getBody().getId();
+        shoeId = itemService.addItem(new Item(null, "Boot", 50.0, 1, "boot.png", "brown", "Shoes", new ArrayList<>()))
+                .getBody().getId();
+        clearInvocations(itemService);
+    }
+
+    @Test
+    public void testItemNotModifiedUntilItChanges() throws Exception {
+        String etag = etagOf(mockMvc.perform(get("/items/get/" + hatId)).andExpect(status().isOk()).andReturn());
+
+        mockMvc.perform(get("/items/get/" + hatId).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        verify(itemService, times(1)).getItem(hatId);
+
+        // Another item changing leaves this one's tag alone
+        itemService.ItemUpdate(shoeId, null, 45.0, null, null, null, null);
+        mockMvc.perform(get("/items/get/" + hatId).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        itemService.ItemUpdate(hatId, null, 6.0, null, null, null, null);
+        MvcResult changed = mockMvc.perform(get("/items/get/" + hatId).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertNotEquals(etag, etagOf(changed));
+        assertTrue(changed.getResponse().getContentAsString().contains("6.0"));
+    }
+
+    @Test
+    public void testCategoriesAndFilterFollowCatalogVersion() throws Exception {
+        String categoriesTag = etagOf(mockMvc.perform(get("/items/get/categories")).andExpect(status().isOk()).andReturn());
+        String filterTag = etagOf(mockMvc.perform(get("/items/filter")
+                        .param("sort", "price,desc")
+                        .param("maxPrice", "100"))
+                .andExpect(status().isOk())
+                .andReturn());
+
+        mockMvc.perform(get("/items/get/categories").header(HttpHeaders.IF_NONE_MATCH, categoriesTag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/items/filter")
+                        .param("sort", "price,desc")
+                        .param("maxPrice", "100")
+                        .header(HttpHeaders.IF_NONE_MATCH, filterTag))
+                .andExpect(status().isNotModified());
+        verify(itemService, times(1)).getAllDistinctCategories();
+        verify(itemService, times(1)).browse(any());
+
+        itemService.removeItem(shoeId);
+        mockMvc.perform(get("/items/get/categories").header(HttpHeaders.IF_NONE_MATCH, categoriesTag))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/items/filter")
+                        .param("sort", "price,desc")
+                        .param("maxPrice", "100")
+                        .header(HttpHeaders.IF_NONE_MATCH, filterTag))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testFilterGetSortsLikeThePost() throws Exception {
+        String body = mockMvc.perform(get("/items/filter").param("sort", "price,desc").param("category", "hats"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertTrue(body.contains("\"id\":" + hatId));
+        assertFalse(body.contains("\"id\":" + shoeId));
+
+        mockMvc.perform(get("/items/filter").param("sort", "price"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static String etagOf(MvcResult result) {
+        String etag = result.getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        return etag;
+    }
+}
@@ -0,0 +1,107 @@
+package com.legacy.demo.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.entities.Item;
+import com.legacy.demo.repos.ItemRepo;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Whole-catalog export against H2, with a fetch size well below the catalog size
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:export;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.show-sql=false",
+        "catalog.export.fetch-size=100"
+})
+@AutoConfigureMockMvc
+public class ItemExportTest {
+
+    private static final int ITEMS = 2500;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ItemService itemService;
+
+    @Autowired
+    private ItemRepo itemRepo;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @BeforeEach
+    public void setUp() {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            ArrayList<String> tags = new ArrayList<>();
+            tags.add("tag" + i % 7);
+            items.add(new Item(null, "Rug " + i, 20.0 + i % 50, i % 4, "rug.png", "blue", "Rugs", tags));
+        }
+        itemRepo.saveAll(items);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        itemRepo.deleteAll();
+    }
+
+    @Test
+    public void testExportKeepsThePersistenceContextEmpty() {
+        List<Integer> ids = new ArrayList<>();
+        int[] mostManaged = {0};
+        long written = itemService.exportAll(dto -> {
+            // The shared entity manager is the export's own inside the sink
+            int managed = entityManager.unwrap(Session.class).getStatistics().getEntityCount();
+            mostManaged[0] = Math.max(mostManaged[0], managed);
+            ids.add(dto.getId());
+        });
+
+        assertEquals(ITEMS, written);
+        assertEquals(ITEMS, ids.size());
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i - 1) < ids.get(i));
+        }
+        assertEquals(0, mostManaged[0]);
+    }
+
+    @Test
+    public void testExportEndpointWritesOneItemPerLine() throws Exception {
+        MvcResult started = mockMvc.perform(get("/items/export")).andReturn();
+        String body = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertEquals(ITEMS, lines.length);
+        assertTrue(body.endsWith("}\n"));
+        ItemDto first = objectMapper.readValue(lines[0], ItemDto.class);
+        assertEquals("Rug 0", first.getName());
+        assertEquals("tag0", first.getTags().get(0));
+        assertEquals("Rug " + (ITEMS - 1), objectMapper.readValue(lines[ITEMS - 1], ItemDto.class).getName());
+    }
+}
@@ -0,0 +1,89 @@
+package com.legacy.demo.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.legacy.demo.catalog.CatalogVersion;
+import com.legacy.demo.catalog.ItemFragments;
+import com.legacy.demo.controllers.ResponseFormats;
+import com.legacy.demo.dtos.ItemDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Lists written from cached fragments must be byte for byte what Jackson writes
+public class ItemFragmentsTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().setFilterProvider(ResponseFormats.allFields());
+    private CatalogVersion versions;
+    private ItemFragments fragments;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        versions = new CatalogVersion();
+        fragments = new ItemFragments(objectMapper, versions, 100);
+        registry = new SimpleMeterRegistry();
+        fragments.bindTo(registry);
+    }
+
+    @Test
+    public void testPageIsWhatJacksonWrites() throws IOException {
+        List<ItemDto> items = List.of(item(1, "Cap \"Classic\" été", 5.0), item(2, "Boot", 50.0),
+                new ItemDto(3, null, null, null, null, null, null, null));
+        assertEquals(objectMapper.writeValueAsString(items), written(items, versions.current()));
+        assertEquals("[]", written(List.of(), versions.current()));
+
+        // getByIds sends each item's version as well
+        List<ItemDto> versioned = new ArrayList<>();
+        for (ItemDto item : items) {
+            ItemDto copy = new ItemDto(item.getId(), item.getName(), item.getPrice(), item.getQuantity(),
+                    item.getImageUrl(), item.getColor(), item.getCategory(), item.getTags());
+            copy.setVersion(versions.itemVersion(item.getId()));
+            versioned.add(copy);
+        }
+        assertEquals(objectMapper.writeValueAsString(versioned), written(versioned, versions.current()));
+        assertEquals(3, registry.get("cache.gets").tag("cache", "item-fragments").tag("result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    public void testChangedItemsAreEncodedAgain() throws IOException {
+        ItemDto cap = item(1, "Cap", 5.0);
+        written(List.of(cap), versions.current());
+
+        // The fragment is of the version the item was at, whatever the cache was told
+        ItemDto renamed = item(1, "Cap, renamed", 5.0);
+        versions.changed(1);
+        assertTrue(written(List.of(renamed), versions.current()).contains("Cap, renamed"));
+        assertTrue(written(List.of(renamed), versions.current()).contains("Cap, renamed"));
+    }
+
+    @Test
+    public void testItemsNewerThanTheListAreNotStored() throws IOException {
+        long readSince = versions.current();
+        versions.changed(1);
+        // The list may hold the item from before the write
+        written(List.of(item(1, "Old cap", 5.0)), readSince);
+        assertTrue(written(List.of(item(1, "New cap", 6.0)), versions.current()).contains("New cap"));
+    }
+
+    private String written(List<ItemDto> items, long readSince) throws IOException {
+        ItemFragments.Page page = fragments.page(items, readSince);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        page.writeTo(out);
+        assertEquals(out.size(), page.length());
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static ItemDto item(int id, String name, double price) {
+        return new ItemDto(id, name, price, 3, "img/" + id + ".png", "black", "Hats",
+                new ArrayList<>(List.of("sale")));
+    }
+}
@@ -0,0 +1,173 @@
+package com.legacy.demo.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.legacy.demo.catalog.CatalogIndexer;
+import com.legacy.demo.dtos.ImportProgressDto;
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.entities.Item;
+import com.legacy.demo.repos.ItemIdAlignment;
+import com.legacy.demo.repos.ItemRepo;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Bulk imports through the endpoint against H2, with a small batch size so a modest
+// import spans several batches
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:import;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.show-sql=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "catalog.import.batch-size=500"
+})
+@AutoConfigureMockMvc
+public class ItemImportTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ItemService itemService;
+
+    @Autowired
+    private ItemRepo itemRepo;
+
+    @Autowired
+    private ItemIdAlignment idAlignment;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @SpyBean
+    private CatalogIndexer indexer;
+
+    @Test
+    public void testNdjsonImportIsBatchedAndSkipsBadLines() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1200; i++) {
+            if (i == 3 || i == 700) {
+                body.append("{\"name\": \"broken\n");
+            } else {
+                body.append(line("Lamp " + i, "Lamps")).append('\n');
+            }
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        clearInvocations(indexer);
+
+        List<ImportProgressDto> progress = importItems(body.toString(), MediaType.APPLICATION_NDJSON);
+
+        long statements = statistics.getPrepareStatementCount();
+        assertEquals(4, progress.size());
+        assertEquals(500, progress.get(0).getImported());
+        assertEquals(1, progress.get(0).getFailed());
+        assertTrue(progress.get(0).getErrors().get(0).startsWith("line 4: "));
+        assertEquals(1000, progress.get(1).getImported());
+        assertEquals(2, progress.get(1).getFailed());
+        ImportProgressDto done = progress.get(3);
+        assertTrue(done.isDone());
+        assertEquals(3, done.getBatch());
+        assertEquals(1198, done.getImported());
+        assertEquals(2, done.getFailed());
+        // Roughly a statement per batch, nowhere near one per item
+        assertTrue(statements < 100, statements + " statements");
+
+        // The indexes take each batch as it commits rather than reloading the table
+        verify(indexer, times(3)).savedAll(anyCollection());
+        verify(indexer, never()).load();
+        ItemFilterDto lamps = new ItemFilterDto();
+        lamps.setCategory("Lamps");
+        assertEquals(1198, itemService.browse(lamps).size());
+    }
+
+    @Test
+    public void testJsonArrayImportIgnoresGivenIds() throws Exception {
+        Integer existing = itemService.addItem(new Item(null, "Mug", 4.0, 3, "mug.png", "white", "Mugs",
+                new ArrayList<>())).getBody().getId();
+        String body = "[{\"id\": " + existing + ", \"name\": \"Jug\", \"price\": 9.5, \"quantity\": 2, \"category\": \"Mugs\"},"
+                + line("Cup", "Mugs") + "]";
+
+        List<ImportProgressDto> progress = importItems(body, MediaType.APPLICATION_JSON);
+
+        ImportProgressDto done = progress.get(progress.size() - 1);
+        assertTrue(done.isDone());
+        assertEquals(2, done.getImported());
+        assertEquals(0, done.getFailed());
+        assertEquals("Mug", itemRepo.findById(existing).get().getName());
+        ItemFilterDto mugs = new ItemFilterDto();
+        mugs.setCategory("Mugs");
+        assertEquals(3, itemService.browse(mugs).size());
+    }
+
+    @Test
+    public void testImportedIdsStayClearOfExistingRows() throws Exception {
+        // A row written with an id of its own, as AUTO_INCREMENT used to
+        jdbc.update("INSERT INTO item (id, name, price, quantity, category) VALUES (?, ?, ?, ?, ?)",
+                90000, "Legacy", 1.0, 1, "Legacy");
+        idAlignment.align();
+
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 3 * Item.ALLOCATION_SIZE; i++) {
+            body.append(line("Vase " + i, "Vases")).append('\n');
+        }
+        ImportProgressDto done = last(importItems(body.toString(), MediaType.APPLICATION_NDJSON));
+
+        assertEquals(3 * Item.ALLOCATION_SIZE, done.getImported());
+        assertEquals(0, done.getFailed());
+        Set<Integer> ids = new HashSet<>();
+        for (Item item : itemRepo.findAll()) {
+            assertTrue(ids.add(item.getId()));
+        }
+        assertTrue(jdbc.queryForObject("SELECT MAX(id) FROM item", Integer.class) > 90000);
+    }
+
+    private List<ImportProgressDto> importItems(String body, MediaType type) throws Exception {
+        String response = mockMvc.perform(post("/items/import").contentType(type).content(body))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        List<ImportProgressDto> progress = new ArrayList<>();
+        for (String line : response.split("\n")) {
+            progress.add(objectMapper.readValue(line, ImportProgressDto.class));
+        }
+        return progress;
+    }
+
+    private static ImportProgressDto last(List<ImportProgressDto> progress) {
+        return progress.get(progress.size() - 1);
+    }
+
+    private String line(String name, String category) throws Exception {
+        return objectMapper.writeValueAsString(new ItemDto(null, name, 12.0, 5, "img.png", "green", category,
+                new ArrayList<>()));
+    }
+}
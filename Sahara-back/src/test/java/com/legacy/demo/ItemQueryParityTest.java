@@ -0,0 +1,658 @@
+package com.legacy.demo.services;
+
+import com.legacy.demo.catalog.CatalogIndexer;
+import com.legacy.demo.catalog.CatalogSnapshot;
+import com.legacy.demo.catalog.CatalogVersion;
+import com.legacy.demo.catalog.CategoryDictionary;
+import com.legacy.demo.catalog.ItemCache;
+import com.legacy.demo.catalog.ItemFragments;
+import com.legacy.demo.catalog.SuggestIndex;
+import com.legacy.demo.catalog.TagIndex;
+import com.legacy.demo.dtos.CategoryCountDto;
+import com.legacy.demo.dtos.FacetsDto;
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.dtos.ItemResultsDto;
+import com.legacy.demo.dtos.PriceBucketDto;
+import com.legacy.demo.dtos.SuggestionDto;
+import com.legacy.demo.entities.Item;
+import com.legacy.demo.repos.ItemRepo;
+import com.legacy.demo.repos.ItemSpecifications;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+// Checks the database-backed filter returns exactly what the old findAll() + stream
+// implementation did, running both against the same H2 data
+@DataJpaTest(showSql = false)
+public class ItemQueryParityTest {
+
+    private static final String[] CATEGORIES = {"Shoes", "shoes", "Hats", "Bags"};
+    private static final String[] NAMES = {"Alpha", "Bravo", "Charlie", "Delta", "Echo", "Foxtrot"};
+    private static final String[] TAGS = {"red", "Blue", "sale", "new"};
+
+    @Autowired
+    private ItemRepo itemRepo;
+
+    private ItemService itemService;
+    private CatalogIndexer indexer;
+
+    @BeforeEach
+    public void setUp() {
+        TagIndex tagIndex = new TagIndex();
+        CatalogSnapshot snapshot = new CatalogSnapshot(true, 50000);
+        CategoryDictionary categories = new CategoryDictionary();
+        SuggestIndex suggestions = new SuggestIndex();
+        indexer = new CatalogIndexer(itemRepo, Arrays.asList(tagIndex, snapshot, categories, suggestions));
+        itemService = new ItemService(itemRepo, tagIndex, snapshot, categories, suggestions, indexer,
+                new CatalogVersion(), cache(), fragments(), reservations(), new SimpleMeterRegistry());
+
+        Random random = new Random(42);
+        for (int i = 0; i < 60; i++) {
+            ArrayList<String> tags = new ArrayList<>();
+            tags.add(TAGS[random.nextInt(TAGS.length)]);
+            if (random.nextBoolean()) {
+                tags.add(TAGS[random.nextInt(TAGS.length)]);
+            }
+            itemRepo.save(new Item(null,
+                    NAMES[random.nextInt(NAMES.length)],
+                    (double) random.nextInt(20) * 2.5,
+                    random.nextInt(4),
+                    "img" + i + ".png",
+                    "black",
+                    CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    tags));
+        }
+        indexer.load();
+    }
+
+    @Test
+    public void testGetAllFiltered_WithMinPrice() {
+        itemRepo.deleteAll();
+        Item item1 = new Item();
+        item1.setPrice(5.0);
+        Item item2 = new Item();
+        item2.setPrice(15.0);
+        itemRepo.saveAll(Arrays.asList(item1, item2));
+
+        List<Item> result = itemService.getAllFiltered(null, 10.0, null, null, null, null);
+
+        assertEquals(1, result.size());
+        assertEquals(15.0, result.get(0).getPrice());
+    }
+
+    @Test
+    public void testFilterParity() {
+        List<List<String>> sorts = Arrays.asList(
+                null,
+                Arrays.asList("name,none", "price,none"),
+                Arrays.asList("name,asc", "price,none"),
+                Arrays.asList("name,desc", "price,asc"),
+                Arrays.asList("price,desc"),
+                Arrays.asList("price,asc", "name,desc"),
+                Arrays.asList("quantity,desc", "price,asc"));
+        Double[] minPrices = {null, 10.0};
+        Double[] maxPrices = {null, 30.0};
+        String[] categories = {null, "", "shoes", "HATS", "Unknown"};
+        Boolean[] inStocks = {null, false, true};
+        String[] searchTerms = {null, "", "RED", "sale", "missing"};
+
+        for (List<String> sort : sorts) {
+            for (Double minPrice : minPrices) {
+                for (Double maxPrice : maxPrices) {
+                    for (String category : categories) {
+                        for (Boolean inStock : inStocks) {
+                            for (String searchTerm : searchTerms) {
+                                List<Integer> expected = ids(legacyFilter(sort, minPrice, maxPrice, category, inStock, searchTerm));
+                                String message = "sort=" + sort + " min=" + minPrice + " max=" + maxPrice
+                                        + " category=" + category + " inStock=" + inStock + " search=" + searchTerm;
+                                assertEquals(expected, ids(itemService.getAllFiltered(sort, minPrice, maxPrice, category, inStock, searchTerm)), message);
+                                assertEquals(expected, dtoIds(itemService.browse(filter(sort, minPrice, maxPrice, category, inStock, searchTerm))), message);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSnapshotParity() {
+        TagIndex tagIndex = new TagIndex();
+        CatalogSnapshot snapshot = new CatalogSnapshot(true, 4);
+        CatalogIndexer parallelIndexer = new CatalogIndexer(itemRepo, Arrays.asList(tagIndex, snapshot));
+        ItemService parallel = new ItemService(itemRepo, tagIndex, snapshot, new CategoryDictionary(),
+                new SuggestIndex(), parallelIndexer, new CatalogVersion(), cache(), fragments(), reservations(),
+                new SimpleMeterRegistry());
+        parallelIndexer.load();
+
+        for (String category : Arrays.asList(null, "SHOES", "bags")) {
+            for (Boolean inStock : Arrays.asList(null, true)) {
+                List<String> sort = Arrays.asList("price,asc", "name,desc");
+                List<Item> expected = legacyFilter(sort, 5.0, 40.0, category, inStock, null);
+                assertEquals(ids(expected), dtoIds(parallel.browse(filter(sort, 5.0, 40.0, category, inStock, null))));
+
+                // Facet counts from each fork/join task are merged
+                ItemFilterDto faceted = filter(sort, 5.0, 40.0, category, inStock, null);
+                faceted.setFacets(true);
+                assertEquals(referenceFacets(expected), facetSummary(parallel.browseWithFacets(faceted).getFacets()));
+            }
+        }
+    }
+
+    @Test
+    public void testTagSearchBeforeIndexLoaded() {
+        ItemService unloaded = unloadedService();
+
+        for (String searchTerm : Arrays.asList("RED", "sale", "missing")) {
+            assertEquals(ids(legacyFilter(null, null, null, null, null, searchTerm)),
+                    ids(unloaded.getAllFiltered(null, null, null, null, null, searchTerm)));
+            assertEquals(ids(legacyFilter(null, null, null, null, null, searchTerm)),
+                    dtoIds(unloaded.browse(filter(null, null, null, null, null, searchTerm))));
+        }
+    }
+
+    @Test
+    public void testFacetParity() {
+        ItemService unloaded = unloadedService();
+
+        List<List<String>> sorts = Arrays.asList(null, Arrays.asList("price,desc", "name,asc"));
+        String[] categories = {null, "shoes", "Unknown"};
+        Boolean[] inStocks = {null, true};
+        String[] searchTerms = {null, "RED"};
+        for (List<String> sort : sorts) {
+            for (String category : categories) {
+                for (Boolean inStock : inStocks) {
+                    for (String searchTerm : searchTerms) {
+                        List<Item> expected = legacyFilter(sort, null, 45.0, category, inStock, searchTerm);
+                        String message = "sort=" + sort + " category=" + category + " inStock=" + inStock
+                                + " search=" + searchTerm;
+
+                        ItemFilterDto filter = filter(sort, null, 45.0, category, inStock, searchTerm);
+                        filter.setFacets(true);
+                        filter.setSize(5);
+                        filter.setPage(1);
+                        List<Integer> expectedPage = ids(expected).subList(Math.min(5, expected.size()),
+                                Math.min(10, expected.size()));
+
+                        ItemResultsDto fromSnapshot = itemService.browseWithFacets(filter);
+                        assertEquals(expectedPage, dtoIds(fromSnapshot.getItems()), message);
+                        assertEquals(referenceFacets(expected), facetSummary(fromSnapshot.getFacets()), message);
+
+                        ItemResultsDto fromDatabase = unloaded.browseWithFacets(filter);
+                        assertEquals(expectedPage, dtoIds(fromDatabase.getItems()), message);
+                        assertEquals(referenceFacets(expected), facetSummary(fromDatabase.getFacets()), message);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCategoryDictionaryFollowsWrites() {
+        ItemService unloaded = unloadedService();
+        assertEquals(countSummary(unloaded.getCategoryCounts()), countSummary(itemService.getCategoryCounts()));
+
+        Integer addedId = itemService.addItem(new Item(null, "Golf", 9.0, 0, "golf.png", "white", "Visors",
+                new ArrayList<>())).getBody().getId();
+        Integer firstId = itemRepo.findAll().stream().map(Item::getId).min(Integer::compare).get();
+        itemService.ItemUpdate(firstId, null, null, 5, null, null, "VISORS");
+        itemService.ItemUpdate(addedId, null, null, 3, null, null, null);
+
+        List<CategoryCountDto> counts = itemService.getCategoryCounts();
+        assertEquals(countSummary(unloaded.getCategoryCounts()), countSummary(counts));
+        CategoryCountDto visors = counts.stream().filter(c -> c.getCategory().equals("Visors")).findFirst().get();
+        assertEquals(2, visors.getItems());
+        assertEquals(2, visors.getInStock());
+        assertTrue(itemService.getAllDistinctCategories().contains("Visors"));
+
+        itemService.removeItem(firstId);
+        itemService.removeItem(addedId);
+        assertEquals(countSummary(unloaded.getCategoryCounts()), countSummary(itemService.getCategoryCounts()));
+        assertFalse(itemService.getAllDistinctCategories().contains("Visors"));
+    }
+
+    @Test
+    public void testSuggestionsFollowWrites() {
+        List<String> prefixes = Arrays.asList("a", "b", "br", "ch", "s", "sho", "shoe", "red", "v", "visor", "blue",
+                "black", "bravo ");
+        // Looked up first, so anything a lookup leaves behind would show
+        for (String prefix : prefixes) {
+            itemService.suggest(prefix, 20);
+        }
+
+        Integer addedId = itemService.addItem(new Item(null, "Bravo Visor", 9.0, 0, "visor.png", "blue", "Visors",
+                new ArrayList<>(Arrays.asList("sale", "Summer")))).getBody().getId();
+        List<Integer> ids = itemRepo.findAll().stream().map(Item::getId).sorted().collect(Collectors.toList());
+        itemService.ItemUpdate(ids.get(0), "Charlie Brown", null, null, null, "brown", "Visors");
+        itemService.ItemUpdate(ids.get(1), null, null, null, null, "blue", null);
+        itemService.removeItem(ids.get(2));
+        itemService.ItemUpdate(addedId, "Shoe Horn", null, null, null, null, "Shoes");
+
+        SuggestIndex rebuilt = new SuggestIndex();
+        rebuilt.rebuild(itemRepo.findAll());
+        for (String prefix : prefixes) {
+            assertEquals(suggestionSummary(rebuilt.suggest(prefix, 20)),
+                    suggestionSummary(itemService.suggest(prefix, 20)), prefix);
+        }
+        assertTrue(suggestionSummary(itemService.suggest("hor", 20)).contains("name:Shoe Horn:1"));
+        assertEquals(Arrays.asList("category:Visors:1"), suggestionSummary(itemService.suggest("visor", 20)));
+    }
+
+    @Test
+    public void testSnapshotOrderingsFollowWrites() {
+        CatalogSnapshot snapshot = new CatalogSnapshot(true, 50000);
+        Random random = new Random(7);
+        Map<Integer, Item> reference = new HashMap<>();
+        for (int id = 1; id <= 3000; id += 2) {
+            reference.put(id, randomItem(random, id));
+        }
+        snapshot.rebuild(new ArrayList<>(reference.values()));
+
+        // Enough removals to compact, then updates and out-of-order inserts on top
+        for (int id = 1; id <= 2400; id += 2) {
+            snapshot.remove(id);
+            reference.remove(id);
+        }
+        for (int step = 0; step < 2000; step++) {
+            int id = 1 + random.nextInt(3200);
+            if (random.nextInt(4) == 0) {
+                snapshot.remove(id);
+                reference.remove(id);
+            } else {
+                Item item = randomItem(random, id);
+                snapshot.put(item);
+                reference.put(id, item);
+            }
+        }
+        // Batches as an import writes them - updates, removed ids back again, new ids above
+        // and below the highest, and the same id twice in one batch
+        for (int batch = 0; batch < 20; batch++) {
+            List<Item> items = new ArrayList<>();
+            for (int n = 0; n < 150; n++) {
+                int id = 1 + random.nextInt(3600);
+                Item item = randomItem(random, id);
+                items.add(item);
+                reference.put(id, item);
+            }
+            snapshot.putAll(items);
+        }
+
+        List<List<String>> sorts = Arrays.asList(
+                Arrays.asList("name,asc"),
+                Arrays.asList("name,desc", "price,asc"),
+                Arrays.asList("price,desc", "quantity,asc"),
+                Arrays.asList("quantity,desc"));
+        for (List<String> sort : sorts) {
+            for (Boolean inStock : Arrays.asList(null, true)) {
+                List<Integer> expected = reference.values().stream()
+                        .filter(item -> inStock == null || (item.getQuantity() != null && item.getQuantity() > 0))
+                        .sorted(referenceOrder(sort))
+                        .map(Item::getId)
+                        .collect(Collectors.toList());
+                ItemFilterDto filter = filter(sort, null, null, null, inStock, null);
+
+                assertEquals(expected, dtoIds(snapshot.query(filter, ItemSpecifications.toSort(sort), null, 0, Integer.MAX_VALUE)));
+                assertEquals(expected.subList(40, 65), dtoIds(snapshot.query(filter, ItemSpecifications.toSort(sort), null, 40, 25)));
+
+                // A tag filter takes the matches first and keeps the top of them on a heap
+                int[] tagged = expected.stream().filter(id -> id % 3 == 0).sorted().mapToInt(Integer::intValue).toArray();
+                List<Integer> expectedTagged = expected.stream().filter(id -> id % 3 == 0).collect(Collectors.toList());
+                assertEquals(expectedTagged.subList(5, 15), dtoIds(snapshot.query(filter, ItemSpecifications.toSort(sort), tagged, 5, 10)));
+            }
+        }
+    }
+
+    @Test
+    public void testTagIndexFollowsWrites() {
+        ArrayList<String> tags = new ArrayList<>(Arrays.asList("Clearance"));
+        Integer addedId = itemService.addItem(new Item(null, "Golf", 9.0, 1, "golf.png", "white", "Hats", tags))
+                .getBody().getId();
+        Integer firstId = itemRepo.findAll().stream().map(Item::getId).min(Integer::compare).get();
+
+        itemService.addTags(firstId, Arrays.asList("CLEARANCE"));
+        assertEquals(Arrays.asList(firstId, addedId), ids(itemService.getAllFiltered(null, null, null, null, null, "clearance")));
+
+        itemService.removeTags(addedId, Arrays.asList("Clearance"));
+        assertEquals(Arrays.asList(firstId), ids(itemService.getAllFiltered(null, null, null, null, null, "clearance")));
+
+        itemService.ItemUpdate(firstId, null, 99.0, null, null, null, "Belts");
+        assertEquals(Arrays.asList(firstId), ids(itemService.getAllFiltered(null, 50.0, null, null, null, "clearance")));
+        assertEquals(Arrays.asList(firstId), dtoIds(itemService.browse(filter(null, 50.0, null, "belts", null, null))));
+
+        itemService.removeItem(firstId);
+        assertTrue(itemService.getAllFiltered(null, null, null, null, null, "clearance").isEmpty());
+        assertTrue(itemService.browse(filter(null, null, null, "belts", null, null)).isEmpty());
+
+        for (String searchTerm : Arrays.asList("RED", "sale", "new")) {
+            assertEquals(ids(legacyFilter(null, null, null, null, null, searchTerm)),
+                    ids(itemService.getAllFiltered(null, null, null, null, null, searchTerm)));
+        }
+        List<String> sort = Arrays.asList("name,asc", "quantity,desc");
+        assertEquals(ids(legacyFilter(sort, null, null, null, null, null)),
+                dtoIds(itemService.browse(filter(sort, null, null, null, null, null))));
+    }
+
+    @Test
+    public void testPagedParity() {
+        List<String> sort = Arrays.asList("price,desc", "name,asc");
+        List<Integer> expected = ids(legacyFilter(sort, null, null, null, true, null));
+
+        ItemFilterDto filter = new ItemFilterDto();
+        filter.setSort(sort);
+        filter.setInStock(true);
+        filter.setSize(7);
+
+        List<Integer> paged = new ArrayList<>();
+        List<Integer> browsed = new ArrayList<>();
+        for (int page = 0; page * 7 < expected.size() + 7; page++) {
+            filter.setPage(page);
+            paged.addAll(ids(itemService.getAllFiltered(filter)));
+            browsed.addAll(dtoIds(itemService.browse(filter)));
+        }
+
+        assertEquals(expected, paged);
+        assertEquals(expected, browsed);
+    }
+
+    @Test
+    public void testKeysetPagesParity() {
+        List<List<String>> sorts = Arrays.asList(
+                Arrays.asList("name,asc", "price,desc"),
+                Arrays.asList("price,desc"),
+                Arrays.asList("quantity,asc", "name,desc"));
+
+        for (List<String> sort : sorts) {
+            List<Integer> expected = ids(legacyFilter(sort, 5.0, null, null, null, null));
+
+            ItemFilterDto filter = new ItemFilterDto();
+            filter.setSort(sort);
+            filter.setMinPrice(5.0);
+            filter.setSize(4);
+
+            List<Integer> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                filter.setCursor(cursor);
+                cursor = itemService.streamPage(itemService.preparePage(filter), dto -> paged.add(dto.getId()));
+            } while (cursor != null);
+
+            assertEquals(expected, paged, "sort=" + sort);
+        }
+    }
+
+    @Test
+    public void testKeysetCursorMustMatchSort() {
+        ItemFilterDto filter = new ItemFilterDto();
+        filter.setSort(Arrays.asList("price,asc"));
+        filter.setSize(2);
+        String cursor = itemService.streamPage(itemService.preparePage(filter), dto -> { });
+
+        filter.setSort(Arrays.asList("name,asc"));
+        filter.setCursor(cursor);
+        assertThrows(IllegalArgumentException.class, () -> itemService.preparePage(filter));
+
+        filter.setCursor("not-a-cursor");
+        assertThrows(IllegalArgumentException.class, () -> itemService.preparePage(filter));
+    }
+
+    // MySQL's default collation would tie "apple" with "Apple" and match "Cafe" to "café";
+    // the filter compares them as binary strings there and on H2, and the snapshot agrees
+    @Test
+    public void testNamesSortAndCategoriesMatchAsBinary() {
+        itemRepo.deleteAll();
+        String[] names = {"apple", "\uD83D\uDE00 smile", "Zebra", "Apple", "\uFF21pex", "Äpfel", "banana"};
+        String[] categories = {"Café", "Cafe", "CAFÉ", "café", "Cafe ", "Café", "Cafe"};
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            ids.add(itemRepo.save(new Item(null, names[i], 10.0, 1, "img.png", "black", categories[i],
+                    new ArrayList<>())).getId());
+        }
+        indexer.load();
+        ItemService unloaded = unloadedService();
+
+        // Code point order: capitals, lower case, Latin-1, the fullwidth A, then the emoji
+        List<Integer> byName = Arrays.asList(ids.get(3), ids.get(2), ids.get(0), ids.get(6), ids.get(5), ids.get(4),
+                ids.get(1));
+        List<String> sort = Arrays.asList("name,asc");
+        assertEquals(byName, ids(itemService.getAllFiltered(sort, null, null, null, null, null)));
+        assertEquals(byName, dtoIds(itemService.browse(filter(sort, null, null, null, null, null))));
+        assertEquals(byName, dtoIds(unloaded.browse(filter(sort, null, null, null, null, null))));
+
+        List<Integer> paged = new ArrayList<>();
+        ItemFilterDto page = filter(sort, null, null, null, null, null);
+        page.setSize(2);
+        String cursor = null;
+        do {
+            page.setCursor(cursor);
+            cursor = itemService.streamPage(itemService.preparePage(page), dto -> paged.add(dto.getId()));
+        } while (cursor != null);
+        assertEquals(byName, paged);
+
+        List<Integer> cafe = Arrays.asList(ids.get(0), ids.get(2), ids.get(3), ids.get(5));
+        assertEquals(cafe, ids(itemService.getAllFiltered(null, null, null, "CAFÉ", null, null)));
+        assertEquals(cafe, dtoIds(itemService.browse(filter(null, null, null, "CAFÉ", null, null))));
+        assertEquals(Arrays.asList(ids.get(1), ids.get(6)),
+                ids(itemService.getAllFiltered(null, null, null, "cafe", null, null)));
+    }
+
+    @Test
+    public void testInvalidSortParameter() {
+        assertThrows(IllegalArgumentException.class,
+                () -> itemService.getAllFiltered(Arrays.asList("price"), null, null, null, null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> itemService.getAllFiltered(Arrays.asList("colour,asc"), null, null, null, null, null));
+    }
+
+    private static Item randomItem(Random random, int id) {
+        return new Item(id,
+                random.nextInt(10) == 0 ? null : NAMES[random.nextInt(NAMES.length)],
+                random.nextInt(10) == 0 ? null : (double) random.nextInt(20) * 2.5,
+                random.nextInt(10) == 0 ? null : random.nextInt(4),
+                "img" + id + ".png",
+                "black",
+                CATEGORIES[random.nextInt(CATEGORIES.length)],
+                new ArrayList<>());
+    }
+
+    // NULLs first, then id as the final tiebreaker, as the database orders them
+    private static Comparator<Item> referenceOrder(List<String> sort) {
+        Comparator<Item> comparator = null;
+        for (String param : sort) {
+            String[] sortCriteria = param.split(",");
+            Comparator<Item> key;
+            switch (sortCriteria[0]) {
+                case "name":
+                    key = Comparator.comparing(Item::getName, Comparator.nullsFirst(Comparator.naturalOrder()));
+                    break;
+                case "price":
+                    key = Comparator.comparing(Item::getPrice, Comparator.nullsFirst(Comparator.naturalOrder()));
+                    break;
+                default:
+                    key = Comparator.comparing(Item::getQuantity, Comparator.nullsFirst(Comparator.naturalOrder()));
+            }
+            if ("desc".equals(sortCriteria[1])) {
+                key = key.reversed();
+            }
+            comparator = comparator == null ? key : comparator.thenComparing(key);
+        }
+        return comparator.thenComparing(Item::getId);
+    }
+
+    // Facet counts as text, with categories compared case-insensitively since which
+    // spelling is shown depends on the order the items were seen in
+    private static String facetSummary(FacetsDto facets) {
+        Map<String, String> categories = new TreeMap<>();
+        for (CategoryCountDto category : facets.getCategories()) {
+            categories.put(category.getCategory().toLowerCase(Locale.ROOT), category.getItems() + "/" + category.getInStock());
+        }
+        List<String> prices = new ArrayList<>();
+        for (PriceBucketDto bucket : facets.getPrices()) {
+            prices.add(bucket.getMin() + ".." + bucket.getMax() + "=" + bucket.getItems());
+        }
+        return "total=" + facets.getTotal() + " inStock=" + facets.getInStock() + " categories=" + categories
+                + " prices=" + prices;
+    }
+
+    // The same summary worked out directly from the matching items, with the default
+    // price buckets
+    private static String referenceFacets(List<Item> items) {
+        double[] bounds = {10, 25, 50, 100, 250};
+        Map<String, int[]> categories = new TreeMap<>();
+        int[] buckets = new int[bounds.length + 1];
+        int inStock = 0;
+        for (Item item : items) {
+            boolean stocked = item.getQuantity() != null && item.getQuantity() > 0;
+            if (stocked) {
+                inStock++;
+            }
+            if (item.getCategory() != null) {
+                int[] counts = categories.computeIfAbsent(item.getCategory().toLowerCase(Locale.ROOT), c -> new int[2]);
+                counts[0]++;
+                counts[1] += stocked ? 1 : 0;
+            }
+            if (item.getPrice() != null) {
+                int b = 0;
+                while (b < bounds.length && item.getPrice() >= bounds[b]) {
+                    b++;
+                }
+                buckets[b]++;
+            }
+        }
+        Map<String, String> categorySummary = new TreeMap<>();
+        categories.forEach((category, counts) -> categorySummary.put(category, counts[0] + "/" + counts[1]));
+        List<String> prices = new ArrayList<>();
+        for (int b = 0; b <= bounds.length; b++) {
+            prices.add((b > 0 ? bounds[b - 1] : null) + ".." + (b < bounds.length ? bounds[b] : null) + "=" + buckets[b]);
+        }
+        return "total=" + items.size() + " inStock=" + inStock + " categories=" + categorySummary + " prices=" + prices;
+    }
+
+    private static Map<String, String> countSummary(List<CategoryCountDto> counts) {
+        Map<String, String> summary = new TreeMap<>();
+        for (CategoryCountDto category : counts) {
+            summary.put(category.getCategory().toLowerCase(Locale.ROOT), category.getItems() + "/" + category.getInStock());
+        }
+        return summary;
+    }
+
+    private static List<String> suggestionSummary(List<SuggestionDto> suggestions) {
+        List<String> summary = new ArrayList<>();
+        for (SuggestionDto suggestion : suggestions) {
+            summary.add(suggestion.getKind() + ":" + suggestion.getText() + ":" + suggestion.getItems());
+        }
+        return summary;
+    }
+
+    // A service whose indexes have not loaded yet, so every read goes to the database
+    private ItemService unloadedService() {
+        TagIndex tagIndex = new TagIndex();
+        CatalogSnapshot snapshot = new CatalogSnapshot(true, 50000);
+        return new ItemService(itemRepo, tagIndex, snapshot, new CategoryDictionary(), new SuggestIndex(),
+                new CatalogIndexer(itemRepo, Arrays.asList(tagIndex, snapshot)), new CatalogVersion(), cache(),
+                fragments(), reservations(), new SimpleMeterRegistry());
+    }
+
+    private static ItemCache cache() {
+        return new ItemCache(1000, Duration.ofMinutes(10));
+    }
+
+    private static ItemFragments fragments() {
+        return mock(ItemFragments.class);
+    }
+
+    // No hot items, so every write goes straight to the table
+    private static StockReservationService reservations() {
+        return mock(StockReservationService.class);
+    }
+
+    private static List<Integer> ids(List<Item> items) {
+        return items.stream().map(Item::getId).collect(Collectors.toList());
+    }
+
+    private static List<Integer> dtoIds(List<ItemDto> items) {
+        return items.stream().map(ItemDto::getId).collect(Collectors.toList());
+    }
+
+    private static ItemFilterDto filter(List<String> sort, Double minPrice, Double maxPrice, String category, Boolean inStock, String searchTerm) {
+        ItemFilterDto filter = new ItemFilterDto();
+        filter.setSort(sort);
+        filter.setMinPrice(minPrice);
+        filter.setMaxPrice(maxPrice);
+        filter.setCategory(category);
+        filter.setInStock(inStock);
+        filter.setSearchTerm(searchTerm);
+        return filter;
+    }
+
+    // The original in-memory implementation, run over the rows in primary key order
+    private List<Item> legacyFilter(List<String> sort, Double minPrice, Double maxPrice, String category, Boolean inStock, String searchTerm) {
+        List<Item> items = itemRepo.findAll();
+        items.sort(Comparator.comparing(Item::getId));
+
+        if (minPrice != null) {
+            items = items.stream().filter(item -> item.getPrice() >= minPrice).collect(Collectors.toList());
+        }
+        if (maxPrice != null) {
+            items = items.stream().filter(item -> item.getPrice() <= maxPrice).collect(Collectors.toList());
+        }
+        if (category != null && !category.isEmpty()) {
+            items = items.stream().filter(item -> item.getCategory().equalsIgnoreCase(category)).collect(Collectors.toList());
+        }
+        if (inStock != null && inStock) {
+            items = items.stream().filter(item -> item.getQuantity() > 0).collect(Collectors.toList());
+        }
+        if (searchTerm != null && !searchTerm.isEmpty()) {
+            items = items.stream()
+                    .filter(item -> item.getTags() != null && item.getTags().stream()
+                            .anyMatch(tag -> tag.equalsIgnoreCase(searchTerm)))
+                    .collect(Collectors.toList());
+        }
+
+        if (sort != null && !sort.isEmpty()) {
+            Comparator<Item> comparator = null;
+            for (String param : sort) {
+                String[] sortCriteria = param.split(",");
+                if ("none".equalsIgnoreCase(sortCriteria[1])) {
+                    continue;
+                }
+                Comparator<Item> fieldComparator;
+                switch (sortCriteria[0]) {
+                    case "name":
+                        fieldComparator = Comparator.comparing(Item::getName);
+                        break;
+                    case "price":
+                        fieldComparator = Comparator.comparing(Item::getPrice);
+                        break;
+                    default:
+                        fieldComparator = Comparator.comparing(Item::getQuantity);
+                }
+                if ("desc".equalsIgnoreCase(sortCriteria[1])) {
+                    fieldComparator = fieldComparator.reversed();
+                }
+                comparator = comparator == null ? fieldComparator : comparator.thenComparing(fieldComparator);
+            }
+            if (comparator != null) {
+                items.sort(comparator);
+            }
+        }
+        return items;
+    }
+}
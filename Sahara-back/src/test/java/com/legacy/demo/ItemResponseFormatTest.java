@@ -0,0 +1,125 @@
+package com.legacy.demo.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.entities.Item;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Field projection, CBOR and compression on the read endpoints, through the real server
+// as compression is Tomcat's
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:formats;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.show-sql=false"
+})
+public class ItemResponseFormatTest {
+
+    private static final TypeReference<List<Map<String, Object>>> ITEMS = new TypeReference<>() {
+    };
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ItemService itemService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    @BeforeEach
+    public void setUp() {
+        if (!itemService.browse(new ItemFilterDto()).isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < 100; i++) {
+            ArrayList<String> tags = new ArrayList<>(List.of("sale", "cotton"));
+            itemService.addItem(new Item(null, "Shirt " + i, 10.0 + i, 5, "img/shirt-" + i + ".png", "blue",
+                    "Shirts", tags));
+        }
+    }
+
+    @Test
+    public void testFieldsPicksWhatIsWritten() throws Exception {
+        HttpResponse<byte[]> whole = get("/items/filter?category=Shirts", "application/json", null);
+        HttpResponse<byte[]> grid = get("/items/filter?category=Shirts&fields=id,name,price,imageUrl",
+                "application/json", null);
+
+        Map<String, Object> first = objectMapper.readValue(grid.body(), ITEMS).get(0);
+        assertEquals(List.of("id", "name", "price", "imageUrl"), new ArrayList<>(first.keySet()));
+        assertTrue(objectMapper.readValue(whole.body(), ITEMS).get(0).containsKey("tags"));
+        assertTrue(grid.body().length < whole.body().length * 3 / 4);
+
+        Integer id = (Integer) first.get("id");
+        HttpResponse<byte[]> one = get("/items/get/" + id + "?fields=name", "application/json", null);
+        assertEquals(Map.of("name", first.get("name")), objectMapper.readValue(one.body(), Map.class));
+
+        HttpResponse<byte[]> unknown = get("/items/filter?fields=id,secret", "application/json", null);
+        assertEquals(400, unknown.statusCode());
+    }
+
+    @Test
+    public void testCborIsTheSameResponseSmaller() throws Exception {
+        HttpResponse<byte[]> json = get("/items/filter?category=Shirts", "application/json", null);
+        HttpResponse<byte[]> cbor = get("/items/filter?category=Shirts", "application/cbor", null);
+
+        assertEquals("application/cbor", cbor.headers().firstValue("Content-Type").orElse(""));
+        assertTrue(cbor.headers().firstValue("Vary").orElse("").toLowerCase().matches("(.*,)?accept(,.*)?"));
+        List<Map<String, Object>> decoded = new ObjectMapper(new CBORFactory()).readValue(cbor.body(), ITEMS);
+        assertEquals(objectMapper.readValue(json.body(), ITEMS), decoded);
+        assertTrue(cbor.body().length < json.body().length);
+    }
+
+    @Test
+    public void testLargeResponsesAreGzipped() throws Exception {
+        HttpResponse<byte[]> plain = get("/items/filter?category=Shirts", "application/json", null);
+        HttpResponse<byte[]> gzipped = get("/items/filter?category=Shirts", "application/json", "gzip");
+
+        assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(""));
+        assertTrue(gzipped.body().length < plain.body().length / 4);
+        assertArrayEquals(plain.body(), gunzip(gzipped.body()));
+        assertTrue(plain.headers().firstValue("Content-Encoding").isEmpty());
+
+        // A short body of known length is below the threshold
+        HttpResponse<byte[]> rejected = get("/items/filter?fields=secret", "application/json", "gzip");
+        assertEquals(400, rejected.statusCode());
+        assertTrue(rejected.headers().firstValue("Content-Encoding").isEmpty());
+    }
+
+    private HttpResponse<byte[]> get(String path, String accept, String encoding)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("Accept", accept);
+        if (encoding != null) {
+            request.header("Accept-Encoding", encoding);
+        }
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static byte[] gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        }
+    }
+}
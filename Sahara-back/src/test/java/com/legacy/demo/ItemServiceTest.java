@@ -1,24 +1,46 @@
 package com.legacy.demo.services;
 
+import com.legacy.demo.catalog.CatalogIndexer;
+import com.legacy.demo.catalog.CatalogSnapshot;
+import com.legacy.demo.catalog.CatalogVersion;
+import com.legacy.demo.catalog.CategoryDictionary;
+import com.legacy.demo.catalog.ItemCache;
+import com.legacy.demo.catalog.ItemFragments;
+import com.legacy.demo.catalog.SuggestIndex;
+import com.legacy.demo.catalog.TagIndex;
 import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.dtos.ItemFilterDto;
+import com.legacy.demo.dtos.StockLineDto;
+import com.legacy.demo.dtos.StockReservationDto;
 import com.legacy.demo.entities.Item;
 import com.legacy.demo.repos.ItemRepo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.persistence.EntityNotFoundException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.ResponseEntity;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class ItemServiceTest {
@@ -29,6 +51,36 @@ public class ItemServiceTest {
     @Mock
     private ItemRepo itemRepo;
 
+    @Spy
+    private TagIndex tagIndex = new TagIndex();
+
+    @Spy
+    private CatalogSnapshot catalogSnapshot = new CatalogSnapshot(true, 50000);
+
+    @Spy
+    private CategoryDictionary categoryDictionary = new CategoryDictionary();
+
+    @Spy
+    private SuggestIndex suggestIndex = new SuggestIndex();
+
+    @Mock
+    private CatalogIndexer catalogIndexer;
+
+    @Spy
+    private CatalogVersion catalogVersion = new CatalogVersion();
+
+    @Spy
+    private ItemCache itemCache = new ItemCache(100, Duration.ofMinutes(10));
+
+    @Mock
+    private ItemFragments itemFragments;
+
+    @Mock
+    private StockReservationService stockReservationService;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -50,21 +102,6 @@ public class ItemServiceTest {
         assertEquals("Test Item", response.getBody().getName());
     }
 
-    @Test
-    public void testGetAllFiltered_WithMinPrice() {
-        Item item1 = new Item();
-        item1.setPrice(5.0);
-        Item item2 = new Item();
-        item2.setPrice(15.0);
-
-        when(itemRepo.findAll()).thenReturn(Arrays.asList(item1, item2));
-
-        List<Item> result = itemService.getAllFiltered(null, 10.0, null, null, null, null);
-
-        assertEquals(1, result.size());
-        assertEquals(15.0, result.get(0).getPrice());
-    }
-
     @Test
     public void testGetItem_ItemFound() {
         Item item = new Item();
@@ -89,6 +126,26 @@ public class ItemServiceTest {
         assertEquals("No Item found with id 1", response.getBody());
     }
 
+    @Test
+    public void testGetItem_CachedUntilUpdated() {
+        Item item = new Item();
+        item.setId(1);
+        item.setName("Old Item");
+
+        when(itemRepo.findById(1)).thenReturn(Optional.of(item));
+        when(itemRepo.save(any(Item.class))).thenReturn(item);
+
+        itemService.getItem(1);
+        itemService.getItem(1);
+        verify(itemRepo, times(1)).findById(1);
+
+        itemService.ItemUpdate(1, "Updated Item", null, null, null, null, null);
+        ResponseEntity<?> response = itemService.getItem(1);
+
+        assertEquals("Updated Item", ((ItemDto) response.getBody()).getName());
+        verify(itemRepo, times(3)).findById(1);
+    }
+
     @Test
     public void testItemUpdate_ItemFound() {
         Item item = new Item();
@@ -153,12 +210,120 @@ public class ItemServiceTest {
         item2.setName("Item 2");
 
         when(itemRepo.findAllById(Arrays.asList(1, 2))).thenReturn(Arrays.asList(item1, item2));
+        catalogVersion.changed(2);
 
         List<ItemDto> dtos = itemService.getItemsByIds(Arrays.asList(1, 2));
 
         assertEquals(2, dtos.size());
         assertEquals("Item 1", dtos.get(0).getName());
         assertEquals("Item 2", dtos.get(1).getName());
+        assertEquals(catalogVersion.itemVersion(1), dtos.get(0).getVersion());
+        assertEquals(catalogVersion.itemVersion(2), dtos.get(1).getVersion());
+        assertNotEquals(dtos.get(0).getVersion(), dtos.get(1).getVersion());
+    }
+
+    @Test
+    public void testReserveStock_RefreshesReservedItems() {
+        Item item = new Item();
+        item.setId(1);
+        item.setQuantity(5);
+        List<StockLineDto> lines = Arrays.asList(new StockLineDto(1, 2));
+
+        when(itemRepo.findById(1)).thenReturn(Optional.of(item));
+        itemService.getItem(1);
+
+        when(stockReservationService.reserve(lines)).thenReturn(new StockReservationDto(false, lines));
+        itemService.reserveStock(lines);
+        verify(itemRepo, never()).findAllById(any());
+
+        Item reserved = new Item();
+        reserved.setId(1);
+        reserved.setQuantity(3);
+        when(stockReservationService.reserve(lines)).thenReturn(new StockReservationDto(true, lines));
+        when(itemRepo.findAllById(Arrays.asList(1))).thenReturn(Arrays.asList(reserved));
+        when(itemRepo.findById(1)).thenReturn(Optional.of(reserved));
+
+        assertTrue(itemService.reserveStock(lines).isReserved());
+        assertEquals(3, ((ItemDto) itemService.getItem(1).getBody()).getQuantity());
+        verify(catalogIndexer).saved(reserved);
+    }
+
+    @Test
+    public void testItemUpdate_IndexedInWriteOrder() throws Exception {
+        when(itemRepo.findById(1)).thenAnswer(invocation -> Optional.of(new Item(1, "Cap", 5.0, 0, "cap.png",
+                "red", "Hats", new ArrayList<>())));
+        CountDownLatch firstSaving = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        when(itemRepo.save(any(Item.class))).thenAnswer(invocation -> {
+            Item item = invocation.getArgument(0);
+            if (item.getQuantity() == 1) {
+                firstSaving.countDown();
+                releaseFirst.await(5, TimeUnit.SECONDS);
+            }
+            return item;
+        });
+
+        Thread first = new Thread(() -> itemService.ItemUpdate(1, null, null, 1, null, null, null));
+        first.start();
+        assertTrue(firstSaving.await(5, TimeUnit.SECONDS));
+        Thread second = new Thread(() -> itemService.ItemUpdate(1, null, null, 2, null, null, null));
+        second.start();
+
+        // The second update waits for the first to be indexed before reading the row
+        Thread.sleep(100);
+        verify(itemRepo, times(1)).findById(1);
+        releaseFirst.countDown();
+        first.join();
+        second.join();
+
+        InOrder indexed = inOrder(catalogIndexer);
+        indexed.verify(catalogIndexer).saved(argThat(item -> item.getQuantity() == 1));
+        indexed.verify(catalogIndexer).saved(argThat(item -> item.getQuantity() == 2));
+    }
+
+    @Test
+    public void testGetAllFiltered_WithMinPrice() {
+        Item item2 = new Item();
+        item2.setPrice(15.0);
+
+        // The price range is part of the query now, so the repo only hands back matches
+        when(itemRepo.findAll(anySpecification(), eq(Sort.by("id")))).thenReturn(Arrays.asList(item2));
+
+        List<Item> result = itemService.getAllFiltered(null, 10.0, null, null, null, null);
+
+        assertEquals(1, result.size());
+        assertEquals(15.0, result.get(0).getPrice());
+        verify(itemRepo, never()).findAll();
+    }
+
+    @Test
+    public void testGetAllFiltered_RecordsStageMetrics() {
+        Item item = new Item();
+        item.setId(1);
+        when(itemRepo.findAll(anySpecification(), any(Sort.class))).thenReturn(Arrays.asList(item));
+
+        ItemFilterDto filter = new ItemFilterDto();
+        filter.setCategory("Hats");
+        itemService.getAllFiltered(filter);
+        itemService.getAllFiltered(filter);
+
+        assertEquals(2, meterRegistry.get("catalog.filter.stage").tags("path", "sql", "stage", "tags").timer().count());
+        assertEquals(2, meterRegistry.get("catalog.filter.stage").tags("path", "sql", "stage", "query").timer().count());
+        assertEquals(2.0, meterRegistry.get("catalog.filter.results").tags("path", "sql").summary().totalAmount());
+    }
+
+    @Test
+    public void testGetAllDistinctCategories_FromDictionaryOnceLoaded() {
+        Item hat = new Item(1, "Cap", 5.0, 2, "cap.png", "red", "Hats", new ArrayList<>());
+        Item shoe = new Item(2, "Boot", 50.0, 0, "boot.png", "brown", "Shoes", new ArrayList<>());
+        Item otherHat = new Item(3, "Beanie", 8.0, 0, "beanie.png", "blue", "HATS", new ArrayList<>());
+        categoryDictionary.rebuild(Arrays.asList(hat, shoe, otherHat));
+        when(catalogIndexer.isLoaded()).thenReturn(true);
+
+        assertEquals(Arrays.asList("Hats", "Shoes"), itemService.getAllDistinctCategories());
+        assertEquals(2, itemService.getCategoryCounts().get(0).getItems());
+        assertEquals(1, itemService.getCategoryCounts().get(0).getInStock());
+        verify(itemRepo, never()).findDistinctCategories();
     }
 
     @Test
@@ -173,4 +338,7 @@ public class ItemServiceTest {
     }
 
 
+    private static Specification<Item> anySpecification() {
+        return any();
+    }
 }
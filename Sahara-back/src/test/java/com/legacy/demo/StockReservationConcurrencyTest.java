@@ -0,0 +1,112 @@
+package com.legacy.demo.services;
+
+import com.legacy.demo.dtos.ItemDto;
+import com.legacy.demo.dtos.StockLineDto;
+import com.legacy.demo.dtos.StockReservationDto;
+import com.legacy.demo.entities.Item;
+import com.legacy.demo.repos.ItemRepo;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Hundreds of checkouts racing for the same few items against a real (H2) database.
+// Demand is well above supply, so plenty of them have to be turned away.
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:reserve;LOCK_TIMEOUT=30000;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.show-sql=false"
+})
+public class StockReservationConcurrencyTest {
+
+    private static final int ITEMS = 8;
+    private static final int STOCK = 100;
+    private static final int CHECKOUTS = 600;
+    private static final int THREADS = 200;
+
+    @Autowired
+    private ItemRepo itemRepo;
+
+    @Autowired
+    private ItemService itemService;
+
+    @Test
+    public void testParallelCheckoutsNeverOversell() throws Exception {
+        itemRepo.deleteAll();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            ids.add(itemService.addItem(new Item(null, "Item " + i, 10.0, STOCK, "img.png", "black", "Hats",
+                    new ArrayList<>())).getBody().getId());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicIntegerArray sold = new AtomicIntegerArray(ITEMS);
+        List<Future<Boolean>> checkouts = new ArrayList<>();
+        for (int c = 0; c < CHECKOUTS; c++) {
+            Random random = new Random(c);
+            int[] picked = new int[1 + random.nextInt(3)];
+            List<StockLineDto> lines = new ArrayList<>();
+            for (int l = 0; l < picked.length; l++) {
+                picked[l] = random.nextInt(ITEMS);
+                lines.add(new StockLineDto(ids.get(picked[l]), 1 + random.nextInt(3)));
+            }
+            checkouts.add(pool.submit(() -> {
+                start.await();
+                StockReservationDto result = itemService.reserveStock(lines);
+                if (result.isReserved()) {
+                    for (int l = 0; l < picked.length; l++) {
+                        sold.addAndGet(picked[l], lines.get(l).getQuantity());
+                    }
+                }
+                return result.isReserved();
+            }));
+        }
+
+        start.countDown();
+        int reserved = 0;
+        for (Future<Boolean> checkout : checkouts) {
+            if (checkout.get()) {
+                reserved++;
+            }
+        }
+        pool.shutdown();
+
+        assertTrue(reserved > 0);
+        assertTrue(reserved < CHECKOUTS);
+        for (int i = 0; i < ITEMS; i++) {
+            int left = itemRepo.findById(ids.get(i)).get().getQuantity();
+            assertTrue(left >= 0);
+            assertEquals(STOCK - sold.get(i), left);
+            assertEquals(left, ((ItemDto) itemService.getItem(ids.get(i)).getBody()).getQuantity());
+        }
+    }
+
+    @Test
+    public void testShortLineRollsBackWholeCheckout() {
+        Item plenty = itemRepo.save(new Item(null, "Plenty", 5.0, 10, "img.png", "black", "Hats", new ArrayList<>()));
+        Item scarce = itemRepo.save(new Item(null, "Scarce", 5.0, 1, "img.png", "black", "Hats", new ArrayList<>()));
+
+        StockReservationDto result = itemService.reserveStock(Arrays.asList(
+                new StockLineDto(plenty.getId(), 4), new StockLineDto(scarce.getId(), 2)));
+
+        assertFalse(result.isReserved());
+        assertTrue(result.getLines().get(0).getOk());
+        assertFalse(result.getLines().get(1).getOk());
+        assertEquals(1, result.getLines().get(1).getAvailable());
+        assertEquals(10, itemRepo.findById(plenty.getId()).get().getQuantity());
+        assertEquals(1, itemRepo.findById(scarce.getId()).get().getQuantity());
+    }
+}
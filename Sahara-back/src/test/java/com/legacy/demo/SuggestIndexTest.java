@@ -0,0 +1,190 @@
+package com.legacy.demo.services;
+
+import com.legacy.demo.catalog.SuggestIndex;
+import com.legacy.demo.dtos.SuggestionDto;
+import com.legacy.demo.entities.Item;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SuggestIndexTest {
+
+    private SuggestIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        index = new SuggestIndex();
+        index.rebuild(Arrays.asList(
+                item(1, "Trail Shoes 12", "Shoes", "black", "sale", "waterproof"),
+                item(2, "Trail  Runner", "Shoes", "Black", "sale"),
+                item(3, "Sun Hat", "Hats", "white", "summer"),
+                item(4, "T-Shirt", "Shirts", "white")));
+    }
+
+    @Test
+    public void testMatchesTheStartOfAnyWord() {
+        assertEquals(Arrays.asList("Trail Shoes 12"), texts("shoes 1"));
+        assertEquals(Arrays.asList("Trail Shoes 12"), texts("12"));
+        assertEquals(Arrays.asList("Shirts", "T-Shirt"), texts("shirt"));
+        // Runs of spaces count as one, and a trailing space asks for a following word.
+        // Suggestions keep the item's own spelling.
+        assertEquals(Arrays.asList("Trail  Runner", "Trail Shoes 12"), texts("  TRAIL  "));
+        assertEquals(Arrays.asList("Trail  Runner"), names("runner"));
+        assertTrue(texts("rail").isEmpty());
+        assertTrue(texts("   ").isEmpty());
+    }
+
+    @Test
+    public void testRanksByItemsThenLength() {
+        List<SuggestionDto> suggestions = index.suggest("s", 20);
+        assertEquals("sale", suggestions.get(0).getText());
+        assertEquals(2, suggestions.get(0).getItems());
+        assertEquals("Shoes", suggestions.get(1).getText());
+        assertEquals(SuggestIndex.CATEGORY, suggestions.get(1).getKind());
+        assertEquals(2, suggestions.get(1).getItems());
+        assertEquals(1, suggestions.get(2).getItems());
+        // Colors that differ only in case are one phrase
+        assertEquals(2, index.suggest("bla", 20).get(0).getItems());
+        assertEquals(2, index.suggest("s", 2).size());
+    }
+
+    @Test
+    public void testAnswersFollowWrites() {
+        assertEquals(Arrays.asList("Sun Hat"), names("su"));
+        assertEquals(1, index.suggest("summ", 20).size());
+
+        index.put(item(5, "Summit Pack", "Bags", "green", "summer"));
+        index.put(item(3, "Straw Hat", "Hats", "white"));
+        assertEquals(Arrays.asList("Summit Pack"), names("su"));
+        assertEquals(Arrays.asList("summer", "Summit Pack"), texts("summ"));
+        assertEquals(1, index.suggest("summ", 20).get(0).getItems());
+
+        index.remove(5);
+        assertTrue(texts("summ").isEmpty());
+        assertTrue(names("su").isEmpty());
+    }
+
+    @Test
+    public void testWritesAgreeWithAFullRankingAndARebuild() {
+        // Few enough words that most prefixes match a large share of the phrases, and a
+        // compaction threshold low enough to be crossed several times
+        String[] words = { "Trail", "Track", "Trek", "Shoes", "Shoe", "Sun", "Hat", "12", "120" };
+        String[] tags = { "sale", "saltwater", "trailhead", "new" };
+        Random random = new Random(3);
+        SuggestIndex incremental = new SuggestIndex(8);
+        Map<Integer, Item> catalog = new HashMap<>();
+        for (int step = 0; step < 3000; step++) {
+            int id = 1 + random.nextInt(400);
+            if (random.nextInt(5) == 0) {
+                incremental.remove(id);
+                catalog.remove(id);
+            } else if (random.nextInt(10) == 0) {
+                List<Item> batch = new ArrayList<>();
+                for (int n = 0; n < 30; n++) {
+                    Item item = randomItem(random, 1 + random.nextInt(400), words, tags);
+                    batch.add(item);
+                    catalog.put(item.getId(), item);
+                }
+                incremental.putAll(batch);
+            } else {
+                Item item = randomItem(random, id, words, tags);
+                incremental.put(item);
+                catalog.put(id, item);
+            }
+        }
+        SuggestIndex rebuilt = new SuggestIndex();
+        rebuilt.rebuild(new ArrayList<>(catalog.values()));
+
+        for (String prefix : Arrays.asList("t", "tr", "tra", "trail", "trail ", "trail shoe", "shoe", "shoes 1",
+                "1", "12", "120", "sal", "salt", "s", "sun hat", "hat", "x")) {
+            for (int limit : new int[] { 1, 5, 20 }) {
+                List<String> expected = ranked(catalog.values(), prefix, limit);
+                assertEquals(expected, summary(incremental.suggest(prefix, limit)), prefix + " " + limit);
+                assertEquals(expected, summary(rebuilt.suggest(prefix, limit)), prefix + " " + limit);
+            }
+        }
+    }
+
+    // Every phrase of the catalog with a word starting with the prefix, ranked from scratch
+    private static List<String> ranked(Collection<Item> catalog, String prefix, int limit) {
+        Map<String, String[]> phrases = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (Item item : catalog) {
+            Set<String> seen = new HashSet<>();
+            List<String[]> texts = new ArrayList<>();
+            texts.add(new String[] { SuggestIndex.NAME, item.getName() });
+            texts.add(new String[] { SuggestIndex.CATEGORY, item.getCategory() });
+            texts.add(new String[] { SuggestIndex.COLOR, item.getColor() });
+            for (String tag : item.getTags()) {
+                texts.add(new String[] { SuggestIndex.TAG, tag });
+            }
+            for (String[] text : texts) {
+                String key = text[0] + ":" + text[1].toLowerCase();
+                if (seen.add(key)) {
+                    phrases.putIfAbsent(key, text);
+                    counts.merge(key, 1, Integer::sum);
+                }
+            }
+        }
+        String folded = prefix.toLowerCase();
+        return phrases.entrySet().stream()
+                .filter(phrase -> startsAWord(phrase.getValue()[1].toLowerCase(), folded))
+                .sorted(Comparator.comparingInt((Map.Entry<String, String[]> phrase) -> -counts.get(phrase.getKey()))
+                        .thenComparingInt(phrase -> phrase.getValue()[1].length())
+                        .thenComparing(phrase -> phrase.getValue()[1])
+                        .thenComparing(phrase -> phrase.getKey()))
+                .limit(limit)
+                .map(phrase -> phrase.getValue()[0] + ":" + phrase.getValue()[1] + ":" + counts.get(phrase.getKey()))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean startsAWord(String text, String prefix) {
+        for (int i = 0; i < text.length(); i++) {
+            if ((i == 0 || text.charAt(i - 1) == ' ') && text.startsWith(prefix, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Item randomItem(Random random, int id, String[] words, String[] tags) {
+        String name = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+        ArrayList<String> itemTags = new ArrayList<>();
+        for (int t = random.nextInt(3); t > 0; t--) {
+            itemTags.add(tags[random.nextInt(tags.length)]);
+        }
+        return new Item(id, name, 10.0, 1, "img.png", random.nextBoolean() ? "black" : "blue",
+                random.nextBoolean() ? "Shoes" : "Trail Gear", itemTags);
+    }
+
+    private static List<String> summary(List<SuggestionDto> suggestions) {
+        return suggestions.stream().map(s -> s.getKind() + ":" + s.getText() + ":" + s.getItems())
+                .collect(Collectors.toList());
+    }
+
+    private List<String> texts(String prefix) {
+        return index.suggest(prefix, 20).stream().map(SuggestionDto::getText).collect(Collectors.toList());
+    }
+
+    private List<String> names(String prefix) {
+        return index.suggest(prefix, 20).stream().filter(s -> s.getKind().equals(SuggestIndex.NAME))
+                .map(SuggestionDto::getText).collect(Collectors.toList());
+    }
+
+    private static Item item(int id, String name, String category, String color, String... tags) {
+        return new Item(id, name, 10.0, 1, "img.png", color, category, new ArrayList<>(Arrays.asList(tags)));
+    }
+}
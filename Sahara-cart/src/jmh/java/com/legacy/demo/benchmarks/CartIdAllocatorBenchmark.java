@@ -0,0 +1,55 @@
+package com.legacy.demo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.legacy.demo.services.CartIdAllocator;
+
+/**
+ * Cart id allocations per second, uncontended and with 8 threads sharing one allocator.
+ * The block source is in memory, so a lease costs what the lock around it costs and not
+ * a database round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CartIdAllocatorBenchmark {
+
+    @Param({ "100", "1000" })
+    private int blockSize;
+
+    private CartIdAllocator allocator;
+
+    @Setup
+    public void setUp() {
+        allocator = new CartIdAllocator(new AtomicLong()::getAndAdd, blockSize);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String uncontended() {
+        return allocator.next();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String contended() {
+        return allocator.next();
+    }
+}
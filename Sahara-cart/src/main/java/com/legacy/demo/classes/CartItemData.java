@@ -1,21 +1,43 @@
 package com.legacy.demo.classes;
 
-import jakarta.persistence.Embeddable;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.legacy.demo.entities.Cart;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
 
 /**
  * Represents the data associated with an item in a shopping cart.
  * This class is used to encapsulate the details of an item such as its identifier, name, price, and quantity.
  *
- * It is marked as {@code @Embeddable} to allow its usage as a component within other entity classes
- * in a JPA (Jakarta Persistence API) context..
+ * Each line is its own row in {@code cart_items}, keyed by the cart and the item id, so adding,
+ * removing or changing one line writes only that row rather than the whole cart.
  */
-@Embeddable
+@Entity
+@Table(name = "cart_items")
+@IdClass(CartItemKey.class)
 public class CartItemData {
 
+    /**
+     * The cart this line belongs to.
+     * Not part of the JSON, which only ever carries the lines of one cart.
+     */
+    @Id
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "cart_id")
+    @JsonIgnore
+    private Cart cart;
+
     /**
      * The unique identifier for the cart item.
      * This value should be unique for each item in the cart.
      */
+    @Id
     private String id;
 
     /**
@@ -36,6 +58,24 @@ public class CartItemData {
      */
     private int quantity;
 
+    /**
+     * Gets the cart this line belongs to.
+     *
+     * @return the cart holding this line
+     */
+    public Cart getCart() {
+        return cart;
+    }
+
+    /**
+     * Sets the cart this line belongs to.
+     *
+     * @param cart the cart holding this line
+     */
+    public void setCart(Cart cart) {
+        this.cart = cart;
+    }
+
     /**
      * Gets the unique identifier of the cart item.
      *
@@ -107,4 +147,18 @@ public class CartItemData {
     public void setQuantity(int quantity) {
         this.quantity = quantity;
     }
+
+    /**
+     * Copies the line, without the cart it belongs to.
+     *
+     * @return a new line with the same item, name, price and quantity
+     */
+    public CartItemData copy() {
+        CartItemData copy = new CartItemData();
+        copy.setId(id);
+        copy.setName(name);
+        copy.setPrice(price);
+        copy.setQuantity(quantity);
+        return copy;
+    }
 }
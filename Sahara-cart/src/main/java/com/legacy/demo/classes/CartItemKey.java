@@ -0,0 +1,47 @@
+package com.legacy.demo.classes;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Primary key of a {@link CartItemData} line: the id of the cart it belongs to and the id of
+ * the item.
+ */
+public class CartItemKey implements Serializable {
+
+    private String cart;
+    private String id;
+
+    public CartItemKey() {
+    }
+
+    public CartItemKey(String cart, String id) {
+        this.cart = cart;
+        this.id = id;
+    }
+
+    public String getCart() {
+        return cart;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CartItemKey)) {
+            return false;
+        }
+        CartItemKey other = (CartItemKey) o;
+        return Objects.equals(cart, other.cart) && Objects.equals(id, other.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cart, id);
+    }
+}
@@ -0,0 +1,43 @@
+package com.legacy.demo.classes;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Where a cart is in its life. A cart starts in progress and can be completed once, at
+ * checkout. A completed cart is an order and no longer changes.
+ *
+ * In JSON and in the {@code status} column a status is its label, as it always has been.
+ * Labels are read regardless of case, so rows and clients that wrote "Completed" still work.
+ */
+public enum CartStatus {
+
+    IN_PROGRESS("in progress"),
+    COMPLETED("completed");
+
+    private final String label;
+
+    CartStatus(String label) {
+        this.label = label;
+    }
+
+    @JsonValue
+    public String getLabel() {
+        return label;
+    }
+
+    public boolean canBecome(CartStatus next) {
+        return next == this || (this == IN_PROGRESS && next == COMPLETED);
+    }
+
+    @JsonCreator
+    public static CartStatus fromLabel(String label) {
+        String wanted = label.trim();
+        for (CartStatus status : values()) {
+            if (status.label.equalsIgnoreCase(wanted) || status.name().equalsIgnoreCase(wanted)) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cart status " + label);
+    }
+}
@@ -0,0 +1,22 @@
+package com.legacy.demo.classes;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Keeps {@link CartStatus} in the {@code status} column as its label, so existing rows
+ * read as before.
+ */
+@Converter(autoApply = true)
+public class CartStatusConverter implements AttributeConverter<CartStatus, String> {
+
+    @Override
+    public String convertToDatabaseColumn(CartStatus status) {
+        return status == null ? null : status.getLabel();
+    }
+
+    @Override
+    public CartStatus convertToEntityAttribute(String label) {
+        return label == null ? null : CartStatus.fromLabel(label);
+    }
+}
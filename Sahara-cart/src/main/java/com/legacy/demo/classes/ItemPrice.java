@@ -0,0 +1,55 @@
+package com.legacy.demo.classes;
+
+/**
+ * The current name and price of a catalog item, as the item service returns it from
+ * {@code /items/getByIds}. The version changes whenever the item does.
+ */
+public class ItemPrice {
+
+    private Integer id;
+    private String name;
+    private Double price;
+    private String version;
+
+    public ItemPrice() {
+    }
+
+    public ItemPrice(Integer id, String name, Double price, String version) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.version = version;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Double getPrice() {
+        return price;
+    }
+
+    public void setPrice(Double price) {
+        this.price = price;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+}
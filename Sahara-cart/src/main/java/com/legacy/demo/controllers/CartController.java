@@ -30,8 +30,12 @@ public class CartController {
 
     @PostMapping("/add")
     public ResponseEntity<String> addItems(@RequestBody List<CartItemData> items) {
-        String cartId = cartService.createCartWithItems(items);
-        return new ResponseEntity<>(cartId, HttpStatus.CREATED);
+        try {
+            String cartId = cartService.createCartWithItems(items);
+            return new ResponseEntity<>(cartId, HttpStatus.CREATED);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
     }
 
     @PatchMapping("/update/{cartId}")
@@ -44,6 +48,22 @@ public class CartController {
         );
     }
 
+    @PostMapping("/{cartId}/items")
+    public ResponseEntity<?> addLine(@PathVariable String cartId,
+                                     @RequestBody CartItemData line) {
+        return this.cartService.addLine(cartId, line);
+    }
 
+    @PatchMapping("/{cartId}/items/{itemId}")
+    public ResponseEntity<?> setLineQuantity(@PathVariable String cartId,
+                                             @PathVariable String itemId,
+                                             @RequestBody CartItemData update) {
+        return this.cartService.setLineQuantity(cartId, itemId, update.getQuantity());
+    }
 
+    @DeleteMapping("/{cartId}/items/{itemId}")
+    public ResponseEntity<?> removeLine(@PathVariable String cartId,
+                                        @PathVariable String itemId) {
+        return this.cartService.removeLine(cartId, itemId);
+    }
 }
@@ -1,23 +1,56 @@
 package com.legacy.demo.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.classes.CartStatus;
+import jakarta.persistence.CascadeType;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
-import jakarta.persistence.ElementCollection;
-import jakarta.persistence.CollectionTable;
-import jakarta.persistence.JoinColumn;
+import jakarta.persistence.Index;
+import jakarta.persistence.OneToMany;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
+// The index serves the abandoned cart sweeper, which looks for carts of a status that
+// haven't been touched since a given time
 @Entity
-public class Cart {
+@Table(indexes = @Index(name = "idx_cart_status_last_touched", columnList = "status, last_touched"))
+public class Cart implements Persistable<String> {
+
+    // How stale lastTouched may get before a change moves it on. Without some slack every
+    // line change would rewrite the cart row as well as its own.
+    public static final Duration TOUCH_GRANULARITY = Duration.ofMinutes(1);
 
     @Id
     private String cartId;
 
-    @ElementCollection
-    @CollectionTable(name = "cart_items", joinColumns = @JoinColumn(name = "cart_id"))
-    private List<CartItemData> items;
-    private String status;
+    @OneToMany(mappedBy = "cart", cascade = CascadeType.ALL, orphanRemoval = true)
+    private List<CartItemData> items = new ArrayList<>();
+    private CartStatus status;
+
+    // When the cart was last changed, give or take TOUCH_GRANULARITY. Not for clients to set.
+    @Column(name = "last_touched")
+    @JsonIgnore
+    private Instant lastTouched;
+
+    // Cart ids are assigned, so without this save() would merge - a SELECT per line -
+    // instead of a plain batch of INSERTs
+    @Transient
+    private boolean isNew = true;
 
 
     public String getCartId() {
@@ -34,13 +67,110 @@ public class Cart {
 
     public void setItems(List<CartItemData> items) {
         this.items = items;
+        if (items != null) {
+            for (CartItemData line : items) {
+                line.setCart(this);
+            }
+        }
+    }
+
+    public Optional<CartItemData> findLine(String itemId) {
+        return items.stream().filter(line -> line.getId().equals(itemId)).findFirst();
+    }
+
+    public void addLine(CartItemData line) {
+        line.setCart(this);
+        items.add(line);
     }
 
-    public String getStatus() {
+    public boolean removeLine(String itemId) {
+        return items.removeIf(line -> line.getId().equals(itemId));
+    }
+
+    // Brings the lines in line with the given list, keeping the rows that are already
+    // there so only lines that actually changed get written. Repeated item ids are
+    // added together.
+    public void mergeItems(List<CartItemData> incoming) {
+        Map<String, CartItemData> wanted = new LinkedHashMap<>();
+        for (CartItemData line : incoming) {
+            wanted.merge(line.getId(), line, (first, again) -> {
+                first.setQuantity(first.getQuantity() + again.getQuantity());
+                return first;
+            });
+        }
+
+        Iterator<CartItemData> lines = items.iterator();
+        while (lines.hasNext()) {
+            CartItemData line = lines.next();
+            CartItemData update = wanted.remove(line.getId());
+            if (update == null) {
+                lines.remove();
+                continue;
+            }
+            line.setName(update.getName());
+            line.setPrice(update.getPrice());
+            line.setQuantity(update.getQuantity());
+        }
+        for (CartItemData added : wanted.values()) {
+            addLine(added);
+        }
+    }
+
+    public CartStatus getStatus() {
         return status;
     }
 
-    public void setStatus(String status) {
+    public void setStatus(CartStatus status) {
         this.status = status;
     }
-}
\ No newline at end of file
+
+    // Carts from before statuses were checked may have none, and count as in progress
+    public boolean canBecome(CartStatus next) {
+        return status == null || status.canBecome(next);
+    }
+
+    @JsonIgnore
+    public boolean isCompleted() {
+        return status == CartStatus.COMPLETED;
+    }
+
+    public Instant getLastTouched() {
+        return lastTouched;
+    }
+
+    public void setLastTouched(Instant lastTouched) {
+        this.lastTouched = lastTouched;
+    }
+
+    public void touch() {
+        Instant now = Instant.now();
+        if (lastTouched == null || lastTouched.isBefore(now.minus(TOUCH_GRANULARITY))) {
+            lastTouched = now;
+        }
+    }
+
+    @Override
+    @JsonIgnore
+    public String getId() {
+        return cartId;
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PrePersist
+    void touchIfNew() {
+        if (lastTouched == null) {
+            lastTouched = Instant.now();
+        }
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
@@ -0,0 +1,38 @@
+package com.legacy.demo.entities;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+// Shared counter for cart id allocation. Each instance leases a block of values by
+// moving nextValue on, so blocks never overlap across restarts or instances.
+@Entity
+public class CartIdBlock {
+
+    @Id
+    private String name;
+    private long nextValue;
+
+    public CartIdBlock() {
+    }
+
+    public CartIdBlock(String name, long nextValue) {
+        this.name = name;
+        this.nextValue = nextValue;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getNextValue() {
+        return nextValue;
+    }
+
+    public void setNextValue(long nextValue) {
+        this.nextValue = nextValue;
+    }
+}
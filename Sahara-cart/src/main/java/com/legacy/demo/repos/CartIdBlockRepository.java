@@ -0,0 +1,15 @@
+package com.legacy.demo.repos;
+
+import com.legacy.demo.entities.CartIdBlock;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.util.Optional;
+
+public interface CartIdBlockRepository extends JpaRepository<CartIdBlock, String> {
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM CartIdBlock b WHERE b.name = :name")
+    Optional<CartIdBlock> lockByName(@Param("name") String name);
+}
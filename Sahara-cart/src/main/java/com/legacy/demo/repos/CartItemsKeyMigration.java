@@ -0,0 +1,104 @@
+package com.legacy.demo.repos;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Gives a {@code cart_items} table from before lines were entities its primary key of
+ * (cart_id, id), before anything can read or write a line.
+ *
+ * The lines used to be an element collection, whose table has no key and can hold the
+ * same item twice in one cart. ddl-auto=update adds missing columns but never a key, so
+ * this merges such duplicates - adding up their quantities, as Cart.mergeItems does - and
+ * drops lines without a cart or item id, in one transaction, and then adds the key. A
+ * table that already has a key is left alone. It runs once the schema is in place
+ * (after the entity manager factory) and before the web server starts.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class CartItemsKeyMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(CartItemsKeyMigration.class);
+
+    private static final String TABLE = "cart_items";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transaction;
+
+    public CartItemsKeyMigration(JdbcTemplate jdbc, PlatformTransactionManager transactionManager) {
+        this.jdbc = jdbc;
+        this.transaction = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void migrate() {
+        if (hasPrimaryKey()) {
+            return;
+        }
+        log.warn("{} has no primary key, merging duplicate lines and adding one", TABLE);
+        transaction.executeWithoutResult(status -> {
+            int unkeyed = jdbc.update("DELETE FROM " + TABLE + " WHERE cart_id IS NULL OR id IS NULL");
+            List<Map<String, Object>> duplicates = jdbc.queryForList(
+                    "SELECT cart_id, id, MAX(name) AS name, MAX(price) AS price, SUM(quantity) AS quantity FROM "
+                            + TABLE + " GROUP BY cart_id, id HAVING COUNT(*) > 1");
+            for (Map<String, Object> line : duplicates) {
+                jdbc.update("DELETE FROM " + TABLE + " WHERE cart_id = ? AND id = ?", line.get("cart_id"),
+                        line.get("id"));
+                jdbc.update("INSERT INTO " + TABLE + " (cart_id, id, name, price, quantity) VALUES (?, ?, ?, ?, ?)",
+                        line.get("cart_id"), line.get("id"), line.get("name"), line.get("price"),
+                        line.get("quantity"));
+            }
+            log.warn("Dropped {} lines without an id and merged {} duplicated lines in {}", unkeyed,
+                    duplicates.size(), TABLE);
+        });
+        try {
+            // MySQL makes the key's columns NOT NULL itself, elsewhere (H2) that comes first
+            if (!isMySql()) {
+                jdbc.execute("ALTER TABLE " + TABLE + " ALTER COLUMN cart_id SET NOT NULL");
+                jdbc.execute("ALTER TABLE " + TABLE + " ALTER COLUMN id SET NOT NULL");
+            }
+            jdbc.execute("ALTER TABLE " + TABLE + " ADD PRIMARY KEY (cart_id, id)");
+        } catch (DataAccessException e) {
+            // Another instance starting at the same time may have added it first
+            if (!hasPrimaryKey()) {
+                throw e;
+            }
+        }
+    }
+
+    public boolean hasPrimaryKey() {
+        return jdbc.execute((ConnectionCallback<Boolean>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String catalog = connection.getCatalog();
+            String schema = connection.getSchema();
+            // Stored in upper case by H2, as written by MySQL
+            for (String table : new String[] { TABLE, TABLE.toUpperCase() }) {
+                try (ResultSet keys = metaData.getPrimaryKeys(catalog, schema, table)) {
+                    if (keys.next()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+    }
+
+    private boolean isMySql() {
+        return jdbc.execute((ConnectionCallback<Boolean>) connection ->
+                "MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName()));
+    }
+}
@@ -1,10 +1,50 @@
 package com.legacy.demo.repos;
 
+import com.legacy.demo.classes.CartStatus;
 import com.legacy.demo.entities.Cart;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface CartRepository extends JpaRepository<Cart, String> {
     Optional<Cart> findByCartId(String cartId);
     void deleteByCartId(String cartId);
+
+    // The carts with their lines, in one query
+    @EntityGraph(attributePaths = "items")
+    List<Cart> findByCartIdIn(Collection<String> cartIds);
+
+    // The oldest carts of the status not touched since the given time, locked for the rest
+    // of the transaction. Carts someone else has locked are skipped where the database
+    // can do that (lock timeout -2 is SKIP LOCKED).
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT c FROM Cart c WHERE c.status = :status AND c.lastTouched < :before ORDER BY c.lastTouched")
+    List<Cart> lockUntouchedSince(@Param("status") CartStatus status, @Param("before") Instant before, Limit limit);
+
+    @Query("SELECT c.cartId FROM Cart c WHERE c.lastTouched IS NULL")
+    List<String> findUntouchedIds(Limit limit);
+
+    @Modifying
+    @Query("UPDATE Cart c SET c.lastTouched = :now WHERE c.cartId IN :ids AND c.lastTouched IS NULL")
+    int touchAll(@Param("ids") Collection<String> ids, @Param("now") Instant now);
+
+    @Modifying
+    @Query("DELETE FROM CartItemData l WHERE l.cart.cartId IN :ids")
+    int deleteLinesOf(@Param("ids") Collection<String> ids);
+
+    @Modifying
+    @Query("DELETE FROM Cart c WHERE c.cartId IN :ids")
+    int deleteAllByIds(@Param("ids") Collection<String> ids);
 }
\ No newline at end of file
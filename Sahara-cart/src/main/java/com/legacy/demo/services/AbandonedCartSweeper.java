@@ -0,0 +1,124 @@
+package com.legacy.demo.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.legacy.demo.classes.CartStatus;
+import com.legacy.demo.entities.Cart;
+import com.legacy.demo.repos.CartRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Deletes carts left in progress and untouched for {@code cart.sweep.abandon-after}.
+ *
+ * Work is done in chunks of {@code cart.sweep.chunk-size} carts, each in its own short
+ * transaction that locks only the carts it deletes, and a run stops after
+ * {@code cart.sweep.max-chunks} chunks. A backlog is worked off over several runs rather
+ * than in one long delete. Completed carts are orders and are never swept.
+ *
+ * Carts from before lastTouched existed have none. They are given the current time in
+ * the same chunked way, so they get the full grace period from the first sweep on.
+ */
+@Component
+@ConditionalOnProperty(name = "cart.sweep.enabled", havingValue = "true", matchIfMissing = true)
+public class AbandonedCartSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(AbandonedCartSweeper.class);
+
+    private final CartRepository cartRepository;
+    private final TransactionTemplate transaction;
+    private final Duration abandonAfter;
+    private final int chunkSize;
+    private final int maxChunks;
+    private final Counter swept;
+    private final Timer runs;
+
+    public AbandonedCartSweeper(CartRepository cartRepository,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${cart.sweep.abandon-after:7d}") Duration abandonAfter,
+            @Value("${cart.sweep.chunk-size:500}") int chunkSize,
+            @Value("${cart.sweep.max-chunks:20}") int maxChunks) {
+        this.cartRepository = cartRepository;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.abandonAfter = abandonAfter;
+        this.chunkSize = chunkSize;
+        this.maxChunks = maxChunks;
+        this.swept = Counter.builder("cart.sweep.swept")
+                .description("Abandoned carts deleted by the sweeper")
+                .register(meterRegistry);
+        this.runs = Timer.builder("cart.sweep")
+                .description("Time taken by one sweep for abandoned carts")
+                .register(meterRegistry);
+    }
+
+    // Returns the number of carts deleted
+    @Scheduled(fixedDelayString = "${cart.sweep.interval:60000}",
+            initialDelayString = "${cart.sweep.interval:60000}")
+    public int sweep() {
+        return runs.record(() -> {
+            int chunks = backfill();
+            Instant cutoff = Instant.now().minus(abandonAfter);
+            int deleted = 0;
+            for (; chunks < maxChunks; chunks++) {
+                int inChunk = transaction.execute(status -> sweepChunk(cutoff));
+                deleted += inChunk;
+                swept.increment(inChunk);
+                if (inChunk < chunkSize) {
+                    break;
+                }
+            }
+            if (deleted > 0) {
+                log.info("Swept {} carts untouched since {}", deleted, cutoff);
+            }
+            return deleted;
+        });
+    }
+
+    // Chunks spent giving carts without a lastTouched one, out of this run's allowance
+    private int backfill() {
+        int chunks = 0;
+        while (chunks < maxChunks) {
+            int touched = transaction.execute(status -> {
+                List<String> ids = cartRepository.findUntouchedIds(Limit.of(chunkSize));
+                return ids.isEmpty() ? 0 : cartRepository.touchAll(ids, Instant.now());
+            });
+            if (touched == 0) {
+                break;
+            }
+            chunks++;
+            if (touched < chunkSize) {
+                break;
+            }
+        }
+        return chunks;
+    }
+
+    private int sweepChunk(Instant cutoff) {
+        List<Cart> stale = cartRepository.lockUntouchedSince(CartStatus.IN_PROGRESS, cutoff, Limit.of(chunkSize));
+        if (stale.isEmpty()) {
+            return 0;
+        }
+        List<String> ids = new ArrayList<>(stale.size());
+        for (Cart cart : stale) {
+            ids.add(cart.getCartId());
+        }
+        cartRepository.deleteLinesOf(ids);
+        return cartRepository.deleteAllByIds(ids);
+    }
+}
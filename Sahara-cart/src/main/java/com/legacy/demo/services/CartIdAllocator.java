@@ -0,0 +1,98 @@
+package com.legacy.demo.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Allocates cart ids from blocks of a sequence leased through a {@link CartIdBlockSource}.
+ *
+ * Inside a block an id costs one atomic increment. Only the thread that finds the block
+ * used up takes a lock, to lease the next one. Memory use is constant, and ids never
+ * repeat across restarts or instances because the blocks never overlap.
+ *
+ * Sequence values are scrambled into 6-digit ids so consecutive carts don't get
+ * guessable neighbouring ids. Once all million are used, ids carry the number of times
+ * round as a prefix and grow to 7 digits or more.
+ */
+@Component
+public class CartIdAllocator {
+
+    private static final int ID_SPACE = 1_000_000;
+    private static final int HALF_SPACE = 1_000;
+
+    // Changing these would map the sequence to different ids and break uniqueness
+    private static final int[] ROUND_KEYS = { 0x5bd1e995, 0x27d4eb2f, 0x165667b1, 0x3c6ef372 };
+
+    private final CartIdBlockSource blockSource;
+    private final int blockSize;
+
+    private volatile Block block = new Block(0, 0);
+
+    public CartIdAllocator(CartIdBlockSource blockSource, @Value("${cart.id.block-size:100}") int blockSize) {
+        this.blockSource = blockSource;
+        this.blockSize = blockSize;
+    }
+
+    public String next() {
+        while (true) {
+            Block current = block;
+            long value = current.next.getAndIncrement();
+            if (value < current.end) {
+                return format(value);
+            }
+            refill(current);
+        }
+    }
+
+    // Only the first thread to get here for a used-up block leases a new one
+    private synchronized void refill(Block exhausted) {
+        if (block == exhausted) {
+            long start = blockSource.lease(blockSize);
+            block = new Block(start, start + blockSize);
+        }
+    }
+
+    static String format(long value) {
+        int id = scramble((int) (value % ID_SPACE));
+        char[] digits = new char[6];
+        for (int i = 5; i >= 0; i--) {
+            digits[i] = (char) ('0' + id % 10);
+            id /= 10;
+        }
+        long round = value / ID_SPACE;
+        return round == 0 ? new String(digits) : round + new String(digits);
+    }
+
+    // Four-round Feistel network over the two 3-digit halves. Every round can be undone,
+    // so each value in [0, 1000000) maps to a different id in the same range.
+    static int scramble(int value) {
+        int left = value / HALF_SPACE;
+        int right = value % HALF_SPACE;
+        for (int key : ROUND_KEYS) {
+            int mixed = (left + mix(right, key)) % HALF_SPACE;
+            left = right;
+            right = mixed;
+        }
+        return left * HALF_SPACE + right;
+    }
+
+    private static int mix(int half, int key) {
+        int h = (half ^ key) * 0x9e3779b1;
+        h ^= h >>> 15;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % HALF_SPACE;
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
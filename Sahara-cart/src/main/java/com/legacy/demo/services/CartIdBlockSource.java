@@ -0,0 +1,9 @@
+package com.legacy.demo.services;
+
+// Hands out blocks of cart id sequence values that no other caller, in this instance or
+// any other, will ever get
+public interface CartIdBlockSource {
+
+    // First value of a newly leased block of the given size
+    long lease(int size);
+}
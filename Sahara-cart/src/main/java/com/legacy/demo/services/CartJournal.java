@@ -0,0 +1,322 @@
+package com.legacy.demo.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.classes.CartStatus;
+import com.legacy.demo.entities.Cart;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Append-only record of cart changes that have been acknowledged but maybe not yet
+ * written to the database.
+ *
+ * Each entry is the whole cart as it stood after a change, one JSON object per line, so
+ * replaying is just keeping the last entry per cart and can safely be repeated. Entries
+ * are written by a single thread that takes everything queued since its last write and
+ * makes it durable with one fsync, so concurrent changes share the cost of a sync.
+ *
+ * The journal is split into numbered segment files. Rolling starts a new segment, and
+ * segments can be deleted once everything in them has reached the database.
+ */
+public class CartJournal implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CartJournal.class);
+
+    private static final String PREFIX = "carts-";
+    private static final String SUFFIX = ".journal";
+    private static final int MAX_GROUP = 1024;
+
+    private final Path directory;
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final Timer syncs;
+    private final DistributionSummary groups;
+
+    private FileChannel channel;
+    private long segment;
+    private volatile boolean running = true;
+
+    public CartJournal(Path directory, MeterRegistry meterRegistry) {
+        this.directory = directory;
+        this.syncs = Timer.builder("cart.journal.sync")
+                .description("Time to write and fsync one group of journal entries")
+                .register(meterRegistry);
+        this.groups = DistributionSummary.builder("cart.journal.group")
+                .description("Journal entries made durable by one fsync")
+                .register(meterRegistry);
+        try {
+            Files.createDirectories(directory);
+            TreeMap<Long, Path> existing = segments();
+            open(existing.isEmpty() ? 1 : existing.lastKey() + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the cart journal in " + directory, e);
+        }
+        this.writer = new Thread(this::writeGroups, "cart-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues the cart's current state. The returned future completes once the entry is
+     * on disk, or fails if it could not be written.
+     */
+    public CompletableFuture<Void> append(Cart cart) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        if (!running) {
+            durable.completeExceptionally(new IllegalStateException("The cart journal is closed"));
+            return durable;
+        }
+        try {
+            byte[] line = objectMapper.writeValueAsBytes(new Entry(cart.getCartId(), cart.getStatus(), cart.getLastTouched(), cart.getItems()));
+            queue.add(new Pending(line, durable));
+        } catch (JsonProcessingException e) {
+            durable.completeExceptionally(e);
+        }
+        return durable;
+    }
+
+    /**
+     * Starts a new segment. Entries already on disk stay in the older segments, entries
+     * still queued go to the new one. Returns the number of the last closed segment.
+     */
+    public synchronized long roll() {
+        long closed = segment;
+        try {
+            channel.close();
+            open(closed + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not roll the cart journal", e);
+        }
+        return closed;
+    }
+
+    // Deletes the segments up to and including the given one
+    public void deleteThrough(long last) {
+        try {
+            for (Map.Entry<Long, Path> old : segments().headMap(last, true).entrySet()) {
+                Files.deleteIfExists(old.getValue());
+            }
+        } catch (IOException e) {
+            log.warn("Could not delete old cart journal segments", e);
+        }
+    }
+
+    /**
+     * The last entry for each cart across all segments, oldest segment first. A line that
+     * cannot be read - the end of an entry that was being written when the process died -
+     * is skipped. Such an entry was never acknowledged.
+     */
+    public Map<String, Entry> replay() {
+        Map<String, Entry> latest = new LinkedHashMap<>();
+        try {
+            for (Path file : segments().values()) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isBlank()) {
+                            continue;
+                        }
+                        try {
+                            Entry entry = objectMapper.readValue(line, Entry.class);
+                            latest.remove(entry.getCartId());
+                            latest.put(entry.getCartId(), entry);
+                        } catch (JsonProcessingException e) {
+                            log.warn("Skipping unreadable entry in {}", file.getFileName());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the cart journal in " + directory, e);
+        }
+        return latest;
+    }
+
+    // Stops once everything already queued is on disk
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything that raced in behind the last write is refused rather than left waiting
+        Pending late;
+        while ((late = queue.poll()) != null) {
+            late.durable.completeExceptionally(new IllegalStateException("The cart journal is closed"));
+        }
+        synchronized (this) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close the cart journal", e);
+            }
+        }
+    }
+
+    private void writeGroups() {
+        List<Pending> group = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                queue.drainTo(group, MAX_GROUP - 1);
+                write(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void write(List<Pending> group) {
+        int size = 0;
+        for (Pending pending : group) {
+            size += pending.line.length + 1;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Pending pending : group) {
+            buffer.put(pending.line).put((byte) '\n');
+        }
+        buffer.flip();
+
+        long start = System.nanoTime();
+        try {
+            synchronized (this) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            log.error("Could not write {} cart journal entries", group.size(), e);
+            for (Pending pending : group) {
+                pending.durable.completeExceptionally(e);
+            }
+            return;
+        }
+        syncs.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        groups.record(group.size());
+        for (Pending pending : group) {
+            pending.durable.complete(null);
+        }
+    }
+
+    private void open(long number) throws IOException {
+        segment = number;
+        channel = FileChannel.open(directory.resolve(PREFIX + String.format("%010d", number) + SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private TreeMap<Long, Path> segments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring {} in the cart journal directory", name);
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static final class Pending {
+        private final byte[] line;
+        private final CompletableFuture<Void> durable;
+
+        Pending(byte[] line, CompletableFuture<Void> durable) {
+            this.line = line;
+            this.durable = durable;
+        }
+    }
+
+    // One cart as it stood after a change
+    public static class Entry {
+        private String cartId;
+        private CartStatus status;
+        private Instant lastTouched;
+        private List<CartItemData> items;
+
+        public Entry() {
+            super();
+        }
+
+        public Entry(String cartId, CartStatus status, Instant lastTouched, List<CartItemData> items) {
+            this.cartId = cartId;
+            this.status = status;
+            this.lastTouched = lastTouched;
+            this.items = items;
+        }
+
+        // Getters and setters
+        public String getCartId() {
+            return cartId;
+        }
+
+        public void setCartId(String cartId) {
+            this.cartId = cartId;
+        }
+
+        public CartStatus getStatus() {
+            return status;
+        }
+
+        public void setStatus(CartStatus status) {
+            this.status = status;
+        }
+
+        public Instant getLastTouched() {
+            return lastTouched;
+        }
+
+        public void setLastTouched(Instant lastTouched) {
+            this.lastTouched = lastTouched;
+        }
+
+        public List<CartItemData> getItems() {
+            return items;
+        }
+
+        public void setItems(List<CartItemData> items) {
+            this.items = items;
+        }
+    }
+}
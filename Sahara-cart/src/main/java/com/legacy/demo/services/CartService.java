@@ -1,19 +1,21 @@
 package com.legacy.demo.services;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Random;
-import java.security.SecureRandom;
-import java.util.Set;
+import java.util.function.Function;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
 
 import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.classes.ItemPrice;
+import com.legacy.demo.classes.CartStatus;
 import com.legacy.demo.entities.Cart;
 import com.legacy.demo.repos.CartRepository;
 
@@ -21,57 +23,232 @@ import com.legacy.demo.repos.CartRepository;
 @Service
 public class CartService {
 
+    private static final String INVALID_LINE = "A cart line needs an item id and a quantity above 0";
+
     @Autowired
     private CartRepository cartRepository;
 
-    private static final Set<String> generatedIds = new HashSet<>(); // Track generated IDs to ensure uniqueness
-    private static final SecureRandom random = new SecureRandom();
+    @Autowired
+    private CartIdAllocator cartIdAllocator;
+
+    // Only there when cart.store.write-behind is on. Carts are then read and changed in
+    // memory and written to the database in the background.
+    @Autowired(required = false)
+    private WriteBehindCartStore cartStore;
+
+    // Brings line names and prices up to date when a cart is read or checked out. Off when
+    // cart.pricing.enabled is false.
+    @Autowired(required = false)
+    private ItemPriceCache priceCache;
+
+    // For the reads and writes around a price lookup, which may wait on the item service
+    // and so is done with no transaction - and no pooled connection - held
+    @Autowired
+    private TransactionOperations transactions;
 
+    // No items makes an empty cart. Lines addLine would turn down are an
+    // IllegalArgumentException.
     @Transactional
     public String createCartWithItems(List<CartItemData> items) {
+        if (items == null) {
+            items = List.of();
+        } else if (!validLines(items)) {
+            throw new IllegalArgumentException(INVALID_LINE);
+        }
 
         String cartId = generateOrderId();
 
         Cart cart = new Cart();
         cart.setCartId(cartId);
-        cart.setItems(items);
-        cart.setStatus("in progress");
+        cart.mergeItems(items);
+        cart.setStatus(CartStatus.IN_PROGRESS);
+        cart.touch();
 
+        if (cartStore != null) {
+            cartStore.create(cart);
+            return cartId;
+        }
         cartRepository.save(cart);
         return cartId;
     }
 
+    // Lines come back at current prices but are not written back: a read stays a read,
+    // and the stored prices catch up when the cart is checked out
     public List<CartItemData> getCart(String cartId) {
-        return cartRepository.findById(cartId)
-                .map(Cart::getItems)
-                .orElseThrow(() -> new RuntimeException("Cart not found"));
+        List<CartItemData> items;
+        if (cartStore != null) {
+            items = cartStore.items(cartId).orElseThrow(() -> new RuntimeException("Cart not found"));
+        } else {
+            items = transactions.execute(status -> cartRepository.findById(cartId)
+                    .map(cart -> copies(cart.getItems()))
+                    .orElseThrow(() -> new RuntimeException("Cart not found")));
+        }
+        if (priceCache != null) {
+            priceCache.reprice(items);
+        }
+        return items;
     }
 
     private String generateOrderId() {
         String orderId;
         do {
-            orderId = String.format("%06d", random.nextInt(1000000)); // Generates a 6-digit number
-        } while (generatedIds.contains(orderId)); // Ensure uniqueness
-        generatedIds.add(orderId); // Add the new ID to the set
+            orderId = cartIdAllocator.next();
+        } while (cartRepository.existsById(orderId)); // Skip ids the old random generator already gave out
         return orderId;
     }
 
     public ResponseEntity<?> updateCart(String cartId,
             List<CartItemData> items,
-            String status) {
+            CartStatus status) {
+        if (items != null && !validLines(items)) {
+            return new ResponseEntity<>(INVALID_LINE, HttpStatus.BAD_REQUEST);
+        }
+        // The order is placed at today's prices, looked up before the cart is changed
+        Map<Integer, ItemPrice> prices = status == CartStatus.COMPLETED && priceCache != null
+                ? priceCache.lookup(itemIds(cartId, items))
+                : Map.of();
+        Function<Cart, ResponseEntity<?>> update = cart -> {
+            if (status != null && !cart.canBecome(status)) {
+                return new ResponseEntity<>("Cart " + cartId + " is " + cart.getStatus().getLabel()
+                        + " and cannot become " + status.getLabel(), HttpStatus.CONFLICT);
+            }
+            if (items != null && cart.isCompleted()) {
+                return completed(cartId);
+            }
+            if (items != null)
+                cart.mergeItems(items);
+            if (status == CartStatus.COMPLETED && !cart.isCompleted() && priceCache != null)
+                priceCache.reprice(cart.getItems(), prices);
+            if (status != null)
+                cart.setStatus(status);
+            cart.touch();
+            return ResponseEntity.ok(cart);
+        };
+        if (cartStore != null) {
+            return cartStore.change(cartId, update).orElseGet(() -> noCart(cartId));
+        }
+        return transactions.execute(tx -> {
+            Optional<Cart> found = this.cartRepository.findByCartId(cartId);
+            if (found.isEmpty()) {
+                return noCart(cartId);
+            }
+
+            Cart toUpdate = found.get();
+            ResponseEntity<?> response = update.apply(toUpdate);
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                return response;
+            }
+
+            Cart updated = this.cartRepository.save(toUpdate);
+            return ResponseEntity.ok(updated);
+        });
+    }
+
+    // The items of the stored cart and of the lines about to be merged into it
+    private List<String> itemIds(String cartId, List<CartItemData> incoming) {
+        List<String> itemIds = new ArrayList<>();
+        Optional<List<CartItemData>> stored = cartStore != null
+                ? cartStore.items(cartId)
+                : transactions.execute(status -> cartRepository.findById(cartId).map(cart -> copies(cart.getItems())));
+        stored.ifPresent(lines -> lines.forEach(line -> itemIds.add(line.getId())));
+        if (incoming != null) {
+            incoming.forEach(line -> itemIds.add(line.getId()));
+        }
+        return itemIds;
+    }
+
+    // Detached from the session, so nothing done to them is ever flushed
+    private static List<CartItemData> copies(List<CartItemData> lines) {
+        List<CartItemData> copies = new ArrayList<>(lines.size());
+        for (CartItemData line : lines) {
+            copies.add(line.copy());
+        }
+        return copies;
+    }
+
+    // Single line changes. Each one loads the cart and writes only the cart_items row
+    // it touches when the transaction commits.
+
+    // Adds the item to the cart, or adds to its quantity if it is already there
+    @Transactional
+    public ResponseEntity<?> addLine(String cartId, CartItemData line) {
+        if (!validLines(List.of(line))) {
+            return new ResponseEntity<>(INVALID_LINE, HttpStatus.BAD_REQUEST);
+        }
+        return changeCart(cartId, cart -> {
+            Optional<CartItemData> existing = cart.findLine(line.getId());
+            if (existing.isPresent()) {
+                CartItemData toUpdate = existing.get();
+                toUpdate.setQuantity(toUpdate.getQuantity() + line.getQuantity());
+                return ResponseEntity.ok(toUpdate);
+            }
+            cart.addLine(line);
+            return new ResponseEntity<>(line, HttpStatus.CREATED);
+        });
+    }
+
+    @Transactional
+    public ResponseEntity<?> setLineQuantity(String cartId, String itemId, int quantity) {
+        if (quantity <= 0) {
+            return new ResponseEntity<>("Quantity must be above 0", HttpStatus.BAD_REQUEST);
+        }
+        return changeCart(cartId, cart -> {
+            Optional<CartItemData> line = cart.findLine(itemId);
+            if (line.isEmpty()) {
+                return new ResponseEntity<>("No item " + itemId + " in cart " + cartId, HttpStatus.NOT_FOUND);
+            }
+            line.get().setQuantity(quantity);
+            return ResponseEntity.ok(line.get());
+        });
+    }
+
+    @Transactional
+    public ResponseEntity<?> removeLine(String cartId, String itemId) {
+        return changeCart(cartId, cart -> {
+            if (!cart.removeLine(itemId)) {
+                return new ResponseEntity<>("No item " + itemId + " in cart " + cartId, HttpStatus.NOT_FOUND);
+            }
+            return ResponseEntity.ok("Item " + itemId + " removed from cart " + cartId);
+        });
+    }
+
+    // Lines of a completed cart can't change, and every change that goes through moves
+    // the cart's lastTouched on
+    private ResponseEntity<?> changeCart(String cartId, Function<Cart, ResponseEntity<?>> change) {
+        Function<Cart, ResponseEntity<?>> guarded = cart -> {
+            if (cart.isCompleted()) {
+                return completed(cartId);
+            }
+            ResponseEntity<?> response = change.apply(cart);
+            if (response.getStatusCode().is2xxSuccessful()) {
+                cart.touch();
+            }
+            return response;
+        };
+        if (cartStore != null) {
+            return cartStore.change(cartId, guarded).orElseGet(() -> noCart(cartId));
+        }
         Optional<Cart> found = this.cartRepository.findByCartId(cartId);
         if (found.isEmpty()) {
-            return new ResponseEntity<>("No Cart found with ID " + cartId, HttpStatus.NOT_FOUND);
+            return noCart(cartId);
         }
+        return guarded.apply(found.get());
+    }
 
-        Cart toUpdate = found.get();
+    private static boolean validLines(List<CartItemData> lines) {
+        for (CartItemData line : lines) {
+            if (line == null || line.getId() == null || line.getQuantity() <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        if (items != null)
-            toUpdate.setItems(items);
-        if (status != null)
-            toUpdate.setStatus(status);
+    private static ResponseEntity<?> completed(String cartId) {
+        return new ResponseEntity<>("Cart " + cartId + " is completed and can no longer change", HttpStatus.CONFLICT);
+    }
 
-        Cart updated = this.cartRepository.save(toUpdate);
-        return ResponseEntity.ok(updated);
+    private static ResponseEntity<?> noCart(String cartId) {
+        return new ResponseEntity<>("No Cart found with ID " + cartId, HttpStatus.NOT_FOUND);
     }
 }
@@ -0,0 +1,206 @@
+package com.legacy.demo.services;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.classes.ItemPrice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Local copy of the current name, price and version of the items in carts, so a cart can
+ * be repriced without a call to the item service per line.
+ *
+ * An entry is trusted for {@code cart.pricing.ttl} after it was last checked. Missing and
+ * expired entries are fetched together through {@code /items/getByIds}, in requests of at
+ * most {@code cart.pricing.batch-size} ids. If the item service can't be reached, expired
+ * entries keep being used and lines with no entry at all keep the price they were saved
+ * with.
+ *
+ * At most {@code cart.pricing.max-size} items are kept, and an item that hasn't been
+ * fetched for {@code cart.pricing.max-age} is dropped, so an outage longer than that
+ * falls back to the saved prices. Hit, miss and eviction counts are published as the
+ * "prices" cache metrics.
+ */
+@Component
+@ConditionalOnProperty(name = "cart.pricing.enabled", havingValue = "true", matchIfMissing = true)
+public class ItemPriceCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ItemPriceCache.class);
+
+    // All a cart needs of an item, so the rest isn't sent
+    private static final String PRICE_FIELDS = "id,name,price,version";
+
+    private static final ParameterizedTypeReference<List<ItemPrice>> ITEM_PRICES = new ParameterizedTypeReference<>() {
+    };
+
+    private final RestClient itemService;
+    private final long ttlNanos;
+    private final int batchSize;
+    private final Timer fetches;
+    private final Counter repriced;
+
+    private final Cache<Integer, Checked> prices;
+
+    public ItemPriceCache(RestClient.Builder restClients,
+            MeterRegistry meterRegistry,
+            @Value("${cart.pricing.item-service-url:http://localhost:8082}") String itemServiceUrl,
+            @Value("${cart.pricing.ttl:30s}") Duration ttl,
+            @Value("${cart.pricing.max-age:1h}") Duration maxAge,
+            @Value("${cart.pricing.max-size:50000}") long maxSize,
+            @Value("${cart.pricing.batch-size:200}") int batchSize,
+            @Value("${cart.pricing.timeout:2s}") Duration timeout) {
+        SimpleClientHttpRequestFactory requests = new SimpleClientHttpRequestFactory();
+        requests.setConnectTimeout(timeout);
+        requests.setReadTimeout(timeout);
+        this.itemService = restClients.baseUrl(itemServiceUrl).requestFactory(requests).build();
+        this.ttlNanos = ttl.toNanos();
+        this.batchSize = batchSize;
+        this.prices = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(maxAge)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, prices, "prices");
+        this.fetches = Timer.builder("cart.pricing.fetch")
+                .description("Time taken by one batched price lookup from the item service")
+                .register(meterRegistry);
+        this.repriced = Counter.builder("cart.pricing.repriced")
+                .description("Cart lines whose name or price changed on repricing")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Brings the name and price of every line up to date, in one pass and with at most one
+     * request per batch of uncached items. Returns the number of lines that changed.
+     */
+    public int reprice(Collection<CartItemData> lines) {
+        List<String> itemIds = new ArrayList<>(lines.size());
+        for (CartItemData line : lines) {
+            itemIds.add(line.getId());
+        }
+        return reprice(lines, lookup(itemIds));
+    }
+
+    /**
+     * Brings the lines up to date from prices looked up beforehand, so the lookup - which
+     * may wait on the item service - can be done before a transaction opens. Lines of items
+     * that weren't looked up keep their price. Returns the number of lines that changed.
+     */
+    public int reprice(Collection<CartItemData> lines, Map<Integer, ItemPrice> current) {
+        int changed = 0;
+        for (CartItemData line : lines) {
+            ItemPrice price = current.get(parseId(line.getId()));
+            if (price == null || price.getPrice() == null) {
+                continue;
+            }
+            if (line.getPrice() != price.getPrice() || !Objects.equals(price.getName(), line.getName())) {
+                line.setPrice(price.getPrice());
+                line.setName(price.getName());
+                changed++;
+            }
+        }
+        repriced.increment(changed);
+        return changed;
+    }
+
+    // The current price of each of the items that could be found, by item id
+    public Map<Integer, ItemPrice> lookup(Collection<String> itemIds) {
+        long now = System.nanoTime();
+        Map<Integer, ItemPrice> found = new HashMap<>();
+        Set<Integer> expired = new LinkedHashSet<>();
+        for (String itemId : itemIds) {
+            Integer id = parseId(itemId);
+            if (id == null) {
+                continue;
+            }
+            Checked cached = prices.getIfPresent(id);
+            if (cached != null) {
+                found.put(id, cached.price);
+            }
+            if (cached == null || now - cached.checkedAt > ttlNanos) {
+                expired.add(id);
+            }
+        }
+
+        List<Integer> toFetch = new ArrayList<>(expired);
+        for (int from = 0; from < toFetch.size(); from += batchSize) {
+            List<Integer> batch = toFetch.subList(from, Math.min(from + batchSize, toFetch.size()));
+            List<ItemPrice> fetched;
+            try {
+                fetched = fetches.record(() -> itemService.post().uri("/items/getByIds?fields={fields}", PRICE_FIELDS)
+                        .body(batch)
+                        .retrieve()
+                        .body(ITEM_PRICES));
+            } catch (RestClientException e) {
+                log.warn("Could not fetch prices for {} items, using what is cached", batch.size(), e);
+                continue;
+            }
+            store(batch, fetched == null ? List.of() : fetched, found);
+        }
+        return found;
+    }
+
+    // Items the item service no longer has are dropped, so their lines keep their own price
+    private void store(List<Integer> asked, List<ItemPrice> fetched, Map<Integer, ItemPrice> found) {
+        long checkedAt = System.nanoTime();
+        Set<Integer> missing = new LinkedHashSet<>(asked);
+        for (ItemPrice price : fetched) {
+            missing.remove(price.getId());
+            Checked previous = prices.getIfPresent(price.getId());
+            // Unchanged since it was cached - only the check time moves on
+            ItemPrice kept = previous != null && previous.price.getVersion() != null
+                    && previous.price.getVersion().equals(price.getVersion()) ? previous.price : price;
+            prices.put(price.getId(), new Checked(kept, checkedAt));
+            found.put(price.getId(), kept);
+        }
+        for (Integer id : missing) {
+            prices.invalidate(id);
+            found.remove(id);
+        }
+    }
+
+    private static Integer parseId(String itemId) {
+        if (itemId == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(itemId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static final class Checked {
+        private final ItemPrice price;
+        private final long checkedAt;
+
+        Checked(ItemPrice price, long checkedAt) {
+            this.price = price;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.legacy.demo.services;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.legacy.demo.entities.CartIdBlock;
+import com.legacy.demo.repos.CartIdBlockRepository;
+
+@Component
+public class JpaCartIdBlockSource implements CartIdBlockSource {
+
+    private static final String CART_IDS = "cart";
+
+    private final CartIdBlockRepository blockRepository;
+    private final TransactionTemplate transaction;
+
+    public JpaCartIdBlockSource(CartIdBlockRepository blockRepository, PlatformTransactionManager transactionManager) {
+        this.blockRepository = blockRepository;
+        // Its own short transaction, so the counter row is unlocked straight away and
+        // a lease is kept even if the cart that needed it is rolled back
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    public long lease(int size) {
+        try {
+            return transaction.execute(status -> leaseLocked(size));
+        } catch (DataIntegrityViolationException e) {
+            // Another instance created the counter row at the same moment - it exists now
+            return transaction.execute(status -> leaseLocked(size));
+        }
+    }
+
+    private long leaseLocked(int size) {
+        CartIdBlock counter = blockRepository.lockByName(CART_IDS)
+                .orElseGet(() -> blockRepository.saveAndFlush(new CartIdBlock(CART_IDS, 0)));
+        long start = counter.getNextValue();
+        counter.setNextValue(start + size);
+        return start;
+    }
+}
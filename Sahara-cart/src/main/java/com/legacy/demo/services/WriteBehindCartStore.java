@@ -0,0 +1,305 @@
+package com.legacy.demo.services;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.entities.Cart;
+import com.legacy.demo.repos.CartRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Keeps carts that are being changed in memory and writes them to the database in the
+ * background, for when {@code cart.store.write-behind} is on.
+ *
+ * A change is made to a copy of the cart, which is appended to the {@link CartJournal}
+ * and takes the cart's place only once the journal entry is on disk. So a change is
+ * acknowledged, read or written to the database only if it is durable, and a crash loses
+ * nothing that was acknowledged: the journal is replayed into the database on the next
+ * start. Every {@code cart.store.flush-interval} the carts changed since the
+ * last flush are written in batches, a transaction per batch, after which the journal
+ * segments they were recorded in are deleted.
+ *
+ * Changes to one cart are applied one at a time. Carts nobody has touched for
+ * {@code cart.store.idle-timeout} are dropped from memory once they have been written.
+ */
+@Component
+@ConditionalOnProperty(name = "cart.store.write-behind", havingValue = "true")
+public class WriteBehindCartStore {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindCartStore.class);
+
+    private final CartRepository cartRepository;
+    private final TransactionTemplate transaction;
+    private final TransactionTemplate reads;
+    private final CartJournal journal;
+    private final int batchSize;
+    private final long idleNanos;
+    private final Counter flushed;
+
+    private final Map<String, HotCart> carts = new ConcurrentHashMap<>();
+
+    public WriteBehindCartStore(CartRepository cartRepository,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${cart.store.journal-dir:cart-journal}") Path journalDir,
+            @Value("${cart.store.flush-batch-size:100}") int batchSize,
+            @Value("${cart.store.idle-timeout:10m}") Duration idleTimeout) {
+        this.cartRepository = cartRepository;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.reads = new TransactionTemplate(transactionManager);
+        this.reads.setReadOnly(true);
+        this.reads.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.journal = new CartJournal(journalDir, meterRegistry);
+        this.batchSize = batchSize;
+        this.idleNanos = idleTimeout.toNanos();
+        this.flushed = Counter.builder("cart.store.flushed")
+                .description("Carts written to the database by the write-behind store")
+                .register(meterRegistry);
+    }
+
+    // Whatever the last run acknowledged but never wrote goes to the database before
+    // any request is served
+    @PostConstruct
+    public void recover() {
+        Map<String, CartJournal.Entry> pending = journal.replay();
+        for (CartJournal.Entry entry : pending.values()) {
+            Cart cart = new Cart();
+            cart.setCartId(entry.getCartId());
+            cart.setStatus(entry.getStatus());
+            cart.setLastTouched(entry.getLastTouched());
+            cart.setItems(entry.getItems() == null ? new ArrayList<>() : entry.getItems());
+            HotCart hot = new HotCart(cart);
+            hot.dirty = true;
+            carts.put(cart.getCartId(), hot);
+        }
+        if (!pending.isEmpty()) {
+            log.info("Replaying {} carts from the cart journal", pending.size());
+        }
+        flush();
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+        journal.close();
+    }
+
+    // Holds a new cart once it is durable. Its id must not be in use.
+    public void create(Cart cart) {
+        HotCart hot = new HotCart(copyOf(cart));
+        awaitDurable(journal.append(hot.cart));
+        hot.dirty = true;
+        carts.put(cart.getCartId(), hot);
+    }
+
+    // A copy of the cart's lines, if there is such a cart
+    public Optional<List<CartItemData>> items(String cartId) {
+        while (true) {
+            Optional<HotCart> found = find(cartId);
+            if (found.isEmpty()) {
+                return Optional.empty();
+            }
+            HotCart hot = found.get();
+            synchronized (hot) {
+                if (!hot.evicted) {
+                    return Optional.of(copyOf(hot.cart).getItems());
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the change to a copy of the cart and waits until it is durable before the
+     * copy replaces the cart. A change that is answered with anything other than a 2xx,
+     * or that the journal could not write, leaves the cart as it was. Empty if there is
+     * no such cart.
+     */
+    public Optional<ResponseEntity<?>> change(String cartId, Function<Cart, ResponseEntity<?>> change) {
+        while (true) {
+            Optional<HotCart> found = find(cartId);
+            if (found.isEmpty()) {
+                return Optional.empty();
+            }
+            HotCart hot = found.get();
+            ResponseEntity<?> response;
+            synchronized (hot) {
+                if (hot.evicted) {
+                    continue;
+                }
+                Cart changed = copyOf(hot.cart);
+                response = change.apply(changed);
+                if (response.getStatusCode().is2xxSuccessful()) {
+                    // The cart stays locked until its entry is on disk, so the next change
+                    // starts from this one and entries for a cart are in the order its
+                    // changes were made. Other carts' entries share the fsync meanwhile.
+                    awaitDurable(journal.append(changed));
+                    hot.cart = changed;
+                    hot.dirty = true;
+                    hot.lastTouched = System.nanoTime();
+                }
+                // The body is serialized after the lock is let go, so it must not be
+                // the live cart
+                response = ResponseEntity.status(response.getStatusCode())
+                        .headers(response.getHeaders())
+                        .body(detach(response.getBody()));
+            }
+            return Optional.of(response);
+        }
+    }
+
+    /**
+     * Writes every cart changed since the last flush, then deletes the journal segments
+     * that were rolled before it started if nothing failed. A batch that fails stays
+     * marked as changed and is tried again next time, together with its journal.
+     */
+    @Scheduled(fixedDelayString = "${cart.store.flush-interval:1000}",
+            initialDelayString = "${cart.store.flush-interval:1000}")
+    public synchronized void flush() {
+        // Every entry in these segments is for a change made before the snapshots below
+        long rolled = journal.roll();
+
+        List<Cart> dirty = new ArrayList<>();
+        List<HotCart> dirtyHot = new ArrayList<>();
+        for (HotCart hot : carts.values()) {
+            synchronized (hot) {
+                if (hot.dirty) {
+                    hot.dirty = false;
+                    dirty.add(copyOf(hot.cart));
+                    dirtyHot.add(hot);
+                }
+            }
+        }
+
+        boolean written = true;
+        for (int from = 0; from < dirty.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, dirty.size());
+            List<Cart> batch = dirty.subList(from, to);
+            try {
+                transaction.executeWithoutResult(status -> write(batch));
+                flushed.increment(batch.size());
+            } catch (RuntimeException e) {
+                log.error("Could not write {} carts, keeping them for the next flush", batch.size(), e);
+                written = false;
+                for (HotCart hot : dirtyHot.subList(from, to)) {
+                    synchronized (hot) {
+                        hot.dirty = true;
+                    }
+                }
+            }
+        }
+        if (written) {
+            journal.deleteThrough(rolled);
+        }
+        evictIdle();
+    }
+
+    private void write(List<Cart> batch) {
+        List<String> ids = new ArrayList<>(batch.size());
+        for (Cart cart : batch) {
+            ids.add(cart.getCartId());
+        }
+        Map<String, Cart> stored = new HashMap<>();
+        for (Cart cart : cartRepository.findByCartIdIn(ids)) {
+            stored.put(cart.getCartId(), cart);
+        }
+        for (Cart cart : batch) {
+            Cart target = stored.get(cart.getCartId());
+            if (target == null) {
+                cartRepository.save(cart);
+                continue;
+            }
+            target.mergeItems(cart.getItems());
+            target.setStatus(cart.getStatus());
+            target.setLastTouched(cart.getLastTouched());
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        for (HotCart hot : carts.values()) {
+            synchronized (hot) {
+                if (!hot.dirty && now - hot.lastTouched > idleNanos) {
+                    hot.evicted = true;
+                    carts.remove(hot.cart.getCartId(), hot);
+                }
+            }
+        }
+    }
+
+    private Optional<HotCart> find(String cartId) {
+        HotCart hot = carts.get(cartId);
+        if (hot != null) {
+            return Optional.of(hot);
+        }
+        Optional<Cart> loaded = reads.execute(status -> cartRepository.findByCartId(cartId).map(this::copyOf));
+        // Someone else may have loaded it meanwhile - theirs wins
+        return loaded.map(cart -> carts.computeIfAbsent(cartId, id -> new HotCart(cart)));
+    }
+
+    private static void awaitDurable(CompletableFuture<Void> durable) {
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("The cart change could not be written to the journal", e.getCause());
+        }
+    }
+
+    private Object detach(Object body) {
+        if (body instanceof Cart) {
+            return copyOf((Cart) body);
+        }
+        if (body instanceof CartItemData) {
+            return ((CartItemData) body).copy();
+        }
+        return body;
+    }
+
+    private Cart copyOf(Cart cart) {
+        Cart copy = new Cart();
+        copy.setCartId(cart.getCartId());
+        copy.setStatus(cart.getStatus());
+        copy.setLastTouched(cart.getLastTouched());
+        List<CartItemData> lines = new ArrayList<>(cart.getItems().size());
+        for (CartItemData line : cart.getItems()) {
+            lines.add(line.copy());
+        }
+        copy.setItems(lines);
+        return copy;
+    }
+
+    private static final class HotCart {
+        private Cart cart;
+        private boolean dirty;
+        private boolean evicted;
+        private long lastTouched = System.nanoTime();
+
+        HotCart(Cart cart) {
+            this.cart = cart;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.legacy.demo.services;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+@Configuration
+@ConditionalOnProperty(name = "cart.store.write-behind", havingValue = "true")
+public class WriteBehindConfiguration {
+
+    // Cart changes are still @Transactional but mostly never reach the database once
+    // the store holds the cart. Without this every one of them would take a pooled
+    // connection and switch autocommit off and on again for nothing.
+    @Bean
+    static BeanPostProcessor lazyConnections() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && !(bean instanceof LazyConnectionDataSourceProxy)) {
+                    return new LazyConnectionDataSourceProxy((DataSource) bean);
+                }
+                return bean;
+            }
+        };
+    }
+}
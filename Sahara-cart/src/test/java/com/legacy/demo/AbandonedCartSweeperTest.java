@@ -0,0 +1,110 @@
+package com.legacy.demo.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.classes.CartStatus;
+import com.legacy.demo.entities.Cart;
+import com.legacy.demo.repos.CartRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Sweeps against H2, committing each chunk for real as the scheduled sweeper would
+@DataJpaTest(showSql = false)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class AbandonedCartSweeperTest {
+
+	private static final Duration ABANDON_AFTER = Duration.ofDays(7);
+
+	@Autowired
+	private CartRepository cartRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	private SimpleMeterRegistry registry;
+	private AbandonedCartSweeper sweeper;
+
+	@BeforeEach
+	void setUp() {
+		registry = new SimpleMeterRegistry();
+		sweeper = new AbandonedCartSweeper(cartRepository, transactionManager, registry, ABANDON_AFTER, 3, 2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		cartRepository.deleteAll();
+	}
+
+	@Test
+	void testSweepsStaleCartsInBoundedChunks() {
+		Instant stale = Instant.now().minus(ABANDON_AFTER).minusSeconds(60);
+		for (int i = 0; i < 8; i++) {
+			save("10000" + i, CartStatus.IN_PROGRESS, stale.minusSeconds(i));
+		}
+		save("200000", CartStatus.COMPLETED, stale);
+		save("200001", CartStatus.IN_PROGRESS, Instant.now().minus(Duration.ofDays(6)));
+
+		// Two chunks of three, oldest first
+		assertEquals(6, sweeper.sweep());
+		assertTrue(cartRepository.existsById("100000"));
+		assertTrue(cartRepository.existsById("100001"));
+		assertFalse(cartRepository.existsById("100007"));
+
+		assertEquals(2, sweeper.sweep());
+		assertEquals(0, sweeper.sweep());
+
+		assertEquals(List.of("200000", "200001"), cartRepository.findAll().stream().map(Cart::getCartId).sorted().toList());
+		assertEquals(4, jdbc.queryForObject("SELECT COUNT(*) FROM cart_items", Integer.class));
+		assertEquals(8, registry.get("cart.sweep.swept").counter().count());
+	}
+
+	@Test
+	void testCartsWithoutLastTouchedGetAGracePeriod() {
+		for (int i = 0; i < 7; i++) {
+			save("30000" + i, CartStatus.IN_PROGRESS, Instant.now());
+		}
+		jdbc.update("UPDATE cart SET last_touched = NULL");
+
+		assertEquals(0, sweeper.sweep());
+		// Backfilling took this run's two chunks, the rest is for the next one
+		assertEquals(1, jdbc.queryForObject("SELECT COUNT(*) FROM cart WHERE last_touched IS NULL", Integer.class));
+		assertEquals(0, sweeper.sweep());
+		assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM cart WHERE last_touched IS NULL", Integer.class));
+		assertEquals(7, cartRepository.count());
+	}
+
+	private void save(String cartId, CartStatus status, Instant lastTouched) {
+		Cart cart = new Cart();
+		cart.setCartId(cartId);
+		cart.setStatus(status);
+		cart.setLastTouched(lastTouched);
+		List<CartItemData> lines = new ArrayList<>();
+		for (String id : List.of("a", "b")) {
+			CartItemData line = new CartItemData();
+			line.setId(id);
+			line.setQuantity(1);
+			lines.add(line);
+		}
+		cart.setItems(lines);
+		cartRepository.save(cart);
+	}
+}
@@ -0,0 +1,79 @@
+package com.legacy.demo.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class CartIdAllocatorTest {
+
+	private static final int THREADS = 16;
+	private static final int PER_THREAD = 50_000;
+
+	@Test
+	void testScrambleCoversEverySixDigitId() {
+		BitSet seen = new BitSet(1_000_000);
+		for (int value = 0; value < 1_000_000; value++) {
+			int id = CartIdAllocator.scramble(value);
+			assertTrue(id >= 0 && id < 1_000_000);
+			assertFalse(seen.get(id), "id " + id + " given out twice");
+			seen.set(id);
+		}
+	}
+
+	@Test
+	void testIdsGrowOnceSixDigitsAreUsedUp() {
+		assertEquals(6, CartIdAllocator.format(999_999).length());
+		assertEquals(7, CartIdAllocator.format(1_000_000).length());
+		assertEquals(CartIdAllocator.format(1), CartIdAllocator.format(1_000_001).substring(1));
+		assertTrue(CartIdAllocator.format(12_000_000).startsWith("12"));
+	}
+
+	// Two allocators sharing one block source stand in for two instances of the service
+	@Test
+	void testNoDuplicatesUnderContention() throws Exception {
+		AtomicLong sequence = new AtomicLong();
+		AtomicInteger leases = new AtomicInteger();
+		CartIdBlockSource source = size -> {
+			leases.incrementAndGet();
+			return sequence.getAndAdd(size);
+		};
+		CartIdAllocator first = new CartIdAllocator(source, 100);
+		CartIdAllocator second = new CartIdAllocator(source, 100);
+
+		Set<String> ids = ConcurrentHashMap.newKeySet();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> workers = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			CartIdAllocator allocator = t % 2 == 0 ? first : second;
+			workers.add(pool.submit(() -> {
+				start.await();
+				for (int i = 0; i < PER_THREAD; i++) {
+					ids.add(allocator.next());
+				}
+				return null;
+			}));
+		}
+
+		start.countDown();
+		for (Future<?> worker : workers) {
+			worker.get();
+		}
+		pool.shutdown();
+
+		assertEquals(THREADS * PER_THREAD, ids.size());
+		assertTrue(leases.get() <= THREADS * PER_THREAD / 100 + 2);
+	}
+}
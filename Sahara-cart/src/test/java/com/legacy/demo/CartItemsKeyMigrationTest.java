@@ -0,0 +1,66 @@
+package com.legacy.demo.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.legacy.demo.repos.CartItemsKeyMigration;
+
+// A cart_items table as the element collection left it, keyed in place against H2. Not
+// transactional, as the migration commits its own work.
+@DataJpaTest(showSql = false)
+@Import(CartItemsKeyMigration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CartItemsKeyMigrationTest {
+
+	@Autowired
+	private CartItemsKeyMigration migration;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Test
+	void testDuplicatesAreMergedAndTheKeyAdded() {
+		// Created by Hibernate with its key, so starting up did nothing
+		assertTrue(migration.hasPrimaryKey());
+
+		jdbc.execute("DROP TABLE cart_items");
+		jdbc.execute("CREATE TABLE cart_items (cart_id VARCHAR(255), id VARCHAR(255), name VARCHAR(255), "
+				+ "price FLOAT(53) NOT NULL, quantity INTEGER NOT NULL)");
+		line("cart1", "item1", 2);
+		line("cart1", "item1", 3);
+		line("cart1", "item2", 1);
+		line("cart2", "item1", 4);
+		line("cart2", null, 1);
+		assertFalse(migration.hasPrimaryKey());
+
+		migration.migrate();
+
+		assertTrue(migration.hasPrimaryKey());
+		assertEquals(3, jdbc.queryForObject("SELECT COUNT(*) FROM cart_items", Integer.class));
+		assertEquals(5, quantity("cart1", "item1"));
+		assertEquals(1, quantity("cart1", "item2"));
+		assertEquals(4, quantity("cart2", "item1"));
+		assertThrows(RuntimeException.class, () -> line("cart1", "item2", 1));
+
+		// Nothing left to do the second time
+		migration.migrate();
+		assertEquals(3, jdbc.queryForObject("SELECT COUNT(*) FROM cart_items", Integer.class));
+	}
+
+	private void line(String cartId, String itemId, int quantity) {
+		jdbc.update("INSERT INTO cart_items (cart_id, id, name, price, quantity) VALUES (?, ?, ?, ?, ?)", cartId,
+				itemId, "Item", 9.5, quantity);
+	}
+
+	private int quantity(String cartId, String itemId) {
+		return jdbc.queryForObject("SELECT quantity FROM cart_items WHERE cart_id = ? AND id = ?", Integer.class,
+				cartId, itemId);
+	}
+}
@@ -0,0 +1,135 @@
+package com.legacy.demo.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.repos.CartRepository;
+
+import jakarta.persistence.EntityManagerFactory;
+
+// Counts the rows Hibernate actually writes for each kind of cart change, against H2
+@DataJpaTest(showSql = false, properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import({ CartService.class, CartIdAllocator.class, JpaCartIdBlockSource.class })
+class CartLineWriteTest {
+
+	private static final int LINES = 20;
+
+	@Autowired
+	private CartService cartService;
+
+	@Autowired
+	private CartRepository cartRepository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+	private String cartId;
+
+	@BeforeEach
+	void setUp() {
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		cartId = cartService.createCartWithItems(lines());
+		flush();
+		statistics.clear();
+	}
+
+	@Test
+	void testCreateInsertsEachLineOnce() {
+		List<CartItemData> duplicated = lines();
+		duplicated.add(line("item0", 3));
+
+		String id = cartService.createCartWithItems(duplicated);
+		entityManager.flush();
+
+		assertEquals(LINES + 1, statistics.getEntityInsertCount());
+		assertEquals(0, statistics.getEntityUpdateCount());
+		entityManager.clear();
+		assertEquals(LINES, cartService.getCart(id).size());
+		assertEquals(4, cartService.getCart(id).stream().filter(l -> l.getId().equals("item0")).findFirst().get().getQuantity());
+	}
+
+	@Test
+	void testSetQuantityUpdatesOneRow() {
+		assertEquals(200, cartService.setLineQuantity(cartId, "item3", 7).getStatusCodeValue());
+		flush();
+
+		assertWrites(0, 1, 0);
+		assertEquals(7, cartService.getCart(cartId).get(3).getQuantity());
+	}
+
+	@Test
+	void testAddAndRemoveLineWriteOneRow() {
+		assertEquals(201, cartService.addLine(cartId, line("extra", 2)).getStatusCodeValue());
+		flush();
+		assertWrites(1, 0, 0);
+
+		assertEquals(200, cartService.addLine(cartId, line("extra", 1)).getStatusCodeValue());
+		flush();
+		assertWrites(0, 1, 0);
+
+		assertEquals(200, cartService.removeLine(cartId, "item5").getStatusCodeValue());
+		flush();
+		assertWrites(0, 0, 1);
+
+		assertEquals(404, cartService.removeLine(cartId, "item5").getStatusCodeValue());
+		assertEquals(LINES, cartRepository.findById(cartId).get().getItems().size());
+	}
+
+	@Test
+	void testWholeCartUpdateOnlyWritesChangedLines() {
+		List<CartItemData> changed = lines();
+		changed.get(4).setQuantity(9);
+		changed.remove(10);
+		changed.add(line("extra", 1));
+
+		cartService.updateCart(cartId, changed, null);
+		flush();
+
+		assertWrites(1, 1, 1);
+	}
+
+	private void assertWrites(long inserts, long updates, long deletes) {
+		assertEquals(inserts, statistics.getEntityInsertCount(), "inserts");
+		assertEquals(updates, statistics.getEntityUpdateCount(), "updates");
+		assertEquals(deletes, statistics.getEntityDeleteCount(), "deletes");
+		statistics.clear();
+	}
+
+	private void flush() {
+		entityManager.flush();
+		entityManager.clear();
+	}
+
+	private static List<CartItemData> lines() {
+		List<CartItemData> lines = new ArrayList<>();
+		for (int i = 0; i < LINES; i++) {
+			lines.add(line("item" + i, 1 + i % 3));
+		}
+		return lines;
+	}
+
+	private static CartItemData line(String id, int quantity) {
+		CartItemData line = new CartItemData();
+		line.setId(id);
+		line.setName("Item " + id);
+		line.setPrice(2.5);
+		line.setQuantity(quantity);
+		return line;
+	}
+}
@@ -1,14 +1,20 @@
 package com.legacy.demo.services;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.classes.CartStatus;
 import com.legacy.demo.entities.Cart;
 import com.legacy.demo.repos.CartRepository;
 
@@ -17,7 +23,11 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,12 +36,32 @@ class CartServiceTest {
 	@Mock
 	private CartRepository cartRepository;
 
+	@Mock
+	private ItemPriceCache priceCache;
+
+	@Spy
+	private CartIdAllocator cartIdAllocator = new CartIdAllocator(new AtomicLong()::getAndAdd, 10);
+
 	@InjectMocks
 	private CartService cartService;
 
+	private final AtomicBoolean inTransaction = new AtomicBoolean();
+
 	@BeforeEach
 	void setUp() {
 		MockitoAnnotations.openMocks(this);
+		TransactionOperations transactions = new TransactionOperations() {
+			@Override
+			public <T> T execute(TransactionCallback<T> action) {
+				inTransaction.set(true);
+				try {
+					return action.doInTransaction(null);
+				} finally {
+					inTransaction.set(false);
+				}
+			}
+		};
+		ReflectionTestUtils.setField(cartService, "transactions", transactions);
 	}
 
 	@Test
@@ -53,6 +83,16 @@ class CartServiceTest {
 		verify(cartRepository, times(1)).save(any(Cart.class));
 	}
 
+	@Test
+	void testCreateCart_SkipsTakenIds() {
+		when(cartRepository.existsById(CartIdAllocator.format(0))).thenReturn(true);
+
+		String cartId = cartService.createCartWithItems(new ArrayList<>());
+
+		assertEquals(CartIdAllocator.format(1), cartId);
+		assertEquals(6, cartId.length());
+	}
+
 	@Test
 	void testGetCart_CartExists() {
 		List<CartItemData> items = new ArrayList<>();
@@ -98,15 +138,15 @@ class CartServiceTest {
 		Cart cart = new Cart();
 		cart.setCartId("123456");
 		cart.setItems(new ArrayList<>());
-		cart.setStatus("in progress");
+		cart.setStatus(CartStatus.IN_PROGRESS);
 
 		when(cartRepository.findByCartId("123456")).thenReturn(Optional.of(cart));
 		when(cartRepository.save(any(Cart.class))).thenReturn(cart);
 
-		ResponseEntity<?> response = cartService.updateCart("123456", items, "completed");
+		ResponseEntity<?> response = cartService.updateCart("123456", items, CartStatus.COMPLETED);
 
 		assertEquals(200, response.getStatusCodeValue());
-		assertEquals("completed", ((Cart) response.getBody()).getStatus());
+		assertEquals(CartStatus.COMPLETED, ((Cart) response.getBody()).getStatus());
 		verify(cartRepository, times(1)).save(cart);
 	}
 
@@ -131,20 +171,50 @@ class CartServiceTest {
 		verify(cartRepository, times(1)).save(any(Cart.class));
 	}
 
+	@Test
+	void testCreateCartWithoutABody() {
+		String cartId = cartService.createCartWithItems(null);
+
+		assertNotNull(cartId);
+		verify(cartRepository, times(1)).save(argThat(cart -> cart.getItems().isEmpty()));
+	}
+
+	@Test
+	void testLinesWithoutAnIdOrQuantityAreRejected() {
+		Cart cart = new Cart();
+		cart.setCartId("123456");
+		cart.setItems(new ArrayList<>());
+		cart.setStatus(CartStatus.IN_PROGRESS);
+		when(cartRepository.findByCartId("123456")).thenReturn(Optional.of(cart));
+
+		CartItemData noId = new CartItemData();
+		noId.setQuantity(1);
+		CartItemData noQuantity = new CartItemData();
+		noQuantity.setId("item1");
+
+		assertThrows(IllegalArgumentException.class, () -> cartService.createCartWithItems(List.of(noId)));
+		assertThrows(IllegalArgumentException.class, () -> cartService.createCartWithItems(List.of(noQuantity)));
+		assertEquals(400, cartService.updateCart("123456", List.of(noId), null).getStatusCodeValue());
+		assertEquals(400, cartService.updateCart("123456", List.of(noQuantity), CartStatus.COMPLETED).getStatusCodeValue());
+		assertTrue(cart.getItems().isEmpty());
+		assertEquals(CartStatus.IN_PROGRESS, cart.getStatus());
+		verify(cartRepository, never()).save(any(Cart.class));
+	}
+
 	@Test
 	void testUpdateCartWithNoItems() {
 		Cart cart = new Cart();
 		cart.setCartId("123456");
 		cart.setItems(new ArrayList<>());
-		cart.setStatus("in progress");
+		cart.setStatus(CartStatus.IN_PROGRESS);
 
 		when(cartRepository.findByCartId("123456")).thenReturn(Optional.of(cart));
 		when(cartRepository.save(any(Cart.class))).thenReturn(cart);
 
-		ResponseEntity<?> response = cartService.updateCart("123456", new ArrayList<>(), "completed");
+		ResponseEntity<?> response = cartService.updateCart("123456", new ArrayList<>(), CartStatus.COMPLETED);
 
 		assertEquals(200, response.getStatusCodeValue());
-		assertEquals("completed", ((Cart) response.getBody()).getStatus());
+		assertEquals(CartStatus.COMPLETED, ((Cart) response.getBody()).getStatus());
 		assertTrue(cart.getItems().isEmpty());
 		verify(cartRepository, times(1)).save(cart);
 	}
@@ -155,18 +225,70 @@ class CartServiceTest {
 		Cart cart = new Cart();
 		cart.setCartId("123456");
 		cart.setItems(items);
-		cart.setStatus("in progress");
+		cart.setStatus(CartStatus.IN_PROGRESS);
 
 		when(cartRepository.findByCartId("123456")).thenReturn(Optional.of(cart));
 		when(cartRepository.save(any(Cart.class))).thenReturn(cart);
 
-		ResponseEntity<?> response = cartService.updateCart("123456", null, "completed");
+		ResponseEntity<?> response = cartService.updateCart("123456", null, CartStatus.COMPLETED);
 
 		assertEquals(200, response.getStatusCodeValue());
-		assertEquals("completed", ((Cart) response.getBody()).getStatus());
+		assertEquals(CartStatus.COMPLETED, ((Cart) response.getBody()).getStatus());
+		verify(cartRepository, times(1)).save(cart);
+	}
+
+	@Test
+	void testCompletedCartNoLongerChanges() {
+		Cart cart = new Cart();
+		cart.setCartId("123456");
+		cart.setItems(new ArrayList<>());
+		cart.setStatus(CartStatus.COMPLETED);
+
+		when(cartRepository.findByCartId("123456")).thenReturn(Optional.of(cart));
+
+		assertEquals(409, cartService.updateCart("123456", null, CartStatus.IN_PROGRESS).getStatusCodeValue());
+		assertEquals(409, cartService.updateCart("123456", new ArrayList<>(), null).getStatusCodeValue());
+		CartItemData line = new CartItemData();
+		line.setId("item1");
+		line.setQuantity(1);
+		assertEquals(409, cartService.addLine("123456", line).getStatusCodeValue());
+		assertTrue(cart.getItems().isEmpty());
+		assertEquals(200, cartService.updateCart("123456", null, CartStatus.fromLabel("Completed")).getStatusCodeValue());
 		verify(cartRepository, times(1)).save(cart);
 	}
 
+	@Test
+	void testCartIsRepricedWhenReadAndAtCheckout() {
+		Cart cart = new Cart();
+		cart.setCartId("123456");
+		cart.setItems(new ArrayList<>());
+		cart.setStatus(CartStatus.IN_PROGRESS);
+
+		when(cartRepository.findById("123456")).thenReturn(Optional.of(cart));
+		when(cartRepository.findByCartId("123456")).thenReturn(Optional.of(cart));
+		when(cartRepository.save(any(Cart.class))).thenReturn(cart);
+
+		// Prices are never looked up with a transaction open
+		when(priceCache.reprice(anyList())).thenAnswer(invocation -> {
+			assertFalse(inTransaction.get());
+			return 0;
+		});
+		when(priceCache.lookup(any())).thenAnswer(invocation -> {
+			assertFalse(inTransaction.get());
+			return Map.of();
+		});
+
+		// A read reprices copies of the lines and writes nothing
+		cartService.getCart("123456");
+		verify(priceCache, times(1)).reprice(anyList());
+		verify(cartRepository, never()).save(any(Cart.class));
+
+		cartService.updateCart("123456", null, CartStatus.COMPLETED);
+		cartService.updateCart("123456", null, CartStatus.COMPLETED);
+		verify(priceCache, times(1)).reprice(eq(cart.getItems()), eq(Map.of()));
+		verify(cartRepository, times(2)).save(cart);
+	}
+
 	@Test
 	void testGetCart_InvalidCartId() {
 		String invalidCartId = "invalid-id";
@@ -0,0 +1,156 @@
+package com.legacy.demo.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.classes.ItemPrice;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Repricing against a stand-in for the item service's /items/getByIds on a local port
+class ItemPriceCacheTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final Map<Integer, ItemPrice> catalog = new ConcurrentHashMap<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger largestBatch = new AtomicInteger();
+
+	private HttpServer itemService;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		for (int id = 1; id <= 250; id++) {
+			catalog.put(id, new ItemPrice(id, "Item " + id, 10.0 + id, "v1"));
+		}
+		itemService = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		itemService.createContext("/items/getByIds", this::getByIds);
+		itemService.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		itemService.stop(0);
+	}
+
+	@Test
+	void testRepricesACartWithBatchedRequests() {
+		ItemPriceCache prices = cache(Duration.ofMinutes(1));
+		List<CartItemData> lines = new ArrayList<>();
+		for (int id = 1; id <= 250; id++) {
+			lines.add(line(String.valueOf(id), "Old name", 1.0));
+		}
+		lines.add(line("gift-card", "Gift card", 25.0));
+
+		assertEquals(250, prices.reprice(lines));
+
+		assertEquals(3, requests.get());
+		assertEquals(100, largestBatch.get());
+		assertEquals("Item 7", lines.get(6).getName());
+		assertEquals(17.0, lines.get(6).getPrice());
+		assertEquals(25.0, lines.get(250).getPrice());
+
+		// Fresh entries are used as they are
+		List<CartItemData> again = List.of(line("7", "Old name", 1.0), line("8", "Item 8", 18.0));
+		assertEquals(1, prices.reprice(again));
+		assertEquals(3, requests.get());
+	}
+
+	@Test
+	void testExpiredEntriesAreCheckedAgain() {
+		ItemPriceCache prices = cache(Duration.ZERO);
+		CartItemData line = line("5", "Item 5", 15.0);
+		CartItemData gone = line("6", "Item 6", 16.0);
+		assertEquals(0, prices.reprice(List.of(line, gone)));
+
+		catalog.put(5, new ItemPrice(5, "Item 5 (new)", 12.5, "v2"));
+		catalog.remove(6);
+		gone.setPrice(3.0);
+
+		assertEquals(1, prices.reprice(List.of(line, gone)));
+		assertEquals(2, requests.get());
+		assertEquals(12.5, line.getPrice());
+		assertEquals("Item 5 (new)", line.getName());
+		// No longer sold - the line keeps the price it has
+		assertEquals(3.0, gone.getPrice());
+	}
+
+	@Test
+	void testCachedPricesAreUsedWhileTheItemServiceIsDown() {
+		ItemPriceCache prices = cache(Duration.ZERO);
+		prices.reprice(List.of(line("9", "Item 9", 19.0)));
+		itemService.stop(0);
+
+		CartItemData line = line("9", "Old name", 1.0);
+		CartItemData uncached = line("10", "Old name", 1.0);
+		assertEquals(1, prices.reprice(List.of(line, uncached)));
+		assertEquals(19.0, line.getPrice());
+		assertEquals(1.0, uncached.getPrice());
+	}
+
+	@Test
+	void testPricesOlderThanTheMaxAgeAreDropped() {
+		ItemPriceCache prices = cache(Duration.ZERO, Duration.ofNanos(1));
+		prices.reprice(List.of(line("9", "Item 9", 19.0)));
+		itemService.stop(0);
+
+		CartItemData line = line("9", "Old name", 1.0);
+		assertEquals(0, prices.reprice(List.of(line)));
+		assertEquals(1.0, line.getPrice());
+	}
+
+	private ItemPriceCache cache(Duration ttl) {
+		return cache(ttl, Duration.ofHours(1));
+	}
+
+	private ItemPriceCache cache(Duration ttl, Duration maxAge) {
+		return new ItemPriceCache(RestClient.builder(), new SimpleMeterRegistry(),
+				"http://localhost:" + itemService.getAddress().getPort(), ttl, maxAge, 1000, 100, Duration.ofSeconds(2));
+	}
+
+	private void getByIds(HttpExchange exchange) throws IOException {
+		List<Integer> ids = objectMapper.readValue(exchange.getRequestBody(), new TypeReference<List<Integer>>() {
+		});
+		requests.incrementAndGet();
+		largestBatch.accumulateAndGet(ids.size(), Math::max);
+		List<ItemPrice> found = new ArrayList<>();
+		for (Integer id : ids) {
+			if (catalog.containsKey(id)) {
+				found.add(catalog.get(id));
+			}
+		}
+		byte[] body = objectMapper.writeValueAsBytes(found);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static CartItemData line(String id, String name, double price) {
+		CartItemData line = new CartItemData();
+		line.setId(id);
+		line.setName(name);
+		line.setPrice(price);
+		line.setQuantity(1);
+		return line;
+	}
+}
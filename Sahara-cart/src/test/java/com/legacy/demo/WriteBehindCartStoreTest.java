@@ -0,0 +1,216 @@
+package com.legacy.demo.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.legacy.demo.classes.CartItemData;
+import com.legacy.demo.classes.CartStatus;
+import com.legacy.demo.entities.Cart;
+import com.legacy.demo.repos.CartRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Write-behind stores against H2, committing for real so what reaches the database can
+// be checked. A store that is never closed stands in for a process that crashed.
+@DataJpaTest(showSql = false)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class WriteBehindCartStoreTest {
+
+	@Autowired
+	private CartRepository cartRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@TempDir
+	private Path journalDir;
+
+	private final List<WriteBehindCartStore> stores = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		for (WriteBehindCartStore store : stores) {
+			store.close();
+		}
+		cartRepository.deleteAll();
+	}
+
+	@Test
+	void testChangesReachTheDatabaseOnlyWhenFlushed() throws Exception {
+		WriteBehindCartStore store = open(new SimpleMeterRegistry());
+		store.create(cart("100001", line("item1", 2)));
+		ResponseEntity<?> added = store.change("100001", c -> {
+			c.addLine(line("item2", 1));
+			return ResponseEntity.ok(c);
+		}).get();
+
+		assertEquals(200, added.getStatusCode().value());
+		assertEquals(2, ((Cart) added.getBody()).getItems().size());
+		assertEquals(2, store.items("100001").get().size());
+		assertTrue(cartRepository.findById("100001").isEmpty());
+		assertTrue(journalBytes() > 0);
+
+		store.flush();
+
+		Cart stored = stored("100001");
+		assertEquals(CartStatus.IN_PROGRESS, stored.getStatus());
+		assertEquals(2, stored.getItems().size());
+		assertEquals(0, journalBytes());
+
+		// Changes the caller turns down are neither applied nor journalled
+		ResponseEntity<?> refused = store.change("100001", c -> {
+			c.removeLine("item1");
+			return new ResponseEntity<>("no", HttpStatus.NOT_FOUND);
+		}).get();
+		assertEquals(404, refused.getStatusCode().value());
+		assertEquals(0, journalBytes());
+		assertTrue(store.change("999999", c -> ResponseEntity.ok(c)).isEmpty());
+	}
+
+	@Test
+	void testChangesTheJournalRefusesAreNotKept() throws Exception {
+		WriteBehindCartStore store = open(new SimpleMeterRegistry());
+		store.create(cart("100004", line("item1", 2)));
+		store.flush();
+		// Writes everything out and closes the journal, which then refuses every entry
+		store.close();
+
+		assertThrows(IllegalStateException.class, () -> store.change("100004", c -> {
+			c.addLine(line("item2", 1));
+			return ResponseEntity.ok(c);
+		}));
+
+		assertEquals(1, store.items("100004").get().size());
+		store.flush();
+		assertEquals(1, stored("100004").getItems().size());
+	}
+
+	@Test
+	void testAcknowledgedChangesSurviveACrash() throws Exception {
+		WriteBehindCartStore crashed = open(new SimpleMeterRegistry());
+		crashed.create(cart("100002", line("item1", 1)));
+		crashed.flush();
+		crashed.create(cart("100003", line("item9", 4)));
+		for (int quantity = 2; quantity <= 5; quantity++) {
+			int set = quantity;
+			crashed.change("100002", c -> {
+				c.findLine("item1").get().setQuantity(set);
+				c.setStatus(CartStatus.COMPLETED);
+				return ResponseEntity.ok(c);
+			});
+		}
+		assertEquals(1, stored("100002").getItems().get(0).getQuantity());
+		// The end of an entry that was being written when the process died
+		Files.writeString(lastSegment(), "{\"cartId\":\"100002\",\"sta", StandardOpenOption.APPEND);
+
+		open(new SimpleMeterRegistry());
+
+		Cart replayed = stored("100002");
+		assertEquals(CartStatus.COMPLETED, replayed.getStatus());
+		assertEquals(5, replayed.getItems().get(0).getQuantity());
+		assertEquals(4, stored("100003").getItems().get(0).getQuantity());
+	}
+
+	@Test
+	void testConcurrentChangesShareAnFsync() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		WriteBehindCartStore store = open(registry);
+		int threads = 16;
+		int changes = 50;
+		for (int t = 0; t < threads; t++) {
+			store.create(cart("2000" + (10 + t), line("item", 1)));
+		}
+		double before = registry.get("cart.journal.group").summary().count();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> done = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			String cartId = "2000" + (10 + t);
+			done.add(pool.submit(() -> {
+				for (int i = 0; i < changes; i++) {
+					store.change(cartId, c -> {
+						CartItemData line = c.findLine("item").get();
+						line.setQuantity(line.getQuantity() + 1);
+						return ResponseEntity.ok(line);
+					});
+				}
+			}));
+		}
+		for (Future<?> future : done) {
+			future.get();
+		}
+		pool.shutdown();
+
+		double syncs = registry.get("cart.journal.group").summary().count() - before;
+		assertTrue(syncs < threads * changes, syncs + " fsyncs");
+		store.flush();
+		assertEquals(1 + changes, stored("200010").getItems().get(0).getQuantity());
+		assertEquals(1 + changes, stored("200025").getItems().get(0).getQuantity());
+	}
+
+	private WriteBehindCartStore open(SimpleMeterRegistry registry) {
+		WriteBehindCartStore store = new WriteBehindCartStore(cartRepository, transactionManager, registry,
+				journalDir, 10, Duration.ofMinutes(10));
+		store.recover();
+		stores.add(store);
+		return store;
+	}
+
+	private Cart stored(String cartId) {
+		return cartRepository.findByCartIdIn(List.of(cartId)).get(0);
+	}
+
+	private long journalBytes() throws Exception {
+		try (Stream<Path> files = Files.list(journalDir)) {
+			long bytes = 0;
+			for (Path file : (Iterable<Path>) files::iterator) {
+				bytes += Files.size(file);
+			}
+			return bytes;
+		}
+	}
+
+	private Path lastSegment() throws Exception {
+		try (Stream<Path> files = Files.list(journalDir)) {
+			return files.sorted().reduce((first, second) -> second).get();
+		}
+	}
+
+	private static Cart cart(String cartId, CartItemData... lines) {
+		Cart cart = new Cart();
+		cart.setCartId(cartId);
+		cart.setStatus(CartStatus.IN_PROGRESS);
+		cart.setItems(new ArrayList<>(List.of(lines)));
+		return cart;
+	}
+
+	private static CartItemData line(String id, int quantity) {
+		CartItemData line = new CartItemData();
+		line.setId(id);
+		line.setName("Item " + id);
+		line.setPrice(2.5);
+		line.setQuantity(quantity);
+		return line;
+	}
+}
@@ -28,8 +28,8 @@ const useFetchItems = (sortOptions = { name: 'none', price: 'none' }, filters =
      */
     const fetchItems = useCallback(async () => {
         try {
-            // Build the request body dynamically from sort, filters, and searchTerm
-            const requestBody = {
+            // Build the query parameters dynamically from sort, filters, and searchTerm
+            const params = {
                 sort: [
                     `name,${sortOptions.name}`,  // Sort by name (asc/desc/none)
                     `price,${sortOptions.price}` // Sort by price (asc/desc/none)
@@ -42,8 +42,10 @@ const useFetchItems = (sortOptions = { name: 'none', price: 'none' }, filters =
                 ...(searchTerm ? { searchTerm: searchTerm } : {})
             };
 
-            // Perform the GET request to fetch items
-            const response = await axios.post(API_URL, requestBody);
+            // Perform the GET request to fetch items. Each sort goes out as its own
+            // `sort` parameter, and being a GET the browser can revalidate it with the
+            // ETag instead of downloading the same items again.
+            const response = await axios.get(API_URL, { params, paramsSerializer: { indexes: null } });
 
             // Log the fetched data to the console for debugging purposes
             console.log('Data fetched from API:', response.data);
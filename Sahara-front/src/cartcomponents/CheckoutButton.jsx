@@ -32,27 +32,12 @@ function CheckoutButton() {
                 console.log(`Using existing cart ID: ${checkoutId}`);
             }
 
-            // Fetch all item data
-            const itemDataList = await fetchAllItems(cartItems.map(item => item.id));
+            // Take every line off stock in one request - the server applies all of them or none
+            const insufficientItems = await reserveStock(cartItems);
 
-            let allItemsAvailable = true;
-            let insufficientItems = [];
-
-            // Check item quantities
-            for (let item of cartItems) {
-                console.log('Checking item id:', item.id);
-                const itemStockLevel = itemDataList.find(data => data.id === item.id);
-                if (itemStockLevel && itemStockLevel.quantity < item.quantity) {
-                    allItemsAvailable = false;
-                    insufficientItems.push(item.name);
-                }
-                console.log('Check for item complete');
-            }
-
-            if (allItemsAvailable) {
-                console.log('All items available');
-                // Update item quantities and order status
-                await batchUpdateItemsAndCart(itemDataList, checkoutId, cartItems);
+            if (insufficientItems.length === 0) {
+                console.log('All items reserved');
+                await completeCart(checkoutId);
                 setAlertMessage('Checkout complete!');
                 clearCart(); // Clear the cart after successful checkout
             } else {
@@ -67,33 +52,23 @@ function CheckoutButton() {
         }
     };
 
-    const fetchAllItems = async (itemIds) => {
-        try {
-            console.log('Fetching item data...');
-            const response = await axios.post('http://localhost:8082/items/getByIds', itemIds);
-            console.log('Fetch complete:', response.data);
-            return response.data;
-        } catch (error) {
-            console.error('Failed to fetch items:', error);
-            return [];
-        }
+    // Returns the names of the items that were short, empty if everything was reserved
+    const reserveStock = async (cartItems) => {
+        console.log('Reserving stock...');
+        const lines = cartItems.map(item => ({ itemId: item.id, quantity: item.quantity }));
+        const response = await axios.post('http://localhost:8082/items/reserve', lines, {
+            validateStatus: status => status === 200 || status === 409
+        });
+        console.log('Reservation result:', response.data);
+        // One line comes back per line sent, in the same order. A restored cart holds its
+        // ids as strings while the server answers with numbers, so match by position
+        return response.data.lines
+            .map((line, index) => ({ ok: line.ok, name: cartItems[index].name }))
+            .filter(line => !line.ok)
+            .map(line => line.name);
     };
 
-    const batchUpdateItemsAndCart = async (itemDataList, checkoutId, cartItems) => {
-        try {
-            console.log('Batch updating items and cart...');
-            for (let item of cartItems) {
-                const itemStockLevel = itemDataList.find(data => data.id === item.id);
-                if (itemStockLevel) {
-                    const newStockLevel = itemStockLevel.quantity - item.quantity;
-                    await axios.patch(`http://localhost:8082/item/update/${item.id}`, { quantity: newStockLevel });
-                }
-            }
-        } catch (error) {
-            console.error('Failed to update items in the cart:', error);
-            throw error;
-        }
-
+    const completeCart = async (checkoutId) => {
         try {
             const response = await axios.patch(`http://localhost:8083/cart/update/${checkoutId}`, {
                 status: "Completed",
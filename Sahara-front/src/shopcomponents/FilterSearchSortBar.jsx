@@ -8,6 +8,7 @@ const FilterSearchSortBar = ({ fetchItems }) => {
 
     const [localSearchTerm, setLocalSearchTerm] = useState(searchTerm);
     const [categories, setCategories] = useState([]);
+    const [suggestions, setSuggestions] = useState([]);
 
     const [showSortControls, setShowSortControls] = useState(false);
     const [showFilterControls, setShowFilterControls] = useState(false);
@@ -24,6 +25,17 @@ const FilterSearchSortBar = ({ fetchItems }) => {
         setSearchTerm('');
     }
 
+    // Picking a category from the suggestions filters by it, anything else is searched for
+    const handleSearchChange = (value) => {
+        const category = suggestions.find(s => s.kind === 'category' && s.text === value);
+        if (category) {
+            setFilters(prev => ({ ...prev, category: category.text }));
+            setSearchTerm('');
+            return;
+        }
+        setSearchTerm(value);
+    }
+
     const handleClearSort = () => {
         setSortOptions({ name: 'none', price: 'none' });
     }
@@ -37,6 +49,30 @@ const FilterSearchSortBar = ({ fetchItems }) => {
         fetchItems();
     }, [sortOptions, filters, searchTerm]);
 
+    // Suggestions for what has been typed, once typing pauses. A response for an older
+    // search term is dropped.
+    useEffect(() => {
+        if (!searchTerm || !searchTerm.trim()) {
+            setSuggestions([]);
+            return;
+        }
+        let stale = false;
+        const timer = setTimeout(async () => {
+            try {
+                const response = await axios.get('http://localhost:8082/items/suggest', { params: { q: searchTerm } });
+                if (!stale) {
+                    setSuggestions(response.data);
+                }
+            } catch (error) {
+                console.error("Error fetching suggestions:", error);
+            }
+        }, 150);
+        return () => {
+            stale = true;
+            clearTimeout(timer);
+        };
+    }, [searchTerm]);
+
     useEffect(() => {
         const fetchCategories = async () => {
             try {
@@ -58,9 +94,17 @@ const FilterSearchSortBar = ({ fetchItems }) => {
                     <label>Search</label>
                     <input
                         type="text"
+                        list="search-suggestions"
                         value={searchTerm}
-                        onChange={e => setSearchTerm(e.target.value)}
+                        onChange={e => handleSearchChange(e.target.value)}
                     />
+                    <datalist id="search-suggestions">
+                        {suggestions.map((suggestion) => (
+                            <option key={suggestion.kind + ':' + suggestion.text} value={suggestion.text}>
+                                {suggestion.kind}
+                            </option>
+                        ))}
+                    </datalist>
                     <button onClick={handleSearchSubmit}>Search</button>
                     <button onClick={handleClearSearch}>Clear</button>
                     <div className="sort-button" onClick={toggleSortControls}>Sort</div>
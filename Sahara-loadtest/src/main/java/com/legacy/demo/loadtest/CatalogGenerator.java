@@ -0,0 +1,149 @@
+package com.legacy.demo.loadtest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Seeded synthetic catalog shaped like a real shop's rather than uniform noise, since
+ * uniform data makes every filter equally selective and every index equally useful.
+ *
+ * Categories and tags are drawn by Zipf popularity, so a few categories hold most of the
+ * catalog and a long tail holds little. Prices are log-normal around each category's own
+ * median and mostly end in .99. A share of items is out of stock and the rest is skewed
+ * towards small quantities. The same seed always gives the same catalog.
+ */
+public class CatalogGenerator {
+
+    // Most popular first, with the median price of each
+    static final String[] CATEGORIES = { "Shirts", "Shoes", "Jeans", "Dresses", "Sweaters", "Jackets", "Bags",
+            "Socks", "Hats", "Coats", "Boots", "Sportswear", "Accessories", "Watches", "Sunglasses", "Scarves",
+            "Belts", "Gloves", "Swimwear", "Jewellery" };
+    private static final double[] MEDIAN_PRICES = { 35, 85, 60, 55, 50, 110, 70, 9, 25, 140, 120, 45, 15, 180,
+            90, 28, 30, 22, 35, 75 };
+    static final String[] TAGS = { "new", "sale", "cotton", "bestseller", "unisex", "slim", "eco", "leather",
+            "wool", "kids", "waterproof", "organic", "limited", "oversized", "gift", "vegan", "recycled", "linen",
+            "denim", "stretch", "handmade", "silk", "cashmere", "vintage", "breathable", "lightweight", "padded",
+            "reflective", "petite", "tall", "plus-size", "maternity", "festival", "wedding", "office", "outdoor",
+            "travel", "running", "yoga", "hiking" };
+    static final String[] WORDS = { "Classic", "Urban", "Summer", "Winter", "Trail", "Studio", "Retro", "Everyday",
+            "Premium", "Vintage", "Sport", "Travel", "Coastal", "Alpine", "Metro", "Heritage" };
+    private static final String[] COLORS = { "black", "white", "blue", "grey", "red", "green", "brown", "beige",
+            "pink", "yellow" };
+    private static final double PRICE_SPREAD = 0.55;
+    private static final double OUT_OF_STOCK = 0.08;
+    private static final int MAX_TAGS = 6;
+
+    static final Zipf CATEGORY_POPULARITY = new Zipf(CATEGORIES.length, 1.1);
+    static final Zipf TAG_POPULARITY = new Zipf(TAGS.length, 1.0);
+    private static final Zipf COLOR_POPULARITY = new Zipf(COLORS.length, 1.2);
+
+    private final Random random;
+
+    public CatalogGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    // The next item, as /items/import reads it
+    public Map<String, Object> next() {
+        int category = CATEGORY_POPULARITY.sample(random);
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("name", WORDS[random.nextInt(WORDS.length)] + " " + CATEGORIES[category] + " "
+                + (100 + random.nextInt(900)));
+        item.put("price", price(MEDIAN_PRICES[category]));
+        item.put("quantity", quantity());
+        item.put("imageUrl", "img/" + CATEGORIES[category].toLowerCase() + "/" + random.nextInt(500) + ".png");
+        item.put("color", COLORS[COLOR_POPULARITY.sample(random)]);
+        item.put("category", CATEGORIES[category]);
+        item.put("tags", tags());
+        return item;
+    }
+
+    public void writeNdjson(Path file, int count, ObjectMapper objectMapper) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < count; i++) {
+                out.write(objectMapper.writeValueAsString(next()));
+                out.write('\n');
+            }
+        }
+    }
+
+    private double price(double median) {
+        double price = median * Math.exp(PRICE_SPREAD * random.nextGaussian());
+        price = Math.max(1, Math.min(5000, price));
+        // Mostly charm prices, some half and some whole ones
+        double ending = random.nextDouble();
+        if (ending < 0.7) {
+            return Math.floor(price) + 0.99;
+        }
+        if (ending < 0.9) {
+            return Math.floor(price) + 0.49;
+        }
+        return Math.round(price);
+    }
+
+    private int quantity() {
+        if (random.nextDouble() < OUT_OF_STOCK) {
+            return 0;
+        }
+        return (int) Math.max(1, Math.min(500, Math.round(20 * Math.exp(random.nextGaussian()))));
+    }
+
+    private List<String> tags() {
+        Set<String> tags = new LinkedHashSet<>();
+        int count = 0;
+        while (count < MAX_TAGS && random.nextDouble() < 0.6) {
+            count++;
+        }
+        while (tags.size() < count) {
+            tags.add(TAGS[TAG_POPULARITY.sample(random)]);
+        }
+        return new ArrayList<>(tags);
+    }
+
+    /**
+     * Zipf distribution over ranks 0 to n - 1: rank k is drawn in proportion to
+     * 1 / (k + 1)^s.
+     */
+    static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double s) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, s);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < n; k++) {
+                cumulative[k] /= sum;
+            }
+        }
+
+        int sample(Random random) {
+            double u = random.nextDouble();
+            int low = 0;
+            int high = cumulative.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < u) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
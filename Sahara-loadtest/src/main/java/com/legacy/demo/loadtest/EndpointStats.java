@@ -0,0 +1,90 @@
+package com.legacy.demo.loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latencies and error counts per endpoint, recorded from every user thread into one
+ * HdrHistogram each. Nothing is kept until measuring starts, so the warmup doesn't count.
+ */
+public class EndpointStats {
+
+    private static final long MAX_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private volatile boolean measuring;
+    private final LongAdder sessions = new LongAdder();
+
+    public void startMeasuring() {
+        measuring = true;
+    }
+
+    public void stopMeasuring() {
+        measuring = false;
+    }
+
+    public void record(String endpoint, long nanos, boolean error) {
+        if (!measuring) {
+            return;
+        }
+        Endpoint stats = endpoints.computeIfAbsent(endpoint, e -> new Endpoint());
+        stats.latencies.recordValue(Math.min(MAX_LATENCY, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        if (error) {
+            stats.errors.increment();
+        }
+    }
+
+    public void sessionDone() {
+        if (measuring) {
+            sessions.increment();
+        }
+    }
+
+    // Throughput and latency percentiles per endpoint, busiest first
+    public Map<String, Object> report(double seconds) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        endpoints.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().latencies.getTotalCount(),
+                        a.getValue().latencies.getTotalCount()))
+                .forEach(e -> rows.add(row(e.getKey(), e.getValue(), seconds)));
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("seconds", seconds);
+        report.put("sessions", sessions.sum());
+        report.put("sessionsPerSecond", sessions.sum() / seconds);
+        report.put("endpoints", rows);
+        return report;
+    }
+
+    private static Map<String, Object> row(String name, Endpoint endpoint, double seconds) {
+        Histogram latencies = endpoint.latencies.copy();
+        Map<String, Object> latencyMs = new LinkedHashMap<>();
+        latencyMs.put("p50", millis(latencies.getValueAtPercentile(50)));
+        latencyMs.put("p95", millis(latencies.getValueAtPercentile(95)));
+        latencyMs.put("p99", millis(latencies.getValueAtPercentile(99)));
+        latencyMs.put("max", millis(latencies.getMaxValue()));
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("endpoint", name);
+        row.put("requests", latencies.getTotalCount());
+        row.put("errors", endpoint.errors.sum());
+        row.put("throughput", latencies.getTotalCount() / seconds);
+        row.put("latencyMs", latencyMs);
+        return row;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static final class Endpoint {
+        private final ConcurrentHistogram latencies = new ConcurrentHistogram(MAX_LATENCY, 3);
+        private final LongAdder errors = new LongAdder();
+    }
+}
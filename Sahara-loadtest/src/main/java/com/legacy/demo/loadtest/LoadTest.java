@@ -0,0 +1,204 @@
+package com.legacy.demo.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Load test of the item and cart services together. Starts both from their packaged jars
+ * on in-memory databases, imports a synthetic catalog through /items/import, saves a set
+ * of carts, and then has a number of users each visit the shop over and over as Shopper
+ * describes, without pausing unless a think time is set. After a warmup the latencies
+ * of every call are recorded per endpoint for the measured duration.
+ *
+ * The report - the settings, then throughput and p50/p95/p99 latency per endpoint - is
+ * written as JSON and summed up on the console.
+ *
+ * mvn -f Sahara-back package -DskipTests, the same for Sahara-cart, and then from here
+ * mvn compile exec:java -Dexec.args="--items=1000000 --users=64 --duration=2m"
+ */
+public class LoadTest {
+
+    private final LoadTestSettings settings;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    public LoadTest(LoadTestSettings settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest(LoadTestSettings.parse(args)).run();
+    }
+
+    public void run() throws Exception {
+        Path workDir = Files.createDirectories(settings.getWorkDir());
+        Path catalog = workDir.resolve("catalog-" + settings.getItems() + "-" + settings.getSeed() + ".ndjson");
+        if (!Files.exists(catalog)) {
+            System.out.println("Generating " + settings.getItems() + " items into " + catalog);
+            new CatalogGenerator(settings.getSeed()).writeNdjson(catalog, settings.getItems(), objectMapper);
+        }
+
+        Instant startedAt = Instant.now();
+        try (ServiceProcess back = ServiceProcess.start("back", settings.getBackJar(), settings.getBackPort(),
+                settings.getHeap(), workDir, List.of());
+                ServiceProcess cart = ServiceProcess.start("cart", settings.getCartJar(), settings.getCartPort(),
+                        settings.getHeap(), workDir,
+                        List.of("--cart.pricing.item-service-url=" + back.baseUrl()))) {
+            importCatalog(back, catalog);
+            Shopper shopper = new Shopper(http, objectMapper, new EndpointStats(), back.baseUrl(),
+                    cart.baseUrl(), settings.getPageSize(), settings.getThinkTime(), List.of());
+            List<String> savedCarts = saveCarts(shopper, exportCatalog(back));
+
+            EndpointStats stats = new EndpointStats();
+            shopper = new Shopper(http, objectMapper, stats, back.baseUrl(), cart.baseUrl(),
+                    settings.getPageSize(), settings.getThinkTime(), savedCarts);
+            double seconds = shop(shopper, stats);
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("startedAt", startedAt.toString());
+            report.put("settings", settings.asMap());
+            report.putAll(stats.report(seconds));
+            Files.createDirectories(settings.getReport().toAbsolutePath().getParent());
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(settings.getReport().toFile(), report);
+            print(report);
+        }
+    }
+
+    private void importCatalog(ServiceProcess back, Path catalog) throws IOException, InterruptedException {
+        System.out.println("Importing " + catalog);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(back.baseUrl() + "/items/import"))
+                .header("Content-Type", "application/x-ndjson")
+                .POST(HttpRequest.BodyPublishers.ofFile(catalog))
+                .build();
+        HttpResponse<Stream<String>> response = http.send(request, HttpResponse.BodyHandlers.ofLines());
+        JsonNode progress = null;
+        for (Iterator<String> lines = response.body().iterator(); lines.hasNext();) {
+            progress = objectMapper.readTree(lines.next());
+            if (progress.path("batch").asInt() % 100 == 0) {
+                System.out.println("  " + progress.path("imported").asLong() + " imported");
+            }
+        }
+        if (response.statusCode() != 200 || progress == null || !progress.path("done").asBoolean()
+                || progress.path("failed").asLong() > 0) {
+            throw new IllegalStateException("Import failed: " + response.statusCode() + " " + progress);
+        }
+    }
+
+    // The id, name and price of every item, as the services numbered them
+    private Catalog exportCatalog(ServiceProcess back) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(back.baseUrl() + "/items/export")).build();
+        HttpResponse<Stream<String>> response = http.send(request, HttpResponse.BodyHandlers.ofLines());
+        Catalog catalog = new Catalog(settings.getItems());
+        for (Iterator<String> lines = response.body().iterator(); lines.hasNext();) {
+            JsonNode item = objectMapper.readTree(lines.next());
+            catalog.ids.add(item.path("id").asText());
+            catalog.names.add(item.path("name").asText());
+            catalog.prices.add(item.path("price").asDouble());
+        }
+        return catalog;
+    }
+
+    // Carts of one to four random items, for shoppers to come back to
+    private List<String> saveCarts(Shopper shopper, Catalog catalog) {
+        System.out.println("Saving " + settings.getCarts() + " carts");
+        return IntStream.range(0, settings.getCarts()).parallel()
+                .mapToObj(c -> {
+                    Random random = new Random(settings.getSeed() + c);
+                    // A cart holds an item once
+                    Map<String, Map<String, Object>> lines = new LinkedHashMap<>();
+                    for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                        int item = random.nextInt(catalog.ids.size());
+                        lines.put(catalog.ids.get(item), Shopper.line(catalog.ids.get(item),
+                                catalog.names.get(item), catalog.prices.get(item), 1 + random.nextInt(3)));
+                    }
+                    return shopper.saveCart(new ArrayList<>(lines.values()));
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    // Runs the users through the warmup and the measured duration, returns the seconds measured
+    private double shop(Shopper shopper, EndpointStats stats) throws InterruptedException {
+        System.out.println(settings.getUsers() + " users shopping, " + settings.getWarmup() + " warmup then "
+                + settings.getDuration());
+        AtomicBoolean open = new AtomicBoolean(true);
+        ExecutorService users = Executors.newFixedThreadPool(settings.getUsers());
+        for (int u = 0; u < settings.getUsers(); u++) {
+            Random random = new Random(settings.getSeed() * 31 + u);
+            users.execute(() -> {
+                try {
+                    while (open.get()) {
+                        shopper.visit(random);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        Thread.sleep(settings.getWarmup().toMillis());
+        stats.startMeasuring();
+        long start = System.nanoTime();
+        Thread.sleep(settings.getDuration().toMillis());
+        stats.stopMeasuring();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        open.set(false);
+        users.shutdown();
+        if (!users.awaitTermination(1, TimeUnit.MINUTES)) {
+            users.shutdownNow();
+        }
+        return seconds;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void print(Map<String, Object> report) {
+        System.out.printf("%n%.1f sessions/s over %.0fs, report in %s%n", report.get("sessionsPerSecond"),
+                report.get("seconds"), settings.getReport());
+        System.out.printf("%-26s %10s %8s %10s %9s %9s %9s%n", "endpoint", "requests", "errors", "req/s",
+                "p50 ms", "p95 ms", "p99 ms");
+        for (Map<String, Object> row : (List<Map<String, Object>>) report.get("endpoints")) {
+            Map<String, Object> latency = (Map<String, Object>) row.get("latencyMs");
+            System.out.printf("%-26s %10d %8d %10.1f %9.2f %9.2f %9.2f%n", row.get("endpoint"), row.get("requests"),
+                    row.get("errors"), row.get("throughput"), latency.get("p50"), latency.get("p95"),
+                    latency.get("p99"));
+        }
+    }
+
+    private static final class Catalog {
+        private final List<String> ids;
+        private final List<String> names;
+        private final List<Double> prices;
+
+        Catalog(int size) {
+            ids = new ArrayList<>(size);
+            names = new ArrayList<>(size);
+            prices = new ArrayList<>(size);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.legacy.demo.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What to run, from --name=value arguments. Every setting has a default good for a first
+ * run on a laptop; the report repeats them all so two reports can be compared.
+ */
+public class LoadTestSettings {
+
+    private int items = 100_000;
+    private int carts = 1_000;
+    private int users = 32;
+    private Duration warmup = Duration.ofSeconds(30);
+    private Duration duration = Duration.ofSeconds(60);
+    private Duration thinkTime = Duration.ZERO;
+    private long seed = 42;
+    private int pageSize = 48;
+    private Path backJar = Path.of("../Sahara-back/target/Items-BE-0.0.1-SNAPSHOT.jar");
+    private Path cartJar = Path.of("../Sahara-cart/target/Items-BE-0.0.1-SNAPSHOT.jar");
+    private int backPort = 18082;
+    private int cartPort = 18083;
+    private String heap = "2g";
+    private Path workDir = Path.of("target/loadtest");
+    private Path report = Path.of("target/loadtest-report.json");
+
+    public static LoadTestSettings parse(String... args) {
+        LoadTestSettings settings = new LoadTestSettings();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            settings.set(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        if (settings.items < 1 || settings.users < 1) {
+            throw new IllegalArgumentException("Need at least one item and one user");
+        }
+        return settings;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "items" -> items = Integer.parseInt(value);
+            case "carts" -> carts = Integer.parseInt(value);
+            case "users" -> users = Integer.parseInt(value);
+            case "warmup" -> warmup = duration(value);
+            case "duration" -> duration = duration(value);
+            case "think-time" -> thinkTime = duration(value);
+            case "seed" -> seed = Long.parseLong(value);
+            case "page-size" -> pageSize = Integer.parseInt(value);
+            case "back-jar" -> backJar = Path.of(value);
+            case "cart-jar" -> cartJar = Path.of(value);
+            case "back-port" -> backPort = Integer.parseInt(value);
+            case "cart-port" -> cartPort = Integer.parseInt(value);
+            case "heap" -> heap = value;
+            case "work-dir" -> workDir = Path.of(value);
+            case "report" -> report = Path.of(value);
+            default -> throw new IllegalArgumentException("Unknown setting --" + name);
+        }
+    }
+
+    // 30s, 2m, 500ms
+    private static Duration duration(String value) {
+        String lower = value.toLowerCase();
+        if (lower.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(lower.substring(0, lower.length() - 2)));
+        }
+        return Duration.parse("PT" + lower.toUpperCase());
+    }
+
+    public Map<String, Object> asMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("items", items);
+        map.put("carts", carts);
+        map.put("users", users);
+        map.put("warmup", warmup.toString());
+        map.put("duration", duration.toString());
+        map.put("thinkTime", thinkTime.toString());
+        map.put("seed", seed);
+        map.put("pageSize", pageSize);
+        map.put("heap", heap);
+        return map;
+    }
+
+    public int getItems() {
+        return items;
+    }
+
+    public int getCarts() {
+        return carts;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public Duration getWarmup() {
+        return warmup;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public Duration getThinkTime() {
+        return thinkTime;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public Path getBackJar() {
+        return backJar;
+    }
+
+    public Path getCartJar() {
+        return cartJar;
+    }
+
+    public int getBackPort() {
+        return backPort;
+    }
+
+    public int getCartPort() {
+        return cartPort;
+    }
+
+    public String getHeap() {
+        return heap;
+    }
+
+    public Path getWorkDir() {
+        return workDir;
+    }
+
+    public Path getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,160 @@
+package com.legacy.demo.loadtest;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One of the services running from its own jar in a JVM of its own, on an in-memory H2
+ * database instead of MySQL. The plain jars don't carry the H2 driver, so the launcher is
+ * told to add the one on this harness's class path. Output goes to name.log in the work
+ * directory.
+ */
+public class ServiceProcess implements AutoCloseable {
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(3);
+
+    private final String name;
+    private final int port;
+    private final Process process;
+    private Duration startupTime;
+
+    private ServiceProcess(String name, int port, Process process) {
+        this.name = name;
+        this.port = port;
+        this.process = process;
+    }
+
+    // Starts the jar and waits until its health endpoint says UP
+    public static ServiceProcess start(String name, Path jar, int port, String heap, Path workDir,
+            List<String> properties) throws IOException, InterruptedException {
+        return start(name, launcher(jar, heap), workDir, port, workDir, properties, "/actuator/health");
+    }
+
+    /**
+     * Runs the launch command - java, its options and what to run - in the given directory,
+     * with the database and port settings after it, and waits until a GET of the probe path
+     * is answered with a 200. How long that took from just before the process started is
+     * startupTime().
+     */
+    public static ServiceProcess start(String name, List<String> launch, Path directory, int port, Path workDir,
+            List<String> properties, String probe) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(launch);
+        command.add("--server.port=" + port);
+        command.add("--spring.datasource.url=jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        command.add("--spring.datasource.username=sa");
+        command.add("--spring.datasource.password=");
+        command.add("--spring.jpa.hibernate.ddl-auto=create");
+        command.add("--spring.jpa.show-sql=false");
+        command.add("--management.endpoints.web.exposure.include=health");
+        command.addAll(properties);
+
+        Path log = workDir.resolve(name + ".log");
+        long startedAt = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        ServiceProcess service = new ServiceProcess(name, port, process);
+        try {
+            service.awaitServing(probe, log);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            service.close();
+            throw e;
+        }
+        service.startupTime = Duration.ofNanos(System.nanoTime() - startedAt);
+        return service;
+    }
+
+    // The packaged jar, with the H2 driver on this harness's class path added to it
+    public static List<String> launcher(Path jar, String heap) {
+        if (!Files.isRegularFile(jar)) {
+            throw new IllegalArgumentException(jar.toAbsolutePath() + " not found, package it first");
+        }
+        List<String> command = new ArrayList<>();
+        command.add(java());
+        command.add("-Xmx" + heap);
+        command.add("-Dloader.path=" + h2Driver());
+        command.add("-cp");
+        command.add(jar.toAbsolutePath().toString());
+        command.add("org.springframework.boot.loader.launch.PropertiesLauncher");
+        return command;
+    }
+
+    // The H2 driver as the startup profile's training run has it, on the module path so the
+    // extracted jar's class path is still the one its archive was recorded with
+    public static List<String> h2Module() {
+        return List.of("--module-path=" + h2Driver(), "--add-modules=com.h2database");
+    }
+
+    public static String java() {
+        return Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + port;
+    }
+
+    public Duration startupTime() {
+        return startupTime;
+    }
+
+    private void awaitServing(String probe, Path log) throws IOException, InterruptedException {
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl() + probe))
+                .timeout(Duration.ofSeconds(10))
+                .build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException(name + " exited with " + process.exitValue() + ", see " + log);
+            }
+            try {
+                if (http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (ConnectException e) {
+                // Not listening yet
+            }
+            // Often enough to time startup with, rarely enough not to slow it
+            Thread.sleep(20);
+        }
+        throw new IllegalStateException(name + " not serving " + probe + " after " + STARTUP_TIMEOUT + ", see "
+                + log);
+    }
+
+    private static String h2Driver() {
+        try {
+            Class<?> driver = Class.forName("org.h2.Driver");
+            return Path.of(driver.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (ClassNotFoundException | URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Interrupted while waiting for the service to stop, it is killed and the interrupt is
+    // left set for the caller
+    @Override
+    public void close() {
+        process.destroy();
+        try {
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
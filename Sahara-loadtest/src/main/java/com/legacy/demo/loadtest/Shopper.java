@@ -0,0 +1,253 @@
+package com.legacy.demo.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * One shopper's visit, making the calls the React front end makes for it:
+ *
+ * - the shop page: the categories for the filter bar and the unfiltered items
+ * - one to three filter changes, each fetching the items again
+ * - sometimes a search, typed a character at a time - every keystroke fetches the items
+ *   and the suggestions follow once typing pauses
+ * - sometimes saving a cart of items seen on the page, and then sometimes checking it out:
+ *   one reservation for every line, and on success the cart marked Completed
+ * - sometimes opening a saved cart by its id
+ *
+ * The front end doesn't page the item list yet; here every list is one page of
+ * pageSize items, as a catalog of a million items can't be sent whole to every shopper.
+ */
+public class Shopper {
+
+    static final String CATEGORIES = "GET /items/get/categories";
+    static final String FILTER = "GET /items/filter";
+    static final String SUGGEST = "GET /items/suggest";
+    static final String SAVE_CART = "POST /cart/add";
+    static final String RESERVE = "POST /items/reserve";
+    static final String COMPLETE_CART = "PATCH /cart/update/{id}";
+    static final String OPEN_CART = "GET /cart/{id}";
+
+    private static final String[] SORTS = { "none", "asc", "desc" };
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient http;
+    private final ObjectMapper objectMapper;
+    private final EndpointStats stats;
+    private final String backUrl;
+    private final String cartUrl;
+    private final int pageSize;
+    private final Duration thinkTime;
+    private final List<String> savedCarts;
+
+    public Shopper(HttpClient http, ObjectMapper objectMapper, EndpointStats stats, String backUrl,
+            String cartUrl, int pageSize, Duration thinkTime, List<String> savedCarts) {
+        this.http = http;
+        this.objectMapper = objectMapper;
+        this.stats = stats;
+        this.backUrl = backUrl;
+        this.cartUrl = cartUrl;
+        this.pageSize = pageSize;
+        this.thinkTime = thinkTime;
+        this.savedCarts = savedCarts;
+    }
+
+    public void visit(Random random) throws InterruptedException {
+        send(CATEGORIES, get(backUrl + "/items/get/categories"));
+        Map<String, String> filters = new LinkedHashMap<>();
+        String nameSort = "none";
+        String priceSort = "none";
+        JsonNode items = filter(nameSort, priceSort, filters);
+
+        int changes = 1 + random.nextInt(3);
+        for (int i = 0; i < changes; i++) {
+            think();
+            double change = random.nextDouble();
+            if (change < 0.45) {
+                filters.put("category",
+                        CatalogGenerator.CATEGORIES[CatalogGenerator.CATEGORY_POPULARITY.sample(random)]);
+            } else if (change < 0.65) {
+                int low = 5 * random.nextInt(20);
+                filters.put("minPrice", String.valueOf(low));
+                filters.put("maxPrice", String.valueOf(low + 25 + 25 * random.nextInt(8)));
+            } else if (change < 0.8) {
+                filters.put("inStock", "true");
+            } else if (random.nextBoolean()) {
+                priceSort = SORTS[random.nextInt(SORTS.length)];
+            } else {
+                nameSort = SORTS[random.nextInt(SORTS.length)];
+            }
+            items = filter(nameSort, priceSort, filters);
+        }
+
+        if (random.nextDouble() < 0.4) {
+            String word = searchWord(random);
+            int typed = Math.min(word.length(), 3 + random.nextInt(4));
+            for (int length = 1; length <= typed; length++) {
+                filters.put("searchTerm", word.substring(0, length));
+                items = filter(nameSort, priceSort, filters);
+            }
+            send(SUGGEST, get(backUrl + "/items/suggest?q=" + encode(word.substring(0, typed))));
+            think();
+        }
+
+        if (random.nextDouble() < 0.5) {
+            List<Map<String, Object>> cart = pick(items, random);
+            if (!cart.isEmpty()) {
+                think();
+                String cartId = saveCart(cart);
+                if (cartId != null && random.nextDouble() < 0.6) {
+                    think();
+                    checkout(cartId, cart);
+                }
+            }
+        }
+
+        if (!savedCarts.isEmpty() && random.nextDouble() < 0.1) {
+            String cartId = savedCarts.get(random.nextInt(savedCarts.size()));
+            send(OPEN_CART, get(cartUrl + "/cart/" + cartId));
+        }
+        stats.sessionDone();
+    }
+
+    // Saves the lines as a new cart and returns its id, null if that failed
+    String saveCart(List<Map<String, Object>> lines) {
+        HttpResponse<byte[]> response = send(SAVE_CART, post(cartUrl + "/cart/add", lines));
+        return response == null ? null : new String(response.body(), StandardCharsets.UTF_8);
+    }
+
+    private void checkout(String cartId, List<Map<String, Object>> cart) {
+        List<Map<String, Object>> lines = new ArrayList<>();
+        for (Map<String, Object> line : cart) {
+            lines.add(Map.of("itemId", Integer.valueOf((String) line.get("id")), "quantity", line.get("quantity")));
+        }
+        // Short stock is an answer, not an error
+        HttpResponse<byte[]> reserved = send(RESERVE, post(backUrl + "/items/reserve", lines), 409);
+        if (reserved != null && reserved.statusCode() == 200) {
+            send(COMPLETE_CART, HttpRequest.newBuilder(URI.create(cartUrl + "/cart/update/" + cartId))
+                    .timeout(TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .method("PATCH", body(Map.of("status", "Completed")))
+                    .build());
+        }
+    }
+
+    private JsonNode filter(String nameSort, String priceSort, Map<String, String> filters) {
+        StringBuilder url = new StringBuilder(backUrl).append("/items/filter?sort=name,").append(nameSort)
+                .append("&sort=price,").append(priceSort)
+                .append("&page=0&size=").append(pageSize);
+        filters.forEach((name, value) -> url.append('&').append(name).append('=').append(encode(value)));
+        HttpResponse<byte[]> response = send(FILTER, get(url.toString()));
+        if (response == null) {
+            return objectMapper.createArrayNode();
+        }
+        try {
+            return objectMapper.readTree(response.body());
+        } catch (IOException e) {
+            return objectMapper.createArrayNode();
+        }
+    }
+
+    // One to three of the items in stock on the page, one or two of each
+    private static List<Map<String, Object>> pick(JsonNode items, Random random) {
+        List<JsonNode> inStock = new ArrayList<>();
+        items.forEach(item -> {
+            if (item.path("quantity").asInt() > 0) {
+                inStock.add(item);
+            }
+        });
+        List<Map<String, Object>> lines = new ArrayList<>();
+        int count = Math.min(inStock.size(), 1 + random.nextInt(3));
+        for (int i = 0; i < count; i++) {
+            JsonNode item = inStock.remove(random.nextInt(inStock.size()));
+            lines.add(line(item.path("id").asText(), item.path("name").asText(), item.path("price").asDouble(),
+                    1 + random.nextInt(2)));
+        }
+        return lines;
+    }
+
+    static Map<String, Object> line(String id, String name, double price, int quantity) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("id", id);
+        line.put("name", name);
+        line.put("price", price);
+        line.put("quantity", quantity);
+        return line;
+    }
+
+    // Mostly words from item names, sometimes a category or tag
+    private static String searchWord(Random random) {
+        double kind = random.nextDouble();
+        if (kind < 0.6) {
+            return CatalogGenerator.WORDS[random.nextInt(CatalogGenerator.WORDS.length)].toLowerCase();
+        }
+        if (kind < 0.85) {
+            return CatalogGenerator.CATEGORIES[CatalogGenerator.CATEGORY_POPULARITY.sample(random)].toLowerCase();
+        }
+        return CatalogGenerator.TAGS[CatalogGenerator.TAG_POPULARITY.sample(random)];
+    }
+
+    // The response, or null when the request failed or got an unexpected status
+    private HttpResponse<byte[]> send(String endpoint, HttpRequest request, int... expected) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            boolean ok = response.statusCode() < 400;
+            for (int status : expected) {
+                ok |= response.statusCode() == status;
+            }
+            stats.record(endpoint, System.nanoTime() - start, !ok);
+            return ok ? response : null;
+        } catch (IOException e) {
+            stats.record(endpoint, System.nanoTime() - start, true);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void think() throws InterruptedException {
+        if (!thinkTime.isZero()) {
+            Thread.sleep(thinkTime.toMillis());
+        }
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(TIMEOUT).header("Accept", "application/json")
+                .GET().build();
+    }
+
+    private HttpRequest post(String url, Object json) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(body(json))
+                .build();
+    }
+
+    private HttpRequest.BodyPublisher body(Object json) {
+        try {
+            return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(json));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,122 @@
+package com.legacy.demo.loadtest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Time from launching a service until it has served its first request, for each way of
+ * running it the build leaves behind:
+ *
+ * - jar: the fat jar as it is
+ * - jar-aot: the fat jar with the AOT-generated bean definitions
+ * - extracted-aot: the jar extracted by the startup profile, with AOT
+ * - extracted-aot-cds: that and the AppCDS archive of the training run
+ *
+ * The last three need the jar built with mvn -Pstartup package, otherwise only the first
+ * is timed. The extracted jar runs from its own directory, as the archive only holds for
+ * the class path it was trained with, and gets the H2 driver on its module path as the
+ * training run did. Runs take turns between the variants so drift on the machine hits
+ * them all alike. The first request of the item service is the category list, which goes
+ * to the database; the cart service's is its health check.
+ *
+ * mvn compile exec:java -Dexec.mainClass=com.legacy.demo.loadtest.StartupBenchmark
+ *     -Dexec.args="--service=back --runs=10"
+ */
+public class StartupBenchmark {
+
+    private static final Map<String, String> PROBES = Map.of(
+            "back", "/items/get/categories",
+            "cart", "/actuator/health");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("service", "back");
+        settings.put("runs", "5");
+        settings.put("port", "18090");
+        settings.put("heap", "1g");
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            settings.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        String service = settings.get("service");
+        String probe = PROBES.get(service);
+        if (probe == null) {
+            throw new IllegalArgumentException("Unknown service " + service + ", expected back or cart");
+        }
+        String jarName = "Items-BE-0.0.1-SNAPSHOT.jar";
+        String module = "back".equals(service) ? "Sahara-back" : "Sahara-cart";
+        Path jar = Path.of(settings.getOrDefault("jar", "../" + module + "/target/" + jarName));
+        Path extracted = jar.toAbsolutePath().resolveSibling("startup");
+        int runs = Integer.parseInt(settings.get("runs"));
+        int port = Integer.parseInt(settings.get("port"));
+        String heap = settings.get("heap");
+        Path workDir = Files.createDirectories(Path.of("target/startup-benchmark"));
+
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("jar", ServiceProcess.launcher(jar, heap));
+        if (Files.exists(extracted.resolve("application.jsa"))) {
+            List<String> aot = new ArrayList<>(ServiceProcess.launcher(jar, heap));
+            aot.add(1, "-Dspring.aot.enabled=true");
+            variants.put("jar-aot", aot);
+            List<String> extractedAot = new ArrayList<>(List.of(ServiceProcess.java(), "-Xmx" + heap,
+                    "-Dspring.aot.enabled=true"));
+            extractedAot.addAll(ServiceProcess.h2Module());
+            extractedAot.addAll(List.of("-jar", jarName));
+            variants.put("extracted-aot", extractedAot);
+            // Refuses to start rather than run without the archive
+            List<String> cds = new ArrayList<>(extractedAot);
+            cds.addAll(1, List.of("-XX:SharedArchiveFile=application.jsa", "-Xshare:on"));
+            variants.put("extracted-aot-cds", cds);
+        } else {
+            System.out.println("No " + extracted + ", package " + module + " with -Pstartup to time it too");
+        }
+
+        Map<String, List<Double>> millis = new LinkedHashMap<>();
+        variants.keySet().forEach(variant -> millis.put(variant, new ArrayList<>()));
+        for (int run = 1; run <= runs; run++) {
+            for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+                Path directory = variant.getKey().startsWith("extracted") ? extracted : workDir;
+                try (ServiceProcess process = ServiceProcess.start(service, variant.getValue(), directory, port,
+                        workDir, List.of(), probe)) {
+                    double ms = process.startupTime().toNanos() / 1e6;
+                    millis.get(variant.getKey()).add(ms);
+                    System.out.printf("run %d %-18s %8.0f ms%n", run, variant.getKey(), ms);
+                }
+            }
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        System.out.printf("%n%-18s %8s %8s %8s%n", "variant", "min ms", "p50 ms", "max ms");
+        for (Map.Entry<String, List<Double>> variant : millis.entrySet()) {
+            List<Double> sorted = new ArrayList<>(variant.getValue());
+            Collections.sort(sorted);
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("variant", variant.getKey());
+            row.put("min", sorted.get(0));
+            row.put("p50", sorted.get(sorted.size() / 2));
+            row.put("max", sorted.get(sorted.size() - 1));
+            row.put("runs", variant.getValue());
+            rows.add(row);
+            System.out.printf("%-18s %8.0f %8.0f %8.0f%n", variant.getKey(), row.get("min"), row.get("p50"),
+                    row.get("max"));
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("service", service);
+        report.put("probe", probe);
+        report.put("heap", heap);
+        report.put("firstRequestMs", rows);
+        Path file = Path.of(settings.getOrDefault("report", "target/startup-" + service + ".json"));
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), report);
+        System.out.println("Report in " + file);
+    }
+}
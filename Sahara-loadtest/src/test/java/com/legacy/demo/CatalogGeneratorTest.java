@@ -0,0 +1,55 @@
+package com.legacy.demo.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The synthetic catalog has to be repeatable and skewed the way a real one is
+public class CatalogGeneratorTest {
+
+    private static final int ITEMS = 20_000;
+
+    @Test
+    public void testSameSeedSameCatalog() {
+        CatalogGenerator first = new CatalogGenerator(7);
+        CatalogGenerator second = new CatalogGenerator(7);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first.next(), second.next());
+        }
+        assertNotEquals(new CatalogGenerator(7).next(), new CatalogGenerator(8).next());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDistributionsAreSkewed() {
+        CatalogGenerator generator = new CatalogGenerator(42);
+        Map<String, Integer> categories = new HashMap<>();
+        Map<String, Integer> tags = new HashMap<>();
+        int outOfStock = 0;
+        for (int i = 0; i < ITEMS; i++) {
+            Map<String, Object> item = generator.next();
+            categories.merge((String) item.get("category"), 1, Integer::sum);
+            List<String> itemTags = (List<String>) item.get("tags");
+            assertEquals(itemTags.size(), new HashSet<>(itemTags).size());
+            itemTags.forEach(tag -> tags.merge(tag, 1, Integer::sum));
+
+            double price = (Double) item.get("price");
+            assertTrue(price >= 1 && price <= 5000);
+            assertEquals(price, Math.round(price * 100) / 100.0);
+            if ((Integer) item.get("quantity") == 0) {
+                outOfStock++;
+            }
+        }
+
+        // The head of the distribution holds far more than the tail
+        String[] byPopularity = CatalogGenerator.CATEGORIES;
+        assertTrue(categories.get(byPopularity[0]) > 5 * categories.get(byPopularity[byPopularity.length - 1]));
+        assertTrue(tags.get(CatalogGenerator.TAGS[0]) > 10 * tags.getOrDefault(CatalogGenerator.TAGS[39], 1));
+        assertTrue(outOfStock > ITEMS * 0.05 && outOfStock < ITEMS * 0.11);
+    }
+}